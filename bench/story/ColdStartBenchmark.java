@@ -0,0 +1,55 @@
+package story;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import story.Pos.PosType;
+
+/**
+ * Time from a fresh JVM to a word lookup, which only loads the lexicon, 
+ * to a fully loaded model, and to the first sentence.
+ * Single shot in a new fork each time, so static initialization, i.e.
+ * reading the model data or snapshot, is measured every time.
+ *
+ * @author yihed
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+
+	@Param({"42"})
+	long seed;
+
+	@Param({"apple"})
+	String word;
+
+	@Benchmark
+	public PosType lookupWord() {
+		return Story.wordPosType(word);
+	}
+
+	@Benchmark
+	public void initializeModel() {
+		Story.loadModel();
+	}
+
+	@Benchmark
+	public String firstSentence() {
+		return Story.createSentence(PosType.VERB, null, new GenerationContext(seed));
+	}
+}
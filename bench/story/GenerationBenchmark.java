@@ -0,0 +1,194 @@
+package story;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import story.Dep.DepType;
+import story.Pos.PosType;
+import story.Story.PosPCType;
+import story.Story.SearchStrategy;
+
+/**
+ * Steady state benchmarks of each stage of the generation pipeline, and of
+ * whole sentences. Every draw comes from a context created from the seed
+ * param, so each run grows the same trees. Run with "ant bench", which adds
+ * the gc profiler for allocation rates.
+ *
+ * @author yihed
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GenerationBenchmark {
+
+	//trees scored, and origin trees sampled from, cycled through
+	private static final int POOL_SIZE = 1024;
+	//trees arranged per invocation, as each tree is only arranged once
+	private static final int ARRANGE_BATCH = 256;
+	//word count sentences are grown to in the targeted benchmarks
+	private static final int TARGET_WORD_COUNT = 9;
+
+	@Param({"42"})
+	long seed;
+
+	@Param({"VERB", "NOUN"})
+	PosType posType;
+
+	private GenerationContext context;
+	//context with TARGET_WORD_COUNT as word count target
+	private GenerationContext targetContext;
+	private RandomGenerator rand;
+	private Pos[] arrangedTrees;
+	private PosTree[] arrangedPosTrees;
+	private PosTree[] originTrees;
+	//DepType's drawn for the origin trees' children
+	private DepType[] childDepTypes;
+	private int poolIndex;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = new GenerationContext(seed);
+		rand = context.rand();
+		targetContext = new GenerationContext(seed);
+		targetContext.setWordCountRange(TARGET_WORD_COUNT, TARGET_WORD_COUNT);
+		arrangedTrees = new Pos[POOL_SIZE];
+		arrangedPosTrees = new PosTree[POOL_SIZE];
+		originTrees = new PosTree[POOL_SIZE];
+		List<DepType> depTypeList = new ArrayList<DepType>();
+
+		for(int i = 0; i < POOL_SIZE; i++) {
+			Pos tree = Pos.createSentenceTree(posType, context);
+			Pos.arrangePosStr(tree, context);
+			arrangedTrees[i] = tree;
+			PosTree posTree = Pos.createPosTree(posType, context);
+			posTree.arrange(rand);
+			arrangedPosTrees[i] = posTree;
+			originTrees[i] = Pos.createOriginTree(posType, null, rand);
+			depTypeList.addAll(PosType.selectRandomDepType(originTrees[i], 0, PosPCType.PARENT, 1, rand));
+		}
+		if(depTypeList.isEmpty()) {
+			throw new IllegalStateException("No child DepType drawn for " + posType);
+		}
+		childDepTypes = depTypeList.toArray(new DepType[depTypeList.size()]);
+		//built on first use, not to be timed
+		Story.wordTrie(posType.posTypeName());
+	}
+
+	/**
+	 * Trees not yet arranged, regenerated before each invocation, outside of
+	 * the measured time.
+	 */
+	@State(Scope.Thread)
+	public static class UnarrangedTrees{
+
+		final Pos[] trees = new Pos[ARRANGE_BATCH];
+
+		@Setup(Level.Invocation)
+		public void setUp(GenerationBenchmark benchmark) {
+			for(int i = 0; i < ARRANGE_BATCH; i++) {
+				trees[i] = Pos.createSentenceTree(benchmark.posType, benchmark.context);
+			}
+		}
+	}
+
+	private int nextPoolIndex() {
+		int index = poolIndex;
+		poolIndex = (index + 1) & (POOL_SIZE - 1);
+		return index;
+	}
+
+	@Benchmark
+	public Pos createSentenceTree() {
+		return Pos.createSentenceTree(posType, context);
+	}
+
+	@Benchmark
+	public PosTree createPosTree() {
+		return Pos.createPosTree(posType, context);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ARRANGE_BATCH)
+	public void arrangePosStr(UnarrangedTrees unarrangedTrees, Blackhole blackhole) {
+		for(Pos tree : unarrangedTrees.trees) {
+			blackhole.consume(Pos.arrangePosStr(tree, context));
+		}
+	}
+
+	@Benchmark
+	public double computeTreeScore() {
+		return ScoreTree.computeTreeScore(arrangedTrees[nextPoolIndex()], ScoreTree.MAX_TREE_SCORE);
+	}
+
+	@Benchmark
+	public double computePosTreeScore() {
+		return ScoreTree.computeTreeScore(arrangedPosTrees[nextPoolIndex()], ScoreTree.MAX_TREE_SCORE);
+	}
+
+	@Benchmark
+	public String getRandomWord() {
+		return Story.getRandomWord(posType, rand);
+	}
+
+	@Benchmark
+	public int getRandomWordId() {
+		return Story.getRandomWordId(posType, rand);
+	}
+
+	@Benchmark
+	public String getRandomWordWithPrefix() {
+		return Story.getRandomWord(posType, "s", rand);
+	}
+
+	@Benchmark
+	public List<DepType> selectRandomDepType() {
+		return PosType.selectRandomDepType(originTrees[nextPoolIndex()], 0, PosPCType.PARENT, 1, rand);
+	}
+
+	@Benchmark
+	public PosType selectRandomMatchingPos() {
+		DepType depType = childDepTypes[nextPoolIndex() % childDepTypes.length];
+		return depType.selectRandomMatchingPos(posType, PosPCType.PARENT, rand);
+	}
+
+	@Benchmark
+	public String createSentence() {
+		return Story.createSentence(posType, null, context);
+	}
+
+	@Benchmark
+	public GeneratedSentence generateBeamSentence() {
+		return Story.generateSentence(posType, null, context, SearchStrategy.BEAM);
+	}
+
+	@Benchmark
+	public PosTree createTargetWordCountPosTree() {
+		return Pos.createPosTree(posType, targetContext);
+	}
+
+	@Benchmark
+	public GeneratedSentence generateTargetWordCountSentence() {
+		return Story.generateSentence(posType, null, targetContext);
+	}
+}
@@ -0,0 +1,237 @@
+package story;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+import story.GenerationMetrics.Rejection;
+import story.GenerationMetrics.SentenceMetrics;
+import story.Pos.PosType;
+
+/**
+ * Beam search over sentence trees, as alternative to drawing whole trees
+ * until one scores high enough. Trees are grown one node per step, depth
+ * first, so subtrees complete and are sealed, i.e. scored, early. At each 
+ * step every partial tree in the beam is expanded a few times by sampling 
+ * its next node's children from the PosType and DepType stats, and the 
+ * beamWidth best partial trees are kept, ranked by model probability
+ * times the ScoreTree bound on their adjacency score. The number of trees
+ * grown is bounded by beamWidth * expansions per step, and trees grow for
+ * a bounded number of steps, so latency varies less than sampling's, which
+ * draws trees until one scores 0.9.
+ * It is not cheaper though: at the defaults, a sentence completes some 35 to
+ * 45 trees, against some 12 to 24 for sampling, whose hopeless trees are 
+ * abandoned early, and takes 3 to 8 times as long. Nor is a score assured: 
+ * e.g. sentences from NOUN or ADV score lower than sampling's on average, 
+ * a third or more below 0.9. Wider beams score higher, e.g. a width of 32 
+ * matches sampling for most PosTypes, at further cost.
+ *
+ * @author yihed
+ *
+ */
+public class BeamSearch {
+
+	public static final int DEFAULT_BEAM_WIDTH = 16;
+	/**samples of each partial tree's next expansion per step*/
+	public static final int DEFAULT_EXPANSIONS = 2;
+
+	private static final int INITIAL_FRONTIER_CAPACITY = 8;
+	private static final Comparator<Hypothesis> RANK_COMPARATOR = new Comparator<Hypothesis>() {
+		public int compare(Hypothesis h1, Hypothesis h2) {
+			//descending
+			return Double.compare(h2.logRank, h1.logRank);
+		}
+	};
+
+	/**
+	 * Partially grown tree, along with the nodes still to be expanded.
+	 */
+	private static class Hypothesis {
+
+		final PosTree tree;
+		/**stack of nodes still to be expanded*/
+		int[] frontier;
+		int frontierSize;
+		int posCount;
+		//log prob of the expansions so far
+		double logProb;
+		//log of per-node prob times score bound
+		double logRank;
+
+		Hypothesis(PosTree tree_) {
+			this.tree = tree_;
+			this.posCount = 1;
+			this.frontier = new int[INITIAL_FRONTIER_CAPACITY];
+			//origin
+			this.frontier[this.frontierSize++] = 0;
+		}
+
+		Hypothesis(Hypothesis hypothesis) {
+			this.tree = new PosTree(hypothesis.tree);
+			this.frontier = hypothesis.frontier.clone();
+			this.frontierSize = hypothesis.frontierSize;
+			this.posCount = hypothesis.posCount;
+			this.logProb = hypothesis.logProb;
+			this.logRank = hypothesis.logRank;
+		}
+
+		boolean isComplete() {
+			return 0 == this.frontierSize;
+		}
+
+		/**
+		 * Most words the nodes still to be expanded can add towards a word count target.
+		 * @return
+		 */
+		int wordCapacity() {
+			int capacity = 0;
+			for(int i = 0; i < this.frontierSize; i++) {
+				capacity += Pos.wordCapacity(this.tree, this.frontier[i]);
+			}
+			return capacity;
+		}
+
+		/**
+		 * Expands the most recent node on the frontier. New children that can't
+		 * get children of their own are sealed right away rather than put on
+		 * the frontier, so hypotheses only branch on actual choices.
+		 * @param context
+		 */
+		void expandNext(GenerationContext context) {
+			RandomGenerator rand = context.rand();
+			int node = this.frontier[--this.frontierSize];
+			//children added are at indices [firstChild, childEnd)
+			int firstChild = this.tree.size();
+			this.posCount = Pos.expandNode(this.tree, node, this.posCount, context);
+			this.logProb += Pos.expansionLogProb(this.tree, node);
+			int childEnd = this.tree.size();
+			
+			//pushed in reverse, so first child is expanded first
+			for(int child = childEnd-1; child >= firstChild; child--) {
+				if(Pos.canExpand(this.tree, child)) {
+					if(this.frontierSize == this.frontier.length) {
+						this.frontier = Arrays.copyOf(this.frontier, this.frontierSize << 1);
+					}
+					this.frontier[this.frontierSize++] = child;
+				}else {
+					this.tree.seal(child, rand);
+				}
+			}
+			this.tree.sealIfComplete(node, rand);
+			//per-node prob, so trees of different sizes compare fairly
+			this.logRank = this.logProb / this.tree.size() + this.tree.logScoreBound();
+		}
+	}
+
+	/**
+	 * Create sentence from given posType and/or word by beam search, with default
+	 * beam width and expansions. If both non-null, they are assumed to be consistent.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param context
+	 * @return
+	 */
+	public static GeneratedSentence generateSentence(PosType posType, String posTypeWord, GenerationContext context) {
+		return generateSentence(posType, posTypeWord, context, DEFAULT_BEAM_WIDTH, DEFAULT_EXPANSIONS);
+	}
+
+	/**
+	 * Create sentence from given posType and/or word by beam search. If both
+	 * non-null, they are assumed to be consistent.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param context
+	 * @param beamWidth number of partial trees kept after each step.
+	 * @param expansions number of expansions sampled per partial tree per step.
+	 * @return highest scoring complete sentence containing a verb, and with the
+	 * word count of context's target if any, or if there is none such, highest 
+	 * scoring complete sentence.
+	 */
+	public static GeneratedSentence generateSentence(PosType posType, String posTypeWord, GenerationContext context,
+			int beamWidth, int expansions) {
+
+		if(beamWidth < 1 || expansions < 1) {
+			throw new IllegalArgumentException("beamWidth and expansions must be positive.");
+		}
+		RandomGenerator rand = context.rand();
+
+		List<Hypothesis> beam = new ArrayList<Hypothesis>(beamWidth * expansions);
+		for(int i = 0; i < beamWidth; i++) {
+			beam.add(new Hypothesis(Pos.createOriginTree(posType, posTypeWord, rand)));
+		}
+		List<Hypothesis> candidates = new ArrayList<Hypothesis>(beamWidth * expansions);
+
+		PosTree bestTree = null;
+		double bestScore = -1;
+		//best tree without verb or outside the word count target, in case no tree has both
+		PosTree fallbackTree = null;
+		double fallbackScore = -1;
+		int step = 0;
+		SentenceMetrics sentenceMetrics = context.metrics().startSentence();
+		boolean hasWordCountTarget = context.hasWordCountTarget();
+
+		while(!beam.isEmpty()) {
+			candidates.clear();
+			long mark = sentenceMetrics.mark();
+			for(Hypothesis hypothesis : beam) {
+				for(int i = 0; i < expansions; i++) {
+					//last expansion takes over the hypothesis itself rather than a copy
+					Hypothesis candidate = i < expansions-1 ? new Hypothesis(hypothesis) : hypothesis;
+					candidate.expandNext(context);
+					candidates.add(candidate);
+				}
+			}
+			sentenceMetrics.expanded(mark);
+
+			beam.clear();
+			for(Hypothesis candidate : candidates) {
+				PosTree tree = candidate.tree;
+				if(candidate.isComplete()) {
+					sentenceMetrics.completed();
+					mark = sentenceMetrics.mark();
+					tree.arrange(rand);
+					sentenceMetrics.arranged(mark);
+					mark = sentenceMetrics.mark();
+					double score = ScoreTree.computeTreeScore(tree, ScoreTree.MAX_TREE_SCORE);
+					sentenceMetrics.scored(mark);
+					if(tree.containsVerb() && context.isTargetWordCount(tree.size())) {
+						if(score > bestScore) {
+							bestScore = score;
+							bestTree = tree;
+						}
+					}else {
+						sentenceMetrics.rejected(tree.containsVerb() ? Rejection.WORD_COUNT : Rejection.NO_VERB);
+						if(score > fallbackScore) {
+							fallbackScore = score;
+							fallbackTree = tree;
+						}
+					}
+				}else if(tree.scoreBound() > bestScore) {
+					//can still beat best complete tree, and once there is one, also still
+					//reach the min word count, as it's no longer needed as fallback
+					if(null == bestTree || !hasWordCountTarget 
+							|| tree.size() + candidate.wordCapacity() >= context.minWordCount()) {
+						beam.add(candidate);
+					}
+				}
+			}
+			if(beam.size() > beamWidth) {
+				beam.sort(RANK_COMPARATOR);
+				beam.subList(beamWidth, beam.size()).clear();
+			}
+			step++;
+			if(context.tracing()) context.trace("beam step " + step + ": " + beam.size()
+				+ " partial trees kept, best score " + bestScore);
+		}
+
+		boolean fallback = null == bestTree;
+		if(fallback) {
+			bestTree = fallbackTree;
+			bestScore = fallbackScore;
+		}
+		sentenceMetrics.finished(bestTree, bestScore, fallback);
+		return Story.createGeneratedSentence(bestTree, bestScore, context);
+	}
+}
@@ -2,12 +2,11 @@ package story;
 
 import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.regex.Matcher;
+import java.util.random.RandomGenerator;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.ArrayListMultimap;
@@ -16,6 +15,8 @@ import com.google.common.collect.ListMultimap;
 import story.Pos.PosType;
 import story.Pos.PosType.PosTypeName;
 import story.Story.PosPCType;
+import utils.AliasTable;
+import utils.MappedLineReader;
 import utils.StoryUtils;
 
 /**
@@ -28,18 +29,6 @@ import utils.StoryUtils;
  */
 public class Dep {
 
-	/**map to lines such as "<a href="">en-pos/VERB</a>-<a href="">en-pos/PROPN</a> (1372; 8% instances)"
-	 used for constructing maps for a DepType. These lines are curated data. Keys are names*/
-	private static final Map<String, String> depTypeDataMap;
-	//<p>17580 instances of <code>nsubj</code> (96%) are right-to-left (child precedes parent).
-	//Average distance between parent and child is 2.0255896408201.
-	//used to determine ordering and relation. 
-	//keys are dep names, e.g. "nsubj"
-	private static final Map<String, Integer> leftRightProbMap;
-	//avg distance between parent and child
-	private static final Map<String, Double> childDistMap;
-	
-	private static final Random RAND_GEN = new Random();
 	private static final int TOTAL_PROB_1000 = 1000;
 	private static final int TOTAL_PROB_100 = 100;
 	private static final Pattern AVG_DIST_PATTERN 
@@ -68,8 +57,6 @@ public class Dep {
 	private Pos childPos;
 	
 	static {
-		//construct depTypeDataMap by reading data from file
-		depTypeDataMap = new HashMap<String, String>();
 		depTypeNameConvertMap = new HashMap<String, String>();
 		depTypeNameConvertReverseMap = new HashMap<String, String>();
 		//acl:relcl -> aclrelcl case->pre cc:preconj compound:prt  det:predet
@@ -91,15 +78,57 @@ public class Dep {
 		for(Map.Entry<String, String> entry : depTypeNameConvertMap.entrySet()){
 			depTypeNameConvertReverseMap.put(entry.getValue(), entry.getKey());
 		}
+	}
+	
+	/**
+	 * Dep stats, i.e. ordering, distance and matching PosType's of each DepType,
+	 * loaded on first use rather than when DepType is, so the DepType constants,
+	 * and the lexicon, can be used without loading them.
+	 */
+	private static final class DepStatsHolder{
 		
-		/////////construct map data string map for dep stats!
-		createDepTypeDataMap("data/depStats.txt", depTypeDataMap);
+		//indexed by DepType ordinal
+		static final DepTypeStats[] DEP_TYPE_STATS;
 		
-		leftRightProbMap = new HashMap<String, Integer>();
-		childDistMap = new HashMap<String, Double>();
-		//create map
-		createLeftRightProbMap("data/depLeftRightProb.txt", leftRightProbMap, childDistMap);
+		static {
+			/**map to lines such as "<a href="">en-pos/VERB</a>-<a href="">en-pos/PROPN</a> (1372; 8% instances)"
+			 used for constructing maps for a DepType. These lines are curated data. Keys are names*/
+			Map<String, String> depTypeDataMap = new HashMap<String, String>();
+			//<p>17580 instances of <code>nsubj</code> (96%) are right-to-left (child precedes parent).
+			//Average distance between parent and child is 2.0255896408201.
+			//used to determine ordering and relation. 
+			//keys are dep names, e.g. "nsubj"
+			Map<String, Integer> leftRightProbMap = new HashMap<String, Integer>();
+			//avg distance between parent and child
+			Map<String, Double> childDistMap = new HashMap<String, Double>();
+			//read from the snapshot instead, if present
+			ModelSnapshot snapshot = ModelSnapshot.get();
+			if(null == snapshot) {
+				/////////construct map data string map for dep stats!
+				createDepTypeDataMap("data/depStats.txt", depTypeDataMap);
+				//create map
+				createLeftRightProbMap("data/depLeftRightProb.txt", leftRightProbMap, childDistMap);
+			}
+			DepType[] depTypes = DepType.values();
+			DEP_TYPE_STATS = new DepTypeStats[depTypes.length];
+			for(DepType depType : depTypes) {
+				DEP_TYPE_STATS[depType.ordinal()] = new DepTypeStats(depType.depTypeName, snapshot, 
+						depTypeDataMap, leftRightProbMap, childDistMap);
+			}
+		}
 		
+		/**
+		 * Initializes this holder, if not yet.
+		 */
+		static void load() {
+		}
+	}
+	
+	/**
+	 * Loads the Dep stats, which are otherwise loaded on first use.
+	 */
+	static void loadStats() {
+		DepStatsHolder.load();
 	}
 	
 	public Dep(DepType depType_, Pos pos_, PosPCType parentChildType) {
@@ -178,71 +207,16 @@ public class Dep {
 		//handle exceptions triggered by "" !
 		NONE("");		
 		
-		//probability map for parent-child relations
-		//where parent pos are keys.
-		private ListMultimap<PosTypeName, PosProbPair> parentChildMMap;
-		//probability map for parent-child relations
-		//where child pos are keys.
-		private ListMultimap<PosTypeName, PosProbPair> childParentMMap;
-		private Map<PosTypeName, Integer> parentChildTotalProbMap;
-		//probability map for parent-child relations
-		//where child pos are keys.
-		private Map<PosTypeName, Integer> childParentTotalProbMap;
+		private final String depTypeName;
 		
-		//avg dist between parent and child 
-		private double parentChildDist;
-		//probability for left-right ordering, int between 0 and 100.
-		//left-right means parent preceeds child, right-left is otherway.
-		//private int leftRightProb;
-		
-		/**Prob for Dep to be left-to-right (parent preceds child)
-		 * int between 0 and 100, inclusive both sides.*/		
-		private int parentFirstProb;
+		private DepType(String depTypeName_) {
+			this.depTypeName = depTypeName_;
+		}
 		
-		private DepType(String depTypeName) {
-			//System.out.println("Dep - depTypeName "+depTypeName);
-			
-			if("".equals(depTypeName)){
-				//should use placeholder constants
-				this.parentFirstProb = TOTAL_PROB_100;
-				this.parentChildDist = 3;
-				
-				//create maps for possible pos pairs for this DepType
-				parentChildMMap = ArrayListMultimap.create();
-				childParentMMap = ArrayListMultimap.create();
-				
-				parentChildTotalProbMap = Collections.emptyMap();
-				childParentTotalProbMap = Collections.emptyMap();
-				return;
-			}
-			
-			String mmapDataString = depTypeDataMap.get(depTypeName);
-			Integer leftRightProb = leftRightProbMap.get(depTypeName);
-			Double depDist = childDistMap.get(depTypeName);
-			
-			if(null == mmapDataString || null == leftRightProb || null == depDist) {
-				
-				System.out.println("Dep - depTypeName "+depTypeName+" "
-						+leftRightProb + " "+depDist);
-				throw new IllegalArgumentException("data string for DepType cannot be null.");
-			}
-			
-			//extract distance from data		
-			this.parentFirstProb = leftRightProb;
-			this.parentChildDist = depDist;
-			
-			//create maps for possible pos pairs for this DepType
-			parentChildMMap = ArrayListMultimap.create();
-			childParentMMap = ArrayListMultimap.create();
-			
-			parentChildTotalProbMap = new HashMap<PosTypeName, Integer>();
-			childParentTotalProbMap = new HashMap<PosTypeName, Integer>();
-			createDepMMaps(mmapDataString, parentChildMMap, childParentMMap,
-					parentChildTotalProbMap, childParentTotalProbMap);			
-			//System.out.println("parentChildTotalProbMap for: "+depTypeName+" "+parentChildTotalProbMap );
-			
+		private DepTypeStats stats() {
+			return DepStatsHolder.DEP_TYPE_STATS[ordinal()];
 		}
-	
+		
 		public static DepType getTypeFromName(String depTypeName) {
 			/*switch(depTypeName) {
 			
@@ -271,7 +245,7 @@ public class Dep {
 		 * @param parentChildMMap
 		 * @param childParentMMap
 		 */
-		private void createDepMMaps(String dataString, ListMultimap<PosTypeName, PosProbPair> parentChildMMap, 
+		static void createDepMMaps(String dataString, ListMultimap<PosTypeName, PosProbPair> parentChildMMap, 
 				ListMultimap<PosTypeName, PosProbPair> childParentMMap, Map<PosTypeName, Integer> parentChildTotalProbMap, 
 				Map<PosTypeName, Integer> childParentTotalProbMap) {
 			//separate by comma 
@@ -281,8 +255,6 @@ public class Dep {
 			String child;
 			int prob;
 			Matcher m;
-			int parentTotalSoFar = 0;
-			int childTotalSoFar = 0;
 			
 			for(String s : dataStringAr) {
 				if( (m = DEP_PATTERN.matcher(s)).matches() ) {
@@ -299,45 +271,39 @@ public class Dep {
 						prob = prob == 0 ? 2 : prob*10;
 						//System.out.println("Dep - parentChildTotalProbMap "+parentChildTotalProbMap);
 						
+						//totals are per key, so each list is cumulative over its own entries.
 						Integer parentTotal = parentChildTotalProbMap.get(parentTypeName);
 						if(null != parentTotal) {
-							//parentTotalSoFar = parentTotal + prob;
 							parentTotal+=prob;
 						}else {
-							//initial padding so binary search can return upper index.
-							parentChildMMap.put(parentTypeName, new PosProbPair(PosTypeName.NONE, parentTotalSoFar));
-							//parentTotalSoFar = prob;
+							//initial padding at index 0, entry i then covers the prob above entry i-1.
+							parentChildMMap.put(parentTypeName, new PosProbPair(PosTypeName.NONE, 0));
 							parentTotal=prob;
 						}
-						parentTotalSoFar+=prob;
 						parentChildTotalProbMap.put(parentTypeName, parentTotal);
 						
 						Integer childTotal = childParentTotalProbMap.get(childTypeName);
 						if(null != childTotal) {
 							//System.out.println("Dep - parentTypeName childTypeName "+parentTypeName + " "+childTypeName);
-							//childTotalSoFar = childTotal+prob;
 							childTotal += prob;
 						}else {
-							//childTotalSoFar = prob;		
-							//initial padding so binary search can return upper index.
+							//initial padding at index 0, entry i then covers the prob above entry i-1.
 							childParentMMap.put(childTypeName, new PosProbPair(PosTypeName.NONE, 0));
 							childTotal = prob;
 						}
-						childTotalSoFar += prob;
 						childParentTotalProbMap.put(childTypeName, childTotal);
 						
 						//the prob in input dataStrings are already sorted in decreasing prob <- not that matters.
 						//List<PosProbPair> parentChildProbSoFarList = parentChildMMap.get(parentTypeName);
 						//already added 0-indexed padding
 						//int parentChildProbSoFar = parentChildProbSoFarList.get(parentChildProbSoFarList.size()-1).prob;
-						parentChildMMap.put(parentTypeName, new PosProbPair(childTypeName, childTotalSoFar));
+						parentChildMMap.put(parentTypeName, new PosProbPair(childTypeName, parentTotal));
 						
 						//the prob in input dataStrings are already sorted in decreasing prob <- not that matters.
 						//List<PosProbPair> childParentProbSoFarList = childParentMMap.get(childTypeName);
 						//already added 0-indexed padding
 						//int childParentProbSoFar = childParentProbSoFarList.get(childParentProbSoFarList.size()-1).prob;						
-						childParentMMap.put(childTypeName, new PosProbPair(parentTypeName, parentTotalSoFar));
-						//childParentMMap.put(childTypeName, new PosProbPair(parentTypeName, parentTotalSoFar));						
+						childParentMMap.put(childTypeName, new PosProbPair(parentTypeName, childTotal));
 					}
 					
 				}
@@ -349,86 +315,197 @@ public class Dep {
 		 * Obtain a target PosType based on prob maps for given posType.
 		 * @param posType
 		 * @param posParentChildType
+		 * @param rand
 		 * @return
 		 */
-		public PosType selectRandomMatchingPos(PosType posType, PosPCType posParentChildType) {
+		public PosType selectRandomMatchingPos(PosType posType, PosPCType posParentChildType, RandomGenerator rand) {
 			
+			DepTypeStats stats = stats();
 			//get the range over all possible pos value 
-			ListMultimap<PosTypeName, PosProbPair> mMap 
-				= posParentChildType == PosPCType.PARENT ? parentChildMMap : childParentMMap;
-			Map<PosTypeName, Integer> totalProbMap 
-				= posParentChildType == PosPCType.PARENT ? parentChildTotalProbMap : childParentTotalProbMap;
+			AliasTable[] aliasTables 
+				= posParentChildType == PosPCType.PARENT ? stats.parentChildAliasTables : stats.childParentAliasTables;
+			PosTypeName[][] posTypeNames 
+				= posParentChildType == PosPCType.PARENT ? stats.parentChildPosTypeNames : stats.childParentPosTypeNames;
 			
-			List<PosProbPair> posProbPairList = mMap.get(posType.posTypeName());
-			if(posProbPairList.isEmpty()){
+			int posTypeNameOrdinal = posType.posTypeName().ordinal();
+			AliasTable aliasTable = aliasTables[posTypeNameOrdinal];
+			if(null == aliasTable){
 				return PosType.NONE;
 			}
-			System.out.println("Dep- posType "+posType);
-			//System.out.println(Arrays.toString(Thread.currentThread().getStackTrace()));
-			//System.out.println("parentChildTotalProbMap "+parentChildTotalProbMap);
-			//System.out.println("childParentTotalProbMap "+childParentTotalProbMap);
-			
-			int totalProb = totalProbMap.get(posType.posTypeName());
-			//+1 since nextInt excludes last number. make into constant.
-			int randInt = RAND_GEN.nextInt(totalProb);
-			
-			//use binary search to find the right interval,
-			//map already sorted according to prob
-			
-			int targetIndex = selectRandomMatchingPosSearch(randInt, 0, posProbPairList.size()-1, posProbPairList);
-			//subtract 1, since padding at index 0. don't subtract! since 0 is NONE
-			//targetIndex--;
-			return posProbPairList.get(targetIndex).posTypeName.getPosType();
-			
+			//constant time draw weighted by prob
+			return posTypeNames[posTypeNameOrdinal][aliasTable.sample(rand)].getPosType();
 		}
 		
-		private int selectRandomMatchingPosSearch(int targetProb, int lowerIndex, int upperIndex,
-				List<PosProbPair> posProbPairList){
+		/**
+		 * Probability of selectRandomMatchingPos drawing matchingPosType for posType.
+		 * @param posType
+		 * @param matchingPosType
+		 * @param posParentChildType
+		 * @return
+		 */
+		public double matchingPosProb(PosType posType, PosType matchingPosType, PosPCType posParentChildType) {
 			
-			if(lowerIndex + 1 >= upperIndex){
-				//return lowerIndex;
-				return upperIndex;
+			DepTypeStats stats = stats();
+			AliasTable[] aliasTables 
+				= posParentChildType == PosPCType.PARENT ? stats.parentChildAliasTables : stats.childParentAliasTables;
+			PosTypeName[][] posTypeNames 
+				= posParentChildType == PosPCType.PARENT ? stats.parentChildPosTypeNames : stats.childParentPosTypeNames;
+			
+			int posTypeNameOrdinal = posType.posTypeName().ordinal();
+			AliasTable aliasTable = aliasTables[posTypeNameOrdinal];
+			if(null == aliasTable){
+				return PosType.NONE == matchingPosType ? 1 : 0;
 			}
-			int midIndex = (lowerIndex + upperIndex)/2;
-			int midIndexProb = posProbPairList.get(midIndex).prob;
-			if(targetProb > midIndexProb){
-				return selectRandomMatchingPosSearch(targetProb, midIndex, upperIndex, posProbPairList);
-			}else if(targetProb < midIndexProb){
-				return selectRandomMatchingPosSearch(targetProb, lowerIndex, midIndex, posProbPairList);
-			}else{
-				//since prob starts at 0, so 50% prob occupy 0 through 49 (say).
-				return upperIndex;
+			PosTypeName matchingPosTypeName = matchingPosType.posTypeName();
+			PosTypeName[] matchingPosTypeNames = posTypeNames[posTypeNameOrdinal];
+			double prob = 0;
+			for(int i = 0; i < matchingPosTypeNames.length; i++) {
+				if(matchingPosTypeNames[i] == matchingPosTypeName) {
+					prob += aliasTable.probability(i);
+				}
 			}
-		}		
+			return prob;
+		}
+		
 		/**
 		 * Prob of parent coming first. Out of 100%, not 1000!
 		 * @return
 		 */
 		public int parentFirstProb(){
-			return this.parentFirstProb;
+			return stats().parentFirstProb;
 		}
 		
 		public double parentChildDist(){
-			return this.parentChildDist;
+			return stats().parentChildDist;
 		}
 		
 	}/*end of DepType enum*/
 	
+	/**
+	 * Stats of a DepType: its ordering, distance, and alias tables for drawing
+	 * the PosType matching a parent or child. Tables are indexed by, and draw,
+	 * PosTypeName's, as the data is keyed by names.
+	 */
+	private static final class DepTypeStats{
+		
+		//alias tables over the cumulative lists of parent-child pairs, for parent
+		//and child as key, indexed by PosTypeName ordinal of key, along with the 
+		//PosTypeName's they draw.
+		private final AliasTable[] parentChildAliasTables;
+		private final PosTypeName[][] parentChildPosTypeNames;
+		private final AliasTable[] childParentAliasTables;
+		private final PosTypeName[][] childParentPosTypeNames;
+		
+		//avg dist between parent and child 
+		private final double parentChildDist;
+		
+		/**Prob for Dep to be left-to-right (parent preceds child)
+		 * int between 0 and 100, inclusive both sides.*/		
+		private final int parentFirstProb;
+		
+		/**
+		 * @param depTypeName
+		 * @param snapshot data is read from, if non-null, else from the data maps.
+		 * @param depTypeDataMap
+		 * @param leftRightProbMap
+		 * @param childDistMap
+		 */
+		DepTypeStats(String depTypeName, ModelSnapshot snapshot, Map<String, String> depTypeDataMap,
+				Map<String, Integer> leftRightProbMap, Map<String, Double> childDistMap) {
+			
+			//probability map for parent-child relations
+			//where parent pos are keys.
+			ListMultimap<PosTypeName, PosProbPair> parentChildMMap = ArrayListMultimap.create();
+			//probability map for parent-child relations
+			//where child pos are keys.
+			ListMultimap<PosTypeName, PosProbPair> childParentMMap = ArrayListMultimap.create();
+			if("".equals(depTypeName)){
+				//should use placeholder constants
+				this.parentFirstProb = TOTAL_PROB_100;
+				this.parentChildDist = 3;
+			}else if(null != snapshot) {
+				ModelSnapshot.DepRecord record = snapshot.depRecord(depTypeName);
+				if(null == record) {
+					throw new IllegalArgumentException("model snapshot has no data for DepType " + depTypeName);
+				}
+				this.parentFirstProb = record.parentFirstProb;
+				this.parentChildDist = record.parentChildDist;
+				
+				record.fillDepMMaps(parentChildMMap, childParentMMap, new HashMap<PosTypeName, Integer>(),
+						new HashMap<PosTypeName, Integer>());
+			}else {
+				String mmapDataString = depTypeDataMap.get(depTypeName);
+				Integer leftRightProb = leftRightProbMap.get(depTypeName);
+				Double depDist = childDistMap.get(depTypeName);
+				
+				if(null == mmapDataString || null == leftRightProb || null == depDist) {
+					
+					System.out.println("Dep - depTypeName "+depTypeName+" "
+							+leftRightProb + " "+depDist);
+					throw new IllegalArgumentException("data string for DepType cannot be null.");
+				}
+				
+				//extract distance from data		
+				this.parentFirstProb = leftRightProb;
+				this.parentChildDist = depDist;
+				
+				DepType.createDepMMaps(mmapDataString, parentChildMMap, childParentMMap,
+						new HashMap<PosTypeName, Integer>(), new HashMap<PosTypeName, Integer>());			
+			}
+			
+			int posTypeNameCount = PosTypeName.values().length;
+			parentChildAliasTables = new AliasTable[posTypeNameCount];
+			parentChildPosTypeNames = new PosTypeName[posTypeNameCount][];
+			createAliasTables(parentChildMMap, parentChildAliasTables, parentChildPosTypeNames);
+			childParentAliasTables = new AliasTable[posTypeNameCount];
+			childParentPosTypeNames = new PosTypeName[posTypeNameCount][];
+			createAliasTables(childParentMMap, childParentAliasTables, childParentPosTypeNames);
+		}
+		
+		/**
+		 * Create alias tables from the cumulative prob lists in mMap, which have padding 
+		 * at index 0. Tables and the PosTypeName's they draw are indexed by PosTypeName ordinal
+		 * of the key.
+		 * @param mMap
+		 * @param aliasTables
+		 * @param posTypeNames
+		 */
+		private static void createAliasTables(ListMultimap<PosTypeName, PosProbPair> mMap,
+				AliasTable[] aliasTables, PosTypeName[][] posTypeNames) {
+			for(PosTypeName posTypeName : mMap.keySet()) {
+				List<PosProbPair> posProbPairList = mMap.get(posTypeName);
+				int posTypeCount = posProbPairList.size()-1;
+				if(posTypeCount < 1) {
+					continue;
+				}
+				int[] weights = new int[posTypeCount];
+				PosTypeName[] keyPosTypeNames = new PosTypeName[posTypeCount];
+				for(int i = 1; i < posProbPairList.size(); i++) {
+					weights[i-1] = posProbPairList.get(i).prob - posProbPairList.get(i-1).prob;
+					keyPosTypeNames[i-1] = posProbPairList.get(i).posTypeName;
+				}
+				aliasTables[posTypeName.ordinal()] = new AliasTable(weights);
+				posTypeNames[posTypeName.ordinal()] = keyPosTypeNames;
+			}
+		}
+	}
+	
 
 	/**
 	 * createDepTypeDataMap
 	 * @param string
 	 * @param deptypedatamap
 	 */
-	private static void createDepTypeDataMap(String fileStr, Map<String, String> deptypedatamap) {
-		List<String> depStatsLines = StoryUtils.readLinesFromFile(fileStr);
+	static void createDepTypeDataMap(String fileStr, Map<String, String> deptypedatamap) {
 		
 		Matcher m;
 		
-		for(String line : depStatsLines){
-			if((m=DEP_STATS_INTRO_PATT.matcher(line)).matches()){
-				String depTypeName = m.group(1);
-				deptypedatamap.put(Dep.normalizeDepTypeName(depTypeName), line);				
+		try(MappedLineReader depStatsLines = StoryUtils.readLines(fileStr)){
+			for(CharSequence line : depStatsLines){
+				if((m=DEP_STATS_INTRO_PATT.matcher(line)).matches()){
+					String depTypeName = m.group(1);
+					deptypedatamap.put(Dep.normalizeDepTypeName(depTypeName), line.toString());				
+				}
 			}
 		}		
 	}
@@ -440,48 +517,49 @@ public class Dep {
 	 * Average distance between parent and child is 2.54403066812705.</p>
 	 * @param leftRightDataString
 	 */
-	private static void createLeftRightProbMap(String fileStr, Map<String, Integer> leftRightProbMap,
+	static void createLeftRightProbMap(String fileStr, Map<String, Integer> leftRightProbMap,
 			Map<String, Double> childDistMap, Charset...charset) {
 		//read data in from file
-		List<String> lines = StoryUtils.readLinesFromFile(fileStr, charset);
 		
 		Matcher m;
 		String depTypeName;
 		
-		for(String line : lines){
+		try(MappedLineReader lines = StoryUtils.readLines(fileStr, charset)){
+			for(CharSequence line : lines){
 			
-			if(StoryUtils.WHITE_EMPTY_SPACE_PATT.matcher(line).matches()){
-				continue;
-			}
-			boolean probAdded = false;
-			boolean distAdded = false;
-			if((m=DEP_STATS_PATT.matcher(line)).matches()){
-				depTypeName = m.group(1);
-				depTypeName = normalizeDepTypeName(depTypeName);
-				int prob = Integer.parseInt(m.group(2));
-				//scale up 
-				//prob *= 10;
-				String leftRightStr = m.group(3);
-				
-				if(leftRightStr.contains("left-to-right")){
-					leftRightProbMap.put(depTypeName, prob);
-					probAdded = true;
-				}else if(leftRightStr.contains("right-to-left")){
-					leftRightProbMap.put(depTypeName, TOTAL_PROB_100 - prob);
-					probAdded = true;
+				if(StoryUtils.WHITE_EMPTY_SPACE_PATT.matcher(line).matches()){
+					continue;
 				}
-				//these two need to be on same line, so know which dep is being referred to
-				if((m=AVG_DIST_PATTERN.matcher(line)).matches()){
-					double dist = Double.parseDouble(m.group(1));
-					childDistMap.put(depTypeName, dist);
-					distAdded = true;
+				boolean probAdded = false;
+				boolean distAdded = false;
+				if((m=DEP_STATS_PATT.matcher(line)).matches()){
+					depTypeName = m.group(1);
+					depTypeName = normalizeDepTypeName(depTypeName);
+					int prob = Integer.parseInt(m.group(2));
+					//scale up 
+					//prob *= 10;
+					String leftRightStr = m.group(3);
+				
+					if(leftRightStr.contains("left-to-right")){
+						leftRightProbMap.put(depTypeName, prob);
+						probAdded = true;
+					}else if(leftRightStr.contains("right-to-left")){
+						leftRightProbMap.put(depTypeName, TOTAL_PROB_100 - prob);
+						probAdded = true;
+					}
+					//these two need to be on same line, so know which dep is being referred to
+					if((m=AVG_DIST_PATTERN.matcher(line)).matches()){
+						double dist = Double.parseDouble(m.group(1));
+						childDistMap.put(depTypeName, dist);
+						distAdded = true;
+					}
 				}
+				//System.out.println("Dep - line \""+line +"\""+DEP_STATS_PATT.matcher(line).matches()+" "
+					//+AVG_DIST_PATTERN.matcher(line).matches());
+				if(!probAdded || !distAdded){
+					throw new IllegalArgumentException("leftRightDataString must contain ordering data");
+				}	
 			}
-			//System.out.println("Dep - line \""+line +"\""+DEP_STATS_PATT.matcher(line).matches()+" "
-				//+AVG_DIST_PATTERN.matcher(line).matches());
-			if(!probAdded || !distAdded){
-				throw new IllegalArgumentException("leftRightDataString must contain ordering data");
-			}	
 		}		
 	}
 
@@ -511,7 +589,7 @@ public class Dep {
 	 * Pos and probability pair, used as value in 
 	 * childParentMap or parentChildMap.
 	 */
-	private static class PosProbPair{
+	static class PosProbPair{
 		//the pos in the value of the map, could be parent
 		//or child.
 		PosTypeName posTypeName;
@@ -0,0 +1,67 @@
+package story;
+
+import java.util.Collections;
+import java.util.List;
+
+import story.Pos.PosType;
+
+/**
+ * A generated sentence, along with its score and the 
+ * PosType's and words it is made of, in sentence order, and the
+ * seed it was generated from, to replay it.
+ *
+ * @author yihed
+ *
+ */
+public class GeneratedSentence {
+
+	private final String sentence;
+	private final double score;
+	private final List<PosType> posTypeList;
+	private final List<String> wordsList;
+	private final Long seed;
+	
+	GeneratedSentence(String sentence_, double score_, List<PosType> posTypeList_, List<String> wordsList_,
+			Long seed_){
+		this.sentence = sentence_;
+		this.score = score_;
+		this.posTypeList = Collections.unmodifiableList(posTypeList_);
+		this.wordsList = Collections.unmodifiableList(wordsList_);
+		this.seed = seed_;
+	}
+	
+	public String sentence() {
+		return this.sentence;
+	}
+	
+	/**
+	 * Score between 0 and ScoreTree.MAX_TREE_SCORE.
+	 * @return
+	 */
+	public double score() {
+		return this.score;
+	}
+	
+	public List<PosType> posTypeList(){
+		return this.posTypeList;
+	}
+	
+	public List<String> wordsList(){
+		return this.wordsList;
+	}
+	
+	/**
+	 * Seed of the GenerationContext this sentence was generated with. Generating
+	 * again with that seed, and the same PosType, word and strategy, gives
+	 * this same sentence.
+	 * @return null if context was not created from a seed.
+	 */
+	public Long seed() {
+		return this.seed;
+	}
+	
+	@Override
+	public String toString() {
+		return this.sentence;
+	}
+}
@@ -0,0 +1,215 @@
+package story;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * State for generating one sentence, threaded through the tree growth and
+ * arrangement methods in place of shared statics. Confined to the thread
+ * generating the sentence, as are the Pos trees created with it.
+ * All draws come from rand, so a context created from a seed generates the
+ * same sentence as any other context created from that seed, given the same
+ * inputs. Trees and sentences are recorded into the shared GenerationMetrics
+ * unless given others.
+ *
+ * @author yihed
+ *
+ */
+public class GenerationContext {
+
+	//random stream for all draws of this generation
+	private final RandomGenerator rand;
+	//seed rand was created from, null if created from a given RandomGenerator
+	private final Long seed;
+	private final GenerationTracer tracer;
+	private final GenerationMetrics metrics;
+	//cached tracer.isEnabled(), checked before building any trace message
+	private final boolean tracing;
+	/**trees whose score bound drops below this are abandoned while growing*/
+	private double minScore;
+	//range of number of words sentences are grown to, 0 if no target
+	private int minWordCount;
+	private int maxWordCount;
+	
+	public GenerationContext(RandomGenerator rand_) {
+		this(rand_, GenerationTracer.NO_OP);
+	}
+	
+	public GenerationContext(RandomGenerator rand_, GenerationTracer tracer_) {
+		this(rand_, null, tracer_);
+	}
+	
+	/**
+	 * Context drawing from a stream created from seed, so replayable.
+	 * @param seed
+	 */
+	public GenerationContext(long seed) {
+		this(seed, GenerationTracer.NO_OP);
+	}
+	
+	/**
+	 * Context drawing from a stream created from seed, so replayable.
+	 * @param seed
+	 * @param tracer_
+	 */
+	public GenerationContext(long seed, GenerationTracer tracer_) {
+		this(seed, tracer_, GenerationMetrics.shared());
+	}
+	
+	/**
+	 * Context drawing from a stream created from seed, so replayable.
+	 * @param seed
+	 * @param tracer_
+	 * @param metrics_ metrics the generation is recorded into, rather than the shared ones.
+	 */
+	public GenerationContext(long seed, GenerationTracer tracer_, GenerationMetrics metrics_) {
+		this(new SplittableRandom(seed), seed, tracer_, metrics_);
+	}
+	
+	private GenerationContext(RandomGenerator rand_, Long seed_, GenerationTracer tracer_) {
+		this(rand_, seed_, tracer_, GenerationMetrics.shared());
+	}
+	
+	private GenerationContext(RandomGenerator rand_, Long seed_, GenerationTracer tracer_, GenerationMetrics metrics_) {
+		if(null == rand_) {
+			throw new IllegalArgumentException("rand cannot be null.");
+		}
+		if(null == tracer_) {
+			throw new IllegalArgumentException("tracer cannot be null.");
+		}
+		if(null == metrics_) {
+			throw new IllegalArgumentException("metrics cannot be null.");
+		}
+		this.rand = rand_;
+		this.seed = seed_;
+		this.tracer = tracer_;
+		this.metrics = metrics_;
+		this.tracing = tracer_.isEnabled();
+	}
+	
+	/**
+	 * Context seeded from the calling thread's ThreadLocalRandom, 
+	 * used by the static entry points.
+	 * @return
+	 */
+	public static GenerationContext forCurrentThread() {
+		return new GenerationContext(ThreadLocalRandom.current().nextLong());
+	}
+	
+	/**
+	 * Context for a generation run alongside this one, e.g. on another thread,
+	 * drawing from a stream created from seed, with the same tracer, metrics,
+	 * min score and word count target.
+	 * @param seed
+	 * @return
+	 */
+	GenerationContext fork(long seed) {
+		GenerationContext context = new GenerationContext(seed, this.tracer, this.metrics);
+		context.minScore = this.minScore;
+		context.minWordCount = this.minWordCount;
+		context.maxWordCount = this.maxWordCount;
+		return context;
+	}
+	
+	/**
+	 * Seed the random stream was created from.
+	 * @return null if context was created from a RandomGenerator.
+	 */
+	public Long seed() {
+		return this.seed;
+	}
+	
+	public RandomGenerator rand() {
+		return this.rand;
+	}
+	
+	/**
+	 * Whether to trace. Check before building the message, e.g.
+	 * if(context.tracing()) context.trace("score: " + score);
+	 * @return
+	 */
+	public boolean tracing() {
+		return this.tracing;
+	}
+	
+	public void trace(String message) {
+		this.tracer.trace(message);
+	}
+	
+	/**
+	 * Metrics the generation loops record into, e.g.
+	 * SentenceMetrics sentenceMetrics = context.metrics().startSentence();
+	 * @return
+	 */
+	public GenerationMetrics metrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Score a tree must be able to reach to be worth growing further,
+	 * 0 unless set, i.e. no pruning.
+	 * @return
+	 */
+	public double minScore() {
+		return this.minScore;
+	}
+	
+	/**
+	 * Set score a tree must be able to reach to be worth growing further, 
+	 * usually the best score so far.
+	 * @param minScore_
+	 */
+	public void setMinScore(double minScore_) {
+		this.minScore = minScore_;
+	}
+	
+	/**
+	 * Grow trees to between minWordCount and maxWordCount words inclusive, 
+	 * conditioning the draws of the number of children on the range, rather
+	 * than growing trees freely. Equal counts for an exact number of words.
+	 * @param minWordCount_ at least 1, and at most Pos.MAX_TARGET_WORD_COUNT.
+	 * @param maxWordCount_ at least minWordCount_.
+	 */
+	public void setWordCountRange(int minWordCount_, int maxWordCount_) {
+		if(minWordCount_ < 1 || minWordCount_ > Pos.MAX_TARGET_WORD_COUNT) {
+			throw new IllegalArgumentException("minWordCount must be between 1 and " + Pos.MAX_TARGET_WORD_COUNT);
+		}
+		if(maxWordCount_ < minWordCount_) {
+			throw new IllegalArgumentException("maxWordCount cannot be less than minWordCount.");
+		}
+		this.minWordCount = minWordCount_;
+		this.maxWordCount = maxWordCount_;
+	}
+	
+	/**
+	 * Whether a word count range was set with setWordCountRange.
+	 * @return
+	 */
+	public boolean hasWordCountTarget() {
+		return this.maxWordCount > 0;
+	}
+	
+	/**
+	 * @return 0 if no target.
+	 */
+	public int minWordCount() {
+		return this.minWordCount;
+	}
+	
+	/**
+	 * @return 0 if no target.
+	 */
+	public int maxWordCount() {
+		return this.maxWordCount;
+	}
+	
+	/**
+	 * Whether wordCount is in the target range, true for any if no target.
+	 * @param wordCount
+	 * @return
+	 */
+	public boolean isTargetWordCount(int wordCount) {
+		return !hasWordCountTarget() || (wordCount >= minWordCount && wordCount <= maxWordCount);
+	}
+}
@@ -0,0 +1,665 @@
+package story;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of the generation loops, i.e. of Story.generateSentence,
+ * BeamSearch and TellStory: trees generated, trees rejected by reason, and
+ * per sentence the number of trees it took, its score and size, and the time
+ * spent growing, arranging and scoring its trees. Also the sentences checked by
+ * SentenceDeduplicator's, and how many of them were duplicates.
+ * Each loop records into a SentenceMetrics confined to its thread, which
+ * adds to the shared LongAdder's once, when the sentence is done, so threads
+ * don't contend per tree. A word with several pos runs one loop per anchor,
+ * each counted as a sentence.
+ * Histograms have fixed buckets, so percentiles are estimates, the upper
+ * bound of the bucket they fall in.
+ * Thread-safe. Snapshots taken while sentences finish may be off by those
+ * sentences between counters.
+ *
+ * @author yihed
+ *
+ */
+public class GenerationMetrics implements GenerationMetricsMXBean {
+
+	/**name of the shared instance's MBean*/
+	public static final String OBJECT_NAME = "story:type=GenerationMetrics";
+	/**system property to turn off the shared instance, e.g. -Dstory.metrics=off*/
+	public static final String METRICS_PROPERTY = "story.metrics";
+
+	//1-2-5 series from 1 microsecond to 10 seconds
+	private static final double[] NANOS_BOUNDS = {1e3, 2e3, 5e3, 1e4, 2e4, 5e4, 1e5, 2e5, 5e5,
+			1e6, 2e6, 5e6, 1e7, 2e7, 5e7, 1e8, 2e8, 5e8, 1e9, 2e9, 5e9, 1e10};
+	private static final double[] ATTEMPTS_BOUNDS = {1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128,
+			192, 256, 384, 512, 1024};
+	private static final double[] SCORE_BOUNDS = {0.05, 0.1, 0.15, 0.2, 0.25, 0.3, 0.35, 0.4, 0.45, 0.5,
+			0.55, 0.6, 0.65, 0.7, 0.75, 0.8, 0.85, 0.9, 0.95, ScoreTree.MAX_TREE_SCORE};
+	private static final double[] TREE_SIZE_BOUNDS = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 14, 16, 20, 24, 32, 64};
+
+	/**Records nothing, and reads no clock.*/
+	public static final GenerationMetrics DISABLED = new GenerationMetrics(false);
+
+	/**
+	 * Why a tree was not a candidate for the sentence.
+	 */
+	public enum Rejection{
+		/**abandoned while growing, as its score could no longer beat the best so far,
+		 * or it could no longer reach the min word count once another tree was accepted*/
+		PRUNED,
+		NO_VERB,
+		/**outside the word count target of the context*/
+		WORD_COUNT;
+	}
+
+	private final boolean enabled;
+	private final LongAdder treeCount = new LongAdder();
+	private final LongAdder sentenceCount = new LongAdder();
+	private final LongAdder fallbackCount = new LongAdder();
+	private final LongAdder[] rejectionCounts = new LongAdder[Rejection.values().length];
+	private final LongAdder deduplicatedCount = new LongAdder();
+	private final LongAdder duplicateCount = new LongAdder();
+	private final Histogram attemptsPerSentence = new Histogram(ATTEMPTS_BOUNDS);
+	private final Histogram score = new Histogram(SCORE_BOUNDS);
+	private final Histogram treeSize = new Histogram(TREE_SIZE_BOUNDS);
+	private final Histogram sentenceNanos = new Histogram(NANOS_BOUNDS);
+	private final Histogram growNanos = new Histogram(NANOS_BOUNDS);
+	private final Histogram arrangeNanos = new Histogram(NANOS_BOUNDS);
+	private final Histogram scoreNanos = new Histogram(NANOS_BOUNDS);
+	//recorder handed out when disabled, never mutated
+	private final SentenceMetrics disabledSentence;
+
+	private static class SharedHolder{
+		static final GenerationMetrics SHARED = createShared();
+	}
+
+	public GenerationMetrics() {
+		this(true);
+	}
+
+	private GenerationMetrics(boolean enabled_) {
+		this.enabled = enabled_;
+		for(int i = 0; i < rejectionCounts.length; i++) {
+			rejectionCounts[i] = new LongAdder();
+		}
+		this.disabledSentence = enabled_ ? null : new SentenceMetrics(this);
+	}
+
+	/**
+	 * Instance recorded into by default, by contexts and SentenceGenerator's not
+	 * given one, registered as MBean OBJECT_NAME on first use.
+	 * @return DISABLED if METRICS_PROPERTY is "off".
+	 */
+	public static GenerationMetrics shared() {
+		return SharedHolder.SHARED;
+	}
+
+	private static GenerationMetrics createShared() {
+		if("off".equals(System.getProperty(METRICS_PROPERTY))) {
+			return DISABLED;
+		}
+		GenerationMetrics metrics = new GenerationMetrics();
+		try {
+			metrics.registerMBean(OBJECT_NAME);
+		}catch(IllegalStateException e) {
+			//still usable through snapshot()
+			System.out.println("GenerationMetrics - could not register MBean: " + e.getCause());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Registers this with the platform MBeanServer.
+	 * @param objectName e.g. "story:type=GenerationMetrics,name=batch".
+	 * @throws IllegalStateException if the name is invalid or taken.
+	 */
+	public void registerMBean(String objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+		}catch(JMException e) {
+			throw new IllegalStateException("Cannot register " + objectName, e);
+		}
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Records a sentence checked for duplicates.
+	 * @param duplicate
+	 */
+	public void recordDeduplication(boolean duplicate) {
+		if(enabled) {
+			deduplicatedCount.increment();
+			if(duplicate) {
+				duplicateCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * Recorder for one sentence's generation loop, confined to the calling thread.
+	 * @return
+	 */
+	public SentenceMetrics startSentence() {
+		return enabled ? new SentenceMetrics(this) : disabledSentence;
+	}
+
+	/**
+	 * Records the trees, phases and outcome of one sentence's generation.
+	 * Phases are timed from a mark(), e.g.
+	 * long mark = sentenceMetrics.mark(); tree = Pos.createPosTree(...); sentenceMetrics.grown(mark);
+	 * No-ops when the metrics are disabled.
+	 */
+	public static class SentenceMetrics{
+
+		private final GenerationMetrics metrics;
+		private final boolean enabled;
+		private final long startNanos;
+		private int trees;
+		private long growNanos;
+		private long arrangeNanos;
+		private long scoreNanos;
+
+		private SentenceMetrics(GenerationMetrics metrics_) {
+			this.metrics = metrics_;
+			this.enabled = metrics_.enabled;
+			this.startNanos = enabled ? System.nanoTime() : 0;
+		}
+
+		/**
+		 * Start of a phase.
+		 * @return 0 if disabled.
+		 */
+		public long mark() {
+			return enabled ? System.nanoTime() : 0;
+		}
+
+		/**
+		 * A whole tree was grown since mark.
+		 * @param mark
+		 */
+		public void grown(long mark) {
+			if(enabled) {
+				trees++;
+				growNanos += System.nanoTime() - mark;
+			}
+		}
+
+		/**
+		 * Partial trees were grown since mark, counted with completed() once whole.
+		 * @param mark
+		 */
+		public void expanded(long mark) {
+			if(enabled) {
+				growNanos += System.nanoTime() - mark;
+			}
+		}
+
+		/**
+		 * A tree grown by expanded() steps is whole.
+		 */
+		public void completed() {
+			if(enabled) {
+				trees++;
+			}
+		}
+
+		public void arranged(long mark) {
+			if(enabled) {
+				arrangeNanos += System.nanoTime() - mark;
+			}
+		}
+
+		public void scored(long mark) {
+			if(enabled) {
+				scoreNanos += System.nanoTime() - mark;
+			}
+		}
+
+		public void rejected(Rejection rejection) {
+			if(enabled) {
+				metrics.rejectionCounts[rejection.ordinal()].increment();
+			}
+		}
+
+		/**
+		 * Sentence is done, records it along with its trees and phase times.
+		 * @param tree winning tree.
+		 * @param score
+		 * @param fallback whether tree was rejected, but the best there was.
+		 */
+		public void finished(PosTree tree, double score, boolean fallback) {
+			if(!enabled) {
+				return;
+			}
+			metrics.treeCount.add(trees);
+			metrics.sentenceCount.increment();
+			if(fallback) {
+				metrics.fallbackCount.increment();
+			}
+			metrics.attemptsPerSentence.record(trees);
+			metrics.score.record(score);
+			metrics.treeSize.record(tree.size());
+			metrics.growNanos.record(growNanos);
+			metrics.arrangeNanos.record(arrangeNanos);
+			metrics.scoreNanos.record(scoreNanos);
+			metrics.sentenceNanos.record(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Counts of values in fixed buckets, bucket i holding values above
+	 * bounds[i-1] and at most bounds[i], the last one those above all bounds.
+	 */
+	private static class Histogram{
+
+		private final double[] bounds;
+		private final LongAdder[] bucketCounts;
+		private final DoubleAdder sum = new DoubleAdder();
+		private final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0);
+
+		Histogram(double[] bounds_){
+			this.bounds = bounds_;
+			this.bucketCounts = new LongAdder[bounds_.length + 1];
+			for(int i = 0; i < bucketCounts.length; i++) {
+				bucketCounts[i] = new LongAdder();
+			}
+		}
+
+		void record(double value) {
+			int index = Arrays.binarySearch(bounds, value);
+			bucketCounts[index < 0 ? -index - 1 : index].increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		HistogramSnapshot snapshot() {
+			long[] counts = new long[bucketCounts.length];
+			for(int i = 0; i < counts.length; i++) {
+				counts[i] = bucketCounts[i].sum();
+			}
+			return new HistogramSnapshot(bounds, counts, sum.sum(), max.get());
+		}
+
+		void reset() {
+			for(LongAdder bucketCount : bucketCounts) {
+				bucketCount.reset();
+			}
+			sum.reset();
+			max.reset();
+		}
+	}
+
+	/**
+	 * Bucket counts of a histogram at one point in time.
+	 */
+	public static class HistogramSnapshot{
+
+		private final double[] bounds;
+		private final long[] counts;
+		private final long count;
+		private final double sum;
+		private final double max;
+
+		HistogramSnapshot(double[] bounds_, long[] counts_, double sum_, double max_){
+			this.bounds = bounds_;
+			this.counts = counts_;
+			this.count = Arrays.stream(counts_).sum();
+			this.sum = sum_;
+			this.max = max_;
+		}
+
+		public long count() {
+			return this.count;
+		}
+
+		/**
+		 * @return 0 if nothing recorded.
+		 */
+		public double mean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		public double max() {
+			return this.max;
+		}
+
+		/**
+		 * Estimate of quantile q, the upper bound of the bucket it falls in, or
+		 * max if lower.
+		 * @param q between 0 and 1.
+		 * @return 0 if nothing recorded.
+		 */
+		public double percentile(double q) {
+			if(q < 0 || q > 1) {
+				throw new IllegalArgumentException("q must be between 0 and 1.");
+			}
+			if(count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long)Math.ceil(q * count));
+			long cumulative = 0;
+			for(int i = 0; i < bounds.length; i++) {
+				cumulative += counts[i];
+				if(cumulative >= rank) {
+					return Math.min(bounds[i], max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Count, mean, max and p50, p90 and p99, as shown over JMX.
+		 * @return
+		 */
+		public Map<String, Double> summary(){
+			Map<String, Double> summary = new LinkedHashMap<String, Double>();
+			summary.put("count", (double)count);
+			summary.put("mean", mean());
+			summary.put("max", max);
+			summary.put("p50", percentile(0.5));
+			summary.put("p90", percentile(0.9));
+			summary.put("p99", percentile(0.99));
+			return summary;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count %d, mean %.3g, p50 %.3g, p90 %.3g, p99 %.3g, max %.3g",
+					count, mean(), percentile(0.5), percentile(0.9), percentile(0.99), max);
+		}
+	}
+
+	/**
+	 * Counters and histograms at one point in time.
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		Map<Rejection, Long> rejections = new EnumMap<Rejection, Long>(Rejection.class);
+		for(Rejection rejection : Rejection.values()) {
+			rejections.put(rejection, rejectionCounts[rejection.ordinal()].sum());
+		}
+		return new Snapshot(treeCount.sum(), sentenceCount.sum(), fallbackCount.sum(), rejections,
+				deduplicatedCount.sum(), duplicateCount.sum(), attemptsPerSentence.snapshot(), score.snapshot(),
+				treeSize.snapshot(), sentenceNanos.snapshot(), growNanos.snapshot(), arrangeNanos.snapshot(),
+				scoreNanos.snapshot());
+	}
+
+	/**
+	 * Immutable copy of the metrics, see GenerationMetrics.snapshot().
+	 */
+	public static class Snapshot{
+
+		private final long trees;
+		private final long sentences;
+		private final long fallbackSentences;
+		private final Map<Rejection, Long> rejections;
+		private final long deduplicatedSentences;
+		private final long duplicateSentences;
+		private final HistogramSnapshot attemptsPerSentence;
+		private final HistogramSnapshot score;
+		private final HistogramSnapshot treeSize;
+		private final HistogramSnapshot sentenceNanos;
+		private final HistogramSnapshot growNanos;
+		private final HistogramSnapshot arrangeNanos;
+		private final HistogramSnapshot scoreNanos;
+
+		Snapshot(long trees_, long sentences_, long fallbackSentences_, Map<Rejection, Long> rejections_,
+				long deduplicatedSentences_, long duplicateSentences_, HistogramSnapshot attemptsPerSentence_,
+				HistogramSnapshot score_, HistogramSnapshot treeSize_, HistogramSnapshot sentenceNanos_,
+				HistogramSnapshot growNanos_, HistogramSnapshot arrangeNanos_, HistogramSnapshot scoreNanos_){
+			this.trees = trees_;
+			this.sentences = sentences_;
+			this.fallbackSentences = fallbackSentences_;
+			this.rejections = rejections_;
+			this.deduplicatedSentences = deduplicatedSentences_;
+			this.duplicateSentences = duplicateSentences_;
+			this.attemptsPerSentence = attemptsPerSentence_;
+			this.score = score_;
+			this.treeSize = treeSize_;
+			this.sentenceNanos = sentenceNanos_;
+			this.growNanos = growNanos_;
+			this.arrangeNanos = arrangeNanos_;
+			this.scoreNanos = scoreNanos_;
+		}
+
+		/**
+		 * Number of trees grown, by finished sentences.
+		 * @return
+		 */
+		public long trees() {
+			return this.trees;
+		}
+
+		public long sentences() {
+			return this.sentences;
+		}
+
+		/**
+		 * Number of sentences from a rejected tree, as none was accepted in time,
+		 * e.g. none in the word count target.
+		 * @return
+		 */
+		public long fallbackSentences() {
+			return this.fallbackSentences;
+		}
+
+		public long rejections(Rejection rejection) {
+			return this.rejections.get(rejection);
+		}
+
+		public long totalRejections() {
+			long total = 0;
+			for(long count : rejections.values()) {
+				total += count;
+			}
+			return total;
+		}
+
+		/**
+		 * Fraction of trees rejected, i.e. grown in vain.
+		 * @return 0 if no trees.
+		 */
+		public double rejectedFraction() {
+			return trees == 0 ? 0 : Math.min(1, totalRejections() / (double)trees);
+		}
+
+		/**
+		 * Number of sentences checked for duplicates.
+		 * @return
+		 */
+		public long deduplicatedSentences() {
+			return this.deduplicatedSentences;
+		}
+
+		public long duplicateSentences() {
+			return this.duplicateSentences;
+		}
+
+		/**
+		 * Fraction of sentences checked that were duplicates.
+		 * @return 0 if none checked.
+		 */
+		public double duplicateRate() {
+			return deduplicatedSentences == 0 ? 0 : duplicateSentences / (double)deduplicatedSentences;
+		}
+
+		/**
+		 * Number of trees per sentence.
+		 * @return
+		 */
+		public HistogramSnapshot attemptsPerSentence() {
+			return this.attemptsPerSentence;
+		}
+
+		public HistogramSnapshot score() {
+			return this.score;
+		}
+
+		/**
+		 * Number of words of the sentences' trees.
+		 * @return
+		 */
+		public HistogramSnapshot treeSize() {
+			return this.treeSize;
+		}
+
+		/**
+		 * Wall-clock time per sentence.
+		 * @return
+		 */
+		public HistogramSnapshot sentenceNanos() {
+			return this.sentenceNanos;
+		}
+
+		/**
+		 * Time per sentence spent growing trees.
+		 * @return
+		 */
+		public HistogramSnapshot growNanos() {
+			return this.growNanos;
+		}
+
+		/**
+		 * Time per sentence spent arranging trees into sentences.
+		 * @return
+		 */
+		public HistogramSnapshot arrangeNanos() {
+			return this.arrangeNanos;
+		}
+
+		/**
+		 * Time per sentence spent scoring trees.
+		 * @return
+		 */
+		public HistogramSnapshot scoreNanos() {
+			return this.scoreNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d sentences (%d fallback), %d trees, rejections %s (%.3f of trees)%n"
+					+ "%d sentences deduplicated, %d duplicates (rate %.4f)%n"
+					+ "attempts per sentence: %s%nscore: %s%ntree size: %s%nsentence nanos: %s%n"
+					+ "grow nanos: %s%narrange nanos: %s%nscore nanos: %s",
+					sentences, fallbackSentences, trees, rejections, rejectedFraction(), deduplicatedSentences,
+					duplicateSentences, duplicateRate(), attemptsPerSentence, score, treeSize, sentenceNanos,
+					growNanos, arrangeNanos, scoreNanos);
+		}
+	}
+
+	@Override
+	public long getTreesGenerated() {
+		return treeCount.sum();
+	}
+
+	@Override
+	public long getSentencesGenerated() {
+		return sentenceCount.sum();
+	}
+
+	@Override
+	public long getFallbackSentences() {
+		return fallbackCount.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRejections() {
+		Map<String, Long> rejections = new LinkedHashMap<String, Long>();
+		for(Rejection rejection : Rejection.values()) {
+			rejections.put(rejection.name(), rejectionCounts[rejection.ordinal()].sum());
+		}
+		return rejections;
+	}
+
+	@Override
+	public double getRejectedFraction() {
+		return snapshot().rejectedFraction();
+	}
+
+	@Override
+	public long getDeduplicatedSentences() {
+		return deduplicatedCount.sum();
+	}
+
+	@Override
+	public long getDuplicateSentences() {
+		return duplicateCount.sum();
+	}
+
+	@Override
+	public double getDuplicateRate() {
+		long deduplicated = deduplicatedCount.sum();
+		return deduplicated == 0 ? 0 : duplicateCount.sum() / (double)deduplicated;
+	}
+
+	@Override
+	public Map<String, Double> getAttemptsPerSentence() {
+		return attemptsPerSentence.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getScore() {
+		return score.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getTreeSize() {
+		return treeSize.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getSentenceNanos() {
+		return sentenceNanos.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getGrowNanos() {
+		return growNanos.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getArrangeNanos() {
+		return arrangeNanos.snapshot().summary();
+	}
+
+	@Override
+	public Map<String, Double> getScoreNanos() {
+		return scoreNanos.snapshot().summary();
+	}
+
+	@Override
+	public void reset() {
+		treeCount.reset();
+		sentenceCount.reset();
+		fallbackCount.reset();
+		for(LongAdder rejectionCount : rejectionCounts) {
+			rejectionCount.reset();
+		}
+		deduplicatedCount.reset();
+		duplicateCount.reset();
+		attemptsPerSentence.reset();
+		score.reset();
+		treeSize.reset();
+		sentenceNanos.reset();
+		growNanos.reset();
+		arrangeNanos.reset();
+		scoreNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+}
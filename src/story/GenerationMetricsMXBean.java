@@ -0,0 +1,66 @@
+package story;
+
+import java.util.Map;
+
+/**
+ * JMX view of GenerationMetrics, registered as GenerationMetrics.OBJECT_NAME
+ * for the shared instance, e.g. for jconsole. Each histogram is summarized
+ * as count, mean, max and the p50, p90 and p99 estimates. Latencies are in
+ * nanoseconds.
+ *
+ * @author yihed
+ *
+ */
+public interface GenerationMetricsMXBean {
+
+	long getTreesGenerated();
+
+	long getSentencesGenerated();
+
+	long getFallbackSentences();
+
+	/**
+	 * Number of trees rejected, by GenerationMetrics.Rejection name.
+	 * @return
+	 */
+	Map<String, Long> getRejections();
+
+	/**
+	 * Fraction of trees generated that were rejected.
+	 * @return
+	 */
+	double getRejectedFraction();
+
+	/**
+	 * Number of sentences checked by SentenceDeduplicator's.
+	 * @return
+	 */
+	long getDeduplicatedSentences();
+
+	long getDuplicateSentences();
+
+	/**
+	 * Fraction of sentences checked by SentenceDeduplicator's that were duplicates.
+	 * @return
+	 */
+	double getDuplicateRate();
+
+	Map<String, Double> getAttemptsPerSentence();
+
+	Map<String, Double> getScore();
+
+	Map<String, Double> getTreeSize();
+
+	Map<String, Double> getSentenceNanos();
+
+	Map<String, Double> getGrowNanos();
+
+	Map<String, Double> getArrangeNanos();
+
+	Map<String, Double> getScoreNanos();
+
+	/**
+	 * Sets all counters and histograms back to 0.
+	 */
+	void reset();
+}
@@ -0,0 +1,159 @@
+package story;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sink for trace messages on each node and candidate tree during generation.
+ * Call sites check isEnabled() before building the message, so the default
+ * NO_OP tracer costs a branch, and no string concatenation.
+ * Tracers are shared by all threads of a SentenceGenerator, so must be thread-safe.
+ *
+ * @author yihed
+ *
+ */
+public interface GenerationTracer {
+
+	/**system property to enable tracing to stdout from the command line, e.g. -Dstory.trace=stdout*/
+	String TRACE_PROPERTY = "story.trace";
+
+	/**Default tracer, discards everything.*/
+	GenerationTracer NO_OP = new GenerationTracer() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+		@Override
+		public void trace(String message) {
+		}
+	};
+
+	/**
+	 * Whether messages should be built and passed to trace() at all.
+	 * @return
+	 */
+	boolean isEnabled();
+
+	void trace(String message);
+
+	/**
+	 * Tracer set through TRACE_PROPERTY, NO_OP unless set to "stdout".
+	 * @return
+	 */
+	static GenerationTracer fromSystemProperty() {
+		return "stdout".equals(System.getProperty(TRACE_PROPERTY)) ? new StdoutTracer() : NO_OP;
+	}
+
+	/**
+	 * Prints each message to System.out.
+	 */
+	public static class StdoutTracer implements GenerationTracer{
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+		@Override
+		public void trace(String message) {
+			System.out.println(message);
+		}
+	}
+
+	/**
+	 * Keeps the most recent messages in memory, overwriting the oldest
+	 * once full. Lock-free.
+	 */
+	public static class RingBufferTracer implements GenerationTracer{
+
+		private final AtomicReferenceArray<String> buffer;
+		//total number of messages traced so far
+		private final AtomicLong count = new AtomicLong();
+
+		public RingBufferTracer(int capacity) {
+			if(capacity < 1) {
+				throw new IllegalArgumentException("capacity must be positive.");
+			}
+			this.buffer = new AtomicReferenceArray<String>(capacity);
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public void trace(String message) {
+			long index = count.getAndIncrement();
+			buffer.set((int)(index % buffer.length()), message);
+		}
+
+		/**
+		 * Most recent messages, oldest first. Messages traced concurrently
+		 * with this call may or may not be included.
+		 * @return
+		 */
+		public List<String> messages(){
+			long total = count.get();
+			int capacity = buffer.length();
+			long start = Math.max(0, total - capacity);
+			List<String> messages = new ArrayList<String>((int)(total - start));
+			for(long i = start; i < total; i++) {
+				String message = buffer.get((int)(i % capacity));
+				if(null != message) {
+					messages.add(message);
+				}
+			}
+			return messages;
+		}
+
+		public long totalCount() {
+			return count.get();
+		}
+	}
+
+	/**
+	 * Appends messages to a file, one per line, creating it if absent.
+	 * Buffered, so close() to flush.
+	 */
+	public static class FileTracer implements GenerationTracer, Closeable{
+
+		private final Writer writer;
+
+		public FileTracer(Path path) throws IOException {
+			this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public void trace(String message) {
+			try {
+				synchronized(writer) {
+					writer.write(message);
+					writer.write('\n');
+				}
+			}catch(IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			synchronized(writer) {
+				writer.close();
+			}
+		}
+	}
+}
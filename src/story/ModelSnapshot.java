@@ -0,0 +1,559 @@
+package story;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import story.Dep.DepType;
+import story.Dep.PosProbPair;
+import story.Pos.DepTypeProbPair;
+import story.Pos.PosType.PosTypeName;
+import utils.Lexicon;
+
+/**
+ * Precompiled binary form of the model tables, which are otherwise parsed
+ * from the html stats in data/ (posStats, depStats, depLeftRightProb, pcProb)
+ * and from the lexicon when first used. The lexicon is stored fully built,
+ * common words included, so it is read back in bulk rather than re-parsed.
+ * Compile with the main method of this class, which writes SNAPSHOT_PATH.
+ * The holders of the lexicon and stats in Story, Pos and Dep read from the 
+ * snapshot when it is present, and fall back to parsing the text data otherwise.
+ * The size and modification time of each data file are recorded in the snapshot,
+ * and the snapshot is ignored as stale if a data file present has changed since.
+ *
+ * @author yihed
+ *
+ */
+public class ModelSnapshot {
+
+	public static final String SNAPSHOT_PATH = "data/model.bin";
+	/**system property to ignore any snapshot, and parse the text data instead*/
+	public static final String DISABLE_PROPERTY = "story.noSnapshot";
+	private static final int MAGIC = 0x53544f52;
+	/**bump whenever the layout changes, so stale snapshots are rejected*/
+	private static final int FORMAT_VERSION = 5;
+
+	private static final String PC_PROB_PATH = "data/pcProb.txt";
+	private static final String POS_STATS_PATH = "data/posStats.txt";
+	private static final String DEP_STATS_PATH = "data/depStats.txt";
+	private static final String DEP_LEFT_RIGHT_PATH = "data/depLeftRightProb.txt";
+	/**text data the snapshot is compiled from, checked for changes on load*/
+	private static final String[] SOURCE_PATHS = {"data/lexicon.txt", "data/wordFrequency.txt", PC_PROB_PATH,
+			POS_STATS_PATH, DEP_STATS_PATH, DEP_LEFT_RIGHT_PATH};
+
+	private Lexicon lexicon;
+	/*tables below are indexed by PosTypeName ordinal, and refer to DepType's by name.*/
+	//raw (non-cumulative) child count prob, null if absent
+	private int[][] pcProb;
+	//DepType's referred to by index in the pos stats tables
+	private DepType[] depTypes;
+	private int[][] parentDepTypeIndices;
+	private int[][] parentDepTypeProbs;
+	private int[][] childDepTypeIndices;
+	private int[][] childDepTypeProbs;
+	//-1 if absent
+	private int[] rootProb;
+	private Map<String, DepRecord> depRecordMap;
+
+	/**
+	 * Holder so the snapshot is read once, on first use.
+	 */
+	private static class SnapshotHolder{
+		static final ModelSnapshot SNAPSHOT = Boolean.getBoolean(DISABLE_PROPERTY) ? null : load(SNAPSHOT_PATH);
+	}
+
+	/**
+	 * Data of one DepType.
+	 */
+	static class DepRecord{
+		int parentFirstProb;
+		double parentChildDist;
+		//keyed by parent PosTypeName ordinal
+		int[][] parentChildPos;
+		int[][] parentChildProbs;
+		int[] parentChildTotalProb;
+		//keyed by child PosTypeName ordinal
+		int[][] childParentPos;
+		int[][] childParentProbs;
+		int[] childParentTotalProb;
+
+		/**
+		 * Fills maps for possible pos pairs of this DepType, in the same
+		 * form as DepType.createDepMMaps.
+		 */
+		void fillDepMMaps(ListMultimap<PosTypeName, PosProbPair> parentChildMMap,
+				ListMultimap<PosTypeName, PosProbPair> childParentMMap, Map<PosTypeName, Integer> parentChildTotalProbMap,
+				Map<PosTypeName, Integer> childParentTotalProbMap) {
+			fillPosProbMMap(parentChildPos, parentChildProbs, parentChildMMap);
+			fillPosProbMMap(childParentPos, childParentProbs, childParentMMap);
+			fillTotalProbMap(parentChildTotalProb, parentChildTotalProbMap);
+			fillTotalProbMap(childParentTotalProb, childParentTotalProbMap);
+		}
+	}
+
+	/**
+	 * The snapshot at SNAPSHOT_PATH, or null if there is none
+	 * or it is unusable, in which case the text data should be parsed.
+	 * @return
+	 */
+	public static ModelSnapshot get() {
+		return SnapshotHolder.SNAPSHOT;
+	}
+
+	/**
+	 * Reads snapshot from file.
+	 * @param fileStr
+	 * @return null if file absent or not readable as a current snapshot.
+	 */
+	static ModelSnapshot load(String fileStr) {
+		if(!new File(fileStr).isFile()) {
+			return null;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileStr), 1 << 16))){
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				System.out.println("ModelSnapshot - ignoring snapshot with different format: " + fileStr);
+				return null;
+			}
+			PosTypeName[] posTypeNames = PosTypeName.values();
+			int posTypeNameCount = in.readInt();
+			if(posTypeNameCount != posTypeNames.length) {
+				System.out.println("ModelSnapshot - ignoring snapshot compiled for different PosTypeName's");
+				return null;
+			}
+			for(int i = 0; i < posTypeNameCount; i++) {
+				if(!posTypeNames[i].name().equals(in.readUTF())) {
+					System.out.println("ModelSnapshot - ignoring snapshot compiled for different PosTypeName's");
+					return null;
+				}
+			}
+			if(!readSourcesCurrent(in)) {
+				System.out.println("ModelSnapshot - ignoring stale snapshot, data changed since compiled: " + fileStr);
+				return null;
+			}
+			ModelSnapshot snapshot = new ModelSnapshot();
+			Map<String, DepType> depTypeMap = new HashMap<String, DepType>();
+			for(DepType depType : DepType.values()) {
+				depTypeMap.put(depType.name(), depType);
+			}
+			String[] depTypeNames = readStringArray(in);
+			snapshot.depTypes = new DepType[depTypeNames.length];
+			for(int i = 0; i < depTypeNames.length; i++) {
+				snapshot.depTypes[i] = depTypeMap.get(depTypeNames[i]);
+				if(null == snapshot.depTypes[i]) {
+					System.out.println("ModelSnapshot - ignoring snapshot compiled for different DepType's");
+					return null;
+				}
+			}
+
+			/*lexicon*/
+			snapshot.lexicon = Lexicon.read(in);
+
+			/*pc prob*/
+			snapshot.pcProb = readIntTable(in, posTypeNameCount);
+
+			/*pos stats*/
+			snapshot.parentDepTypeIndices = readIntTable(in, posTypeNameCount);
+			snapshot.parentDepTypeProbs = readIntTable(in, posTypeNameCount);
+			snapshot.childDepTypeIndices = readIntTable(in, posTypeNameCount);
+			snapshot.childDepTypeProbs = readIntTable(in, posTypeNameCount);
+			snapshot.rootProb = readIntArray(in);
+
+			/*dep stats*/
+			int depRecordCount = in.readInt();
+			snapshot.depRecordMap = new HashMap<String, DepRecord>();
+			for(int i = 0; i < depRecordCount; i++) {
+				String depTypeName = in.readUTF();
+				if(!depTypeMap.containsKey(depTypeName)) {
+					System.out.println("ModelSnapshot - ignoring snapshot compiled for different DepType's");
+					return null;
+				}
+				DepRecord record = new DepRecord();
+				record.parentFirstProb = in.readInt();
+				record.parentChildDist = in.readDouble();
+				record.parentChildPos = readIntTable(in, posTypeNameCount);
+				record.parentChildProbs = readIntTable(in, posTypeNameCount);
+				record.parentChildTotalProb = readIntArray(in);
+				record.childParentPos = readIntTable(in, posTypeNameCount);
+				record.childParentProbs = readIntTable(in, posTypeNameCount);
+				record.childParentTotalProb = readIntArray(in);
+				snapshot.depRecordMap.put(depTypeName, record);
+			}
+			if(in.readInt() != MAGIC) {
+				System.out.println("ModelSnapshot - ignoring truncated snapshot: " + fileStr);
+				return null;
+			}
+			//each DepType but NONE reads its stats from a record
+			for(DepType depType : DepType.values()) {
+				if(depType != DepType.NONE && !snapshot.depRecordMap.containsKey(depType.name())) {
+					System.out.println("ModelSnapshot - ignoring snapshot compiled for different DepType's");
+					return null;
+				}
+			}
+			System.out.println("ModelSnapshot - model loaded from " + fileStr);
+			return snapshot;
+		}catch(IOException e) {
+			System.out.println("ModelSnapshot - could not read snapshot, parsing text data instead: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the recorded size and modification time of the data files, and
+	 * compares them with the files. Files absent now are not compared, so a
+	 * snapshot can be deployed without the text data.
+	 * @param in
+	 * @return whether no data file has changed since the snapshot was compiled.
+	 * @throws IOException
+	 */
+	private static boolean readSourcesCurrent(DataInputStream in) throws IOException {
+		int sourceCount = in.readInt();
+		boolean current = sourceCount == SOURCE_PATHS.length;
+		for(int i = 0; i < sourceCount; i++) {
+			File sourceFile = new File(in.readUTF());
+			long length = in.readLong();
+			long lastModified = in.readLong();
+			if(sourceFile.isFile() && (sourceFile.length() != length || sourceFile.lastModified() != lastModified)) {
+				current = false;
+			}
+		}
+		return current;
+	}
+
+	private static void writeSources(DataOutputStream out) throws IOException {
+		out.writeInt(SOURCE_PATHS.length);
+		for(String sourcePath : SOURCE_PATHS) {
+			File sourceFile = new File(sourcePath);
+			if(!sourceFile.isFile()) {
+				throw new IOException("Missing data file: " + sourcePath);
+			}
+			out.writeUTF(sourcePath);
+			out.writeLong(sourceFile.length());
+			out.writeLong(sourceFile.lastModified());
+		}
+	}
+
+	/**
+	 * Lexicon as built by Story.parseLexicon.
+	 * @return
+	 */
+	Lexicon lexicon() {
+		return lexicon;
+	}
+
+	/**
+	 * Fills raw (non-cumulative) child count prob, in the form of Story.createPCProbMap.
+	 * @param posTypePCProbMap
+	 */
+	void fillPCProbMap(Map<PosTypeName, List<Integer>> posTypePCProbMap) {
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		for(int i = 0; i < pcProb.length; i++) {
+			if(null == pcProb[i]) {
+				continue;
+			}
+			List<Integer> pcProbList = new ArrayList<Integer>();
+			for(int prob : pcProb[i]) {
+				pcProbList.add(prob);
+			}
+			posTypePCProbMap.put(posTypeNames[i], pcProbList);
+		}
+	}
+
+	/**
+	 * Fills pos stats maps, in the form of Pos.createPosStatsMap.
+	 * @param parentDepTypeListMap
+	 * @param childDepTypeListMap
+	 * @param rootProbMap
+	 */
+	void fillPosStatsMap(Map<PosTypeName, List<DepTypeProbPair>> parentDepTypeListMap,
+			Map<PosTypeName, List<DepTypeProbPair>> childDepTypeListMap,
+			Map<PosTypeName, Integer> rootProbMap) {
+		fillDepTypeProbMap(parentDepTypeIndices, parentDepTypeProbs, depTypes, parentDepTypeListMap);
+		fillDepTypeProbMap(childDepTypeIndices, childDepTypeProbs, depTypes, childDepTypeListMap);
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		for(int i = 0; i < rootProb.length; i++) {
+			if(rootProb[i] >= 0) {
+				rootProbMap.put(posTypeNames[i], rootProb[i]);
+			}
+		}
+	}
+
+	/**
+	 * Data for DepType of given name.
+	 * @param depTypeName
+	 * @return null if none recorded.
+	 */
+	DepRecord depRecord(String depTypeName) {
+		return depRecordMap.get(depTypeName);
+	}
+
+	private static void fillDepTypeProbMap(int[][] indices, int[][] probs, DepType[] depTypes,
+			Map<PosTypeName, List<DepTypeProbPair>> depTypeListMap) {
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		for(int i = 0; i < indices.length; i++) {
+			if(null == indices[i]) {
+				continue;
+			}
+			List<DepTypeProbPair> probPairList = new ArrayList<DepTypeProbPair>(indices[i].length);
+			for(int j = 0; j < indices[i].length; j++) {
+				probPairList.add(new DepTypeProbPair(depTypes[indices[i][j]], probs[i][j]));
+			}
+			depTypeListMap.put(posTypeNames[i], probPairList);
+		}
+	}
+
+	private static void fillPosProbMMap(int[][] posOrdinals, int[][] probs, ListMultimap<PosTypeName, PosProbPair> mMap) {
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		for(int i = 0; i < posOrdinals.length; i++) {
+			if(null == posOrdinals[i]) {
+				continue;
+			}
+			for(int j = 0; j < posOrdinals[i].length; j++) {
+				mMap.put(posTypeNames[i], new PosProbPair(posTypeNames[posOrdinals[i][j]], probs[i][j]));
+			}
+		}
+	}
+
+	private static void fillTotalProbMap(int[] totalProb, Map<PosTypeName, Integer> totalProbMap) {
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		for(int i = 0; i < totalProb.length; i++) {
+			if(totalProb[i] >= 0) {
+				totalProbMap.put(posTypeNames[i], totalProb[i]);
+			}
+		}
+	}
+
+	/**
+	 * Parses the text data with the same routines as the static initializers,
+	 * and writes the resulting tables to fileStr.
+	 * @param fileStr
+	 * @throws IOException
+	 */
+	static void compile(String fileStr) throws IOException {
+		PosTypeName[] posTypeNames = PosTypeName.values();
+		int posTypeNameCount = posTypeNames.length;
+
+		Lexicon lexicon = Story.parseLexicon();
+
+		Map<PosTypeName, List<Integer>> pcProbPreMap = new HashMap<PosTypeName, List<Integer>>();
+		Story.createPCProbMap(PC_PROB_PATH, pcProbPreMap);
+
+		Map<PosTypeName, List<DepTypeProbPair>> parentDepTypeListMap = new HashMap<PosTypeName, List<DepTypeProbPair>>();
+		Map<PosTypeName, List<DepTypeProbPair>> childDepTypeListMap = new HashMap<PosTypeName, List<DepTypeProbPair>>();
+		Map<PosTypeName, Integer> rootProbMap = new HashMap<PosTypeName, Integer>();
+		Pos.createPosStatsMap(POS_STATS_PATH, parentDepTypeListMap, childDepTypeListMap, rootProbMap);
+
+		Map<String, String> depTypeDataMap = new HashMap<String, String>();
+		Dep.createDepTypeDataMap(DEP_STATS_PATH, depTypeDataMap);
+		Map<String, Integer> leftRightProbMap = new HashMap<String, Integer>();
+		Map<String, Double> childDistMap = new HashMap<String, Double>();
+		Dep.createLeftRightProbMap(DEP_LEFT_RIGHT_PATH, leftRightProbMap, childDistMap);
+
+		DepType[] depTypes = DepType.values();
+		File file = new File(fileStr);
+		File tempFile = new File(fileStr + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))){
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(posTypeNameCount);
+			for(PosTypeName posTypeName : posTypeNames) {
+				out.writeUTF(posTypeName.name());
+			}
+			writeSources(out);
+			out.writeInt(depTypes.length);
+			for(DepType depType : depTypes) {
+				out.writeUTF(depType.name());
+			}
+
+			/*lexicon*/
+			lexicon.write(out);
+
+			/*pc prob*/
+			int[][] pcProb = new int[posTypeNameCount][];
+			for(Map.Entry<PosTypeName, List<Integer>> entry : pcProbPreMap.entrySet()) {
+				pcProb[entry.getKey().ordinal()] = toIntArray(entry.getValue());
+			}
+			writeIntTable(out, pcProb);
+
+			/*pos stats*/
+			writeDepTypeProbMap(out, parentDepTypeListMap, posTypeNameCount);
+			writeDepTypeProbMap(out, childDepTypeListMap, posTypeNameCount);
+			int[] rootProb = new int[posTypeNameCount];
+			for(int i = 0; i < posTypeNameCount; i++) {
+				Integer prob = rootProbMap.get(posTypeNames[i]);
+				rootProb[i] = null == prob ? -1 : prob;
+			}
+			writeIntArray(out, rootProb);
+
+			/*dep stats, except NONE, which isn't backed by data*/
+			out.writeInt(depTypes.length - 1);
+			for(DepType depType : depTypes) {
+				if(depType == DepType.NONE) {
+					continue;
+				}
+				String depTypeName = depType.name();
+				String mmapDataString = depTypeDataMap.get(depTypeName);
+				Integer leftRightProb = leftRightProbMap.get(depTypeName);
+				Double depDist = childDistMap.get(depTypeName);
+				if(null == mmapDataString || null == leftRightProb || null == depDist) {
+					throw new IllegalArgumentException("data string for DepType cannot be null: " + depTypeName);
+				}
+				ListMultimap<PosTypeName, PosProbPair> parentChildMMap = ArrayListMultimap.create();
+				ListMultimap<PosTypeName, PosProbPair> childParentMMap = ArrayListMultimap.create();
+				Map<PosTypeName, Integer> parentChildTotalProbMap = new HashMap<PosTypeName, Integer>();
+				Map<PosTypeName, Integer> childParentTotalProbMap = new HashMap<PosTypeName, Integer>();
+				DepType.createDepMMaps(mmapDataString, parentChildMMap, childParentMMap,
+						parentChildTotalProbMap, childParentTotalProbMap);
+
+				out.writeUTF(depTypeName);
+				out.writeInt(leftRightProb);
+				out.writeDouble(depDist);
+				writePosProbMMap(out, parentChildMMap, posTypeNameCount);
+				writeTotalProbMap(out, parentChildTotalProbMap, posTypeNameCount);
+				writePosProbMMap(out, childParentMMap, posTypeNameCount);
+				writeTotalProbMap(out, childParentTotalProbMap, posTypeNameCount);
+			}
+			out.writeInt(MAGIC);
+		}
+		//replace in one step, so running workers never read a half-written snapshot
+		if(!tempFile.renameTo(file)) {
+			file.delete();
+			if(!tempFile.renameTo(file)) {
+				throw new IOException("Could not move snapshot into place: " + fileStr);
+			}
+		}
+	}
+
+	private static void writeDepTypeProbMap(DataOutputStream out, Map<PosTypeName, List<DepTypeProbPair>> depTypeListMap,
+			int posTypeNameCount) throws IOException {
+		int[][] indices = new int[posTypeNameCount][];
+		int[][] probs = new int[posTypeNameCount][];
+		for(Map.Entry<PosTypeName, List<DepTypeProbPair>> entry : depTypeListMap.entrySet()) {
+			List<DepTypeProbPair> probPairList = entry.getValue();
+			int ordinal = entry.getKey().ordinal();
+			indices[ordinal] = new int[probPairList.size()];
+			probs[ordinal] = new int[probPairList.size()];
+			for(int j = 0; j < probPairList.size(); j++) {
+				indices[ordinal][j] = probPairList.get(j).depType.ordinal();
+				probs[ordinal][j] = probPairList.get(j).prob;
+			}
+		}
+		writeIntTable(out, indices);
+		writeIntTable(out, probs);
+	}
+
+	private static void writePosProbMMap(DataOutputStream out, ListMultimap<PosTypeName, PosProbPair> mMap,
+			int posTypeNameCount) throws IOException {
+		int[][] posOrdinals = new int[posTypeNameCount][];
+		int[][] probs = new int[posTypeNameCount][];
+		for(PosTypeName posTypeName : mMap.keySet()) {
+			List<PosProbPair> posProbPairList = mMap.get(posTypeName);
+			int ordinal = posTypeName.ordinal();
+			posOrdinals[ordinal] = new int[posProbPairList.size()];
+			probs[ordinal] = new int[posProbPairList.size()];
+			for(int j = 0; j < posProbPairList.size(); j++) {
+				posOrdinals[ordinal][j] = posProbPairList.get(j).posTypeName.ordinal();
+				probs[ordinal][j] = posProbPairList.get(j).prob;
+			}
+		}
+		writeIntTable(out, posOrdinals);
+		writeIntTable(out, probs);
+	}
+
+	private static void writeTotalProbMap(DataOutputStream out, Map<PosTypeName, Integer> totalProbMap,
+			int posTypeNameCount) throws IOException {
+		int[] totalProb = new int[posTypeNameCount];
+		for(int i = 0; i < posTypeNameCount; i++) {
+			Integer prob = totalProbMap.get(PosTypeName.values()[i]);
+			totalProb[i] = null == prob ? -1 : prob;
+		}
+		writeIntArray(out, totalProb);
+	}
+
+	private static int[] toIntArray(List<Integer> list) {
+		int[] ar = new int[list.size()];
+		for(int i = 0; i < ar.length; i++) {
+			ar[i] = list.get(i);
+		}
+		return ar;
+	}
+
+	private static String[] readStringArray(DataInputStream in) throws IOException {
+		String[] ar = new String[in.readInt()];
+		for(int i = 0; i < ar.length; i++) {
+			ar[i] = in.readUTF();
+		}
+		return ar;
+	}
+
+	private static void writeIntArray(DataOutputStream out, int[] ar) throws IOException {
+		out.writeInt(ar.length);
+		for(int i : ar) {
+			out.writeInt(i);
+		}
+	}
+
+	private static int[] readIntArray(DataInputStream in) throws IOException {
+		int[] ar = new int[in.readInt()];
+		for(int i = 0; i < ar.length; i++) {
+			ar[i] = in.readInt();
+		}
+		return ar;
+	}
+
+	/**
+	 * Writes table with possibly null rows, null rows written with length -1.
+	 */
+	private static void writeIntTable(DataOutputStream out, int[][] table) throws IOException {
+		for(int[] row : table) {
+			if(null == row) {
+				out.writeInt(-1);
+			}else {
+				writeIntArray(out, row);
+			}
+		}
+	}
+
+	private static int[][] readIntTable(DataInputStream in, int rowCount) throws IOException {
+		int[][] table = new int[rowCount][];
+		for(int i = 0; i < rowCount; i++) {
+			int len = in.readInt();
+			if(len < 0) {
+				continue;
+			}
+			int[] row = new int[len];
+			for(int j = 0; j < len; j++) {
+				row[j] = in.readInt();
+			}
+			table[i] = row;
+		}
+		return table;
+	}
+
+	/**
+	 * Compiles the text data into a snapshot. Optional arg:
+	 * output path, default SNAPSHOT_PATH.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		//parse the text data, rather than any existing, possibly stale, snapshot
+		System.setProperty(DISABLE_PROPERTY, "true");
+		String fileStr = args.length > 0 ? args[0] : SNAPSHOT_PATH;
+		long startTime = System.currentTimeMillis();
+		compile(fileStr);
+		System.out.println("Model snapshot written to " + fileStr + " in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+}
@@ -7,9 +7,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.regex.Matcher;
+import java.util.random.RandomGenerator;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.HashMultimap;
@@ -17,9 +17,9 @@ import com.google.common.collect.HashMultimap;
 import story.Dep.DepType;
 import story.Pos.PosType.PosTypeName;
 import story.Story.PosPCType;
-import utils.ExtraLexicon;
+import utils.AliasTable;
+import utils.MappedLineReader;
 import utils.StoryUtils;
-import utils.StoryUtils.SearchableList;
 
 /**
  * part of speech.
@@ -33,12 +33,26 @@ public class Pos {
 	 used for constructing maps for a DepType. These lines are curated data. Keys are names*/
 	//private static final Map<String, String> parentPosTypeDataMap;
 	//private static final Map<String, String> childPosTypeDataMap;
-	private static final Random RAND_GEN = new Random();
-	private static final int TOTAL_PROB_1000 = 1000;
 	private static final int TOTAL_PROB_100 = 100;
 	private static final Pattern COMMA_SEP_PATTERN = Pattern.compile("\\s*, \\s*");
 	/** max pos count per sentence before stop generating additional dep relations*/
 	private static final int MAX_POS_COUNT = 7;
+	//threshold dist to origin of nodes that can get children
+	private static final int CHILD_DIST_THRESHOLD = 1;
+	/**largest min word count a target can ask for, see GenerationContext.setWordCountRange*/
+	public static final int MAX_TARGET_WORD_COUNT = 12;
+	//children the origin can take when growing to a word count target, 
+	//rather than the fixed 3 otherwise
+	private static final int TARGET_MAX_ORIGIN_CHILD_COUNT = 4;
+	//children each new child is counted on to take in turn, when the count of 
+	//a node's children is drawn for a target. Well below the max of 3, as many  
+	//children turn out to take fewer, e.g. PUNCT takes none.
+	private static final int TARGET_NEW_CHILD_CAPACITY = 1;
+	//rounds of redrawing children dropped as duplicates or CCONJ, for a target.
+	//The last round keeps duplicates, for PosTypes with few child DepTypes.
+	private static final int TARGET_REDRAW_ROUNDS = 4;
+	//floor for probabilities taken log of, for choices the stats give no weight
+	private static final double MIN_PROB = 1e-6;
 	//pattern used to extract parent-child relations. 3 groups. Don't count those
 	//that occur less than 10 times overall. e.g.
 	// <a href="">en-dep/flat</a> (1; 0% instances)
@@ -49,10 +63,6 @@ public class Pos {
 	private static final Pattern DEP_INTRO_PATTERN = Pattern.compile("(.+)<code>(.+)</code> nodes are attached (.+?):(.+)");
 	/**multimap of DepType and their incompatible DepType's*/
 	private static final HashMultimap<DepType, DepType> INCOMPATIBLE_PAIRS = HashMultimap.create();
-	
-	private static final Map<PosTypeName, List<DepTypeProbPair>> parentDepTypePairListMap;
-	private static final Map<PosTypeName, List<DepTypeProbPair>> childDepTypePairListMap;	
-	private static final Map<PosTypeName, Integer> rootProbMap;
 	private static final PosType defaultPosType = PosType.VERB;
 	
 	private PosType posType;
@@ -68,29 +78,18 @@ public class Pos {
 	/**the word selected for this pos. E.g. "I" for PRON*/
 	private String posWord;
 	
-	/**phrase created from subtree*/
+	/**phrase created from subtree, built on first request*/
 	private String subTreePhrase;
-	//same content as subTreePhrase, but as disparate words
-	private List<String> subTreeWordsList = new ArrayList<String>();
-	
-	/**list of pos for subtree terms, ordered according to the ordering of 
-	 * are ordered*/
-	private List<PosType> subTreePosList = new ArrayList<PosType>();
+	/**whether this pos comes after its parent in sentence*/
+	private boolean followsParent;
+	/**sentence-order PosType's and words of the whole arranged tree, shared by 
+	 * all Pos in it, null until arranged. This subtree is [subTreeStart, subTreeEnd)*/
+	private List<PosType> arrangedPosList;
+	private List<String> arrangedWordsList;
+	private int subTreeStart;
+	private int subTreeEnd;
 	
 	static {
-		//construct depTypeDataMap by reading data from file
-		//parentPosTypeDataMap = new HashMap<String, String>();
-		//childPosTypeDataMap = new HashMap<String, String>();
-		
-		parentDepTypePairListMap = new HashMap<PosTypeName, List<DepTypeProbPair>>();
-		//create map		
-		childDepTypePairListMap = new HashMap<PosTypeName, List<DepTypeProbPair>>();
-		rootProbMap = new HashMap<PosTypeName, Integer>();
-		
-		String fileStr = "data/posStats.txt";
-		createPosStatsMap(fileStr, parentDepTypePairListMap, childDepTypePairListMap, rootProbMap);
-		
-		
 		String[][] incompatiblePairsAr = new String[][] {
 			//e.g. "any for baron"
 			{"pre", "det"},
@@ -110,10 +109,63 @@ public class Pos {
 		}
 	}
 	
+	/**
+	 * POS stats, i.e. DepType's of the relations of each PosType to its parents 
+	 * and children, and its root prob. Loaded on first use rather than when 
+	 * PosType is, so the PosType constants, and the lexicon, can be used 
+	 * without loading them.
+	 */
+	private static final class PosStatsHolder{
+		
+		//indexed by PosType ordinal
+		static final PosTypeStats[] POS_TYPE_STATS;
+		
+		static {
+			Map<PosTypeName, List<DepTypeProbPair>> parentDepTypePairListMap 
+				= new HashMap<PosTypeName, List<DepTypeProbPair>>();
+			Map<PosTypeName, List<DepTypeProbPair>> childDepTypePairListMap 
+				= new HashMap<PosTypeName, List<DepTypeProbPair>>();
+			Map<PosTypeName, Integer> rootProbMap = new HashMap<PosTypeName, Integer>();
+			
+			ModelSnapshot snapshot = ModelSnapshot.get();
+			if(null != snapshot) {
+				snapshot.fillPosStatsMap(parentDepTypePairListMap, childDepTypePairListMap, rootProbMap);
+			}else {
+				String fileStr = "data/posStats.txt";
+				createPosStatsMap(fileStr, parentDepTypePairListMap, childDepTypePairListMap, rootProbMap);
+			}
+			PosType[] posTypes = PosType.values();
+			POS_TYPE_STATS = new PosTypeStats[posTypes.length];
+			for(PosType posType : posTypes) {
+				POS_TYPE_STATS[posType.ordinal()] = new PosTypeStats(posType.posTypeName(), parentDepTypePairListMap,
+						childDepTypePairListMap, rootProbMap);
+			}
+		}
+		
+		/**
+		 * Initializes this holder, if not yet.
+		 */
+		static void load() {
+		}
+	}
+	
+	/**
+	 * Loads the POS stats, which are otherwise loaded on first use.
+	 */
+	static void loadStats() {
+		PosStatsHolder.load();
+	}
+	
 	Pos(PosType posType_) {
 		this.posType = posType_;		
 	}
 	
+	Pos(PosType posType_, String posWord_, int distToOrigin_) {
+		this.posType = posType_;
+		this.posWord = posWord_;
+		this.distToOrigin = distToOrigin_;
+	}
+	
 	/**
 	 * posParentChildType is the role of *this* pos.
 	 * @param dep
@@ -209,137 +261,123 @@ public class Pos {
 			}
 		}/*end of PosTypeName enum*/		
 		
-		//relations to parents (e.g. nsubj) and their prob (between 0 and 100)
-		//private Map<DepType, Integer> parentDepTypeMap;
-		//private Map<DepType, Integer> childDepTypeMap;
-		private List<DepTypeProbPair> parentDepTypePairList;
-		private List<DepTypeProbPair> childDepTypePairList;
+		private final PosTypeName posTypeName;
 		
-		private int parentTotalProb;
-		private int childTotalProb;
-		/** probability (as percentage) for this pos being root, between 0 and 100.*/
-		private int isRootProb;
+		private PosType(PosTypeName posTypeName_) {
+			this.posTypeName = posTypeName_;
+		}
 		
-		private PosType(PosTypeName posTypeName) {
-			
-			if(posTypeName == PosTypeName.NONE){
-				
-				parentDepTypePairList = Collections.emptyList();
-				childDepTypePairList = Collections.emptyList();
-				parentTotalProb = TOTAL_PROB_1000;
-				childTotalProb = TOTAL_PROB_1000;
-				return;
-			}
-			
-			//System.out.println("constructing for posTypeName "+posTypeName);
-			parentDepTypePairList = parentDepTypePairListMap.get(posTypeName);
-			childDepTypePairList = childDepTypePairListMap.get(posTypeName);
-			//need to add up total prob from parentDepTypePairListMap!
-			//chosenMap.put(PosTypeName.getTypeFromName(posNameStr), probPairList);
-			//int parentProb = 0;
-			/*for(DepTypeProbPair pair : parentDepTypePairList){
-				parentTotalProb += pair.prob;
-			}*/
-			/*These prob are arranged in increasing order, ie cumulative probabilities*/
-			parentTotalProb = parentDepTypePairList.get(parentDepTypePairList.size()-1).prob;
-			
-			/*for(DepTypeProbPair pair : childDepTypePairList){
-				childTotalProb += pair.prob;
-			}*/
-			childTotalProb = childDepTypePairList.get(childDepTypePairList.size()-1).prob;
-			
-			//System.out.println("rootProbMap "+rootProbMap);
-			Integer rootProb = rootProbMap.get(posTypeName);
-			if(null == rootProb){
-				isRootProb = 0;
-			}else{
-				//out of 100 currently
-				isRootProb = rootProb;
-			}			
-			
+		private PosTypeStats stats() {
+			return PosStatsHolder.POS_TYPE_STATS[ordinal()];
 		}
 		
 		/**
-		 * Obtain a target DepType based on prob maps for given posType, get either parent or child
+		 * Obtain a target DepType based on prob maps for given node's posType, get either parent or child
 		 * type.
-		 * @param posType
+		 * @param tree
+		 * @param node
 		 * @param posParentChildType Whether supplied posType *should be taken* as parent or child.
 		 * @param posCount number of pos already in tree.
+		 * @param rand
 		 * @return
 		 */
-		public static List<DepType> selectRandomDepType(Pos pos, PosPCType posParentChildType, int posCount) {
+		public static List<DepType> selectRandomDepType(PosTree tree, int node, PosPCType posParentChildType, 
+				int posCount, RandomGenerator rand) {
 			
-			PosType posType = pos.posType;
-			int totalProb = posParentChildType == PosPCType.PARENT ? posType.childTotalProb : posType.parentTotalProb;
-			System.out.println("Pos totalProb "+pos + " "+totalProb);
+			PosType posType = tree.posType(node);
+			int distToOrigin = tree.depth(node);
 			//get the range over all possible pos value Map<DepType, Integer> parentDepTypeMap
-			List<DepTypeProbPair> depTypeList = posParentChildType == PosPCType.PARENT ?  posType.childDepTypePairList
-					: posType.parentDepTypePairList;
-			
-			List<DepType> dTList = new ArrayList<DepType>();			
+			PosTypeStats stats = posType.stats();
+			AliasTable depTypeAliasTable = posParentChildType == PosPCType.PARENT ? stats.childDepTypeAliasTable
+					: stats.parentDepTypeAliasTable;
 			
 			int numDepType;
-			if(posCount > MAX_POS_COUNT || posType.posTypeName() == PosTypeName.NONE) {
+			if(posCount > MAX_POS_COUNT || posType.posTypeName() == PosTypeName.NONE
+					|| null == depTypeAliasTable) {
 				numDepType = 0;
 			}else if(posParentChildType == PosPCType.CHILD) {
 				numDepType = 1;
 			}
 			else {
-				// PCProbMap goes from 0 to 100. 
-				int randInt = RAND_GEN.nextInt(TOTAL_PROB_100)+1;
 				//generate based on stats
-				SearchableList<Integer> pcProbList = Story.posTypePCProbMap().get(posType.posTypeName());
+				AliasTable childCountAliasTable = Story.childCountAliasTable(posType.posTypeName());
 				/*index is the bracket for number of children: 0 means leaves (0 child)
 				  1 means 1 child, 2 means 2, 3 means 3 children. */
-				int index = pcProbList.listBinarySearch(randInt);
-				//subtract 1 because padding of posTypePCList at index 0 for 0 children.
-				index--;
-				//count number of existing children
-				numDepType = index - pos.childDepList.size();
-				if(pos.distToOrigin > 1) {
-					//compound sentences with many grandchildren usually don't make much sense
-					numDepType = numDepType > 1 ? numDepType - 1 : numDepType;
-				}else if(pos.distToOrigin == 0) 
-				{
-					System.out.println("boosting numDepTpye!");
-					//also have at least one child if originPos, to avoid empty sentence
-					//numDepType = numDepType < 3 ? 2 : numDepType;
-					numDepType = 3;
-				}
-				
-				if(pos.posType == PosType.VERB && pos.distToOrigin > 0
-						) {
-					//reduce freq of verbs, since verb children often verbs, and don't
-					//play well with other pos
-					numDepType = numDepType > 1 ? numDepType - 1 : numDepType;
-					//numDepType = numDepType > 0 ? 1 : 0;
-				}
-				
-				//numDepType = numDepType == 0 && pos.distToOrigin == 0 ? 1 : numDepType;
+				int index = childCountAliasTable.sample(rand);
+				numDepType = modelChildCount(posType, distToOrigin, tree.childCount(node), index);
 			}
 			
+			return drawDepTypes(tree, node, posParentChildType, numDepType, rand);
+		}
+		
+		/**
+		 * Number of children to attach to a node, given the bracket drawn from
+		 * its PosType's child count stats.
+		 * @param posType
+		 * @param distToOrigin
+		 * @param childCount number of children node already has.
+		 * @param index bracket drawn, 3 meaning 3 or more.
+		 * @return
+		 */
+		static int modelChildCount(PosType posType, int distToOrigin, int childCount, int index) {
+			//count number of existing children
+			int numDepType = index - childCount;
+			if(distToOrigin > 1) {
+				//compound sentences with many grandchildren usually don't make much sense
+				numDepType = numDepType > 1 ? numDepType - 1 : numDepType;
+			}else if(distToOrigin == 0) 
+			{
+				//also have at least one child if originPos, to avoid empty sentence
+				//numDepType = numDepType < 3 ? 2 : numDepType;
+				numDepType = 3;
+			}
+			
+			if(posType == PosType.VERB && distToOrigin > 0
+					) {
+				//reduce freq of verbs, since verb children often verbs, and don't
+				//play well with other pos
+				numDepType = numDepType > 1 ? numDepType - 1 : numDepType;
+				//numDepType = numDepType > 0 ? 1 : 0;
+			}
+			
+			//numDepType = numDepType == 0 && pos.distToOrigin == 0 ? 1 : numDepType;
+			return numDepType;
+		}
+		
+		/**
+		 * Draws numDepType DepType's for node, weighted by prob, redrawing 
+		 * incompatible ones a few times.
+		 * @param tree
+		 * @param node
+		 * @param posParentChildType Whether supplied posType *should be taken* as parent or child.
+		 * @param numDepType
+		 * @param rand
+		 * @return
+		 */
+		static List<DepType> drawDepTypes(PosTree tree, int node, PosPCType posParentChildType, 
+				int numDepType, RandomGenerator rand) {
+			
+			PosTypeStats stats = tree.posType(node).stats();
+			AliasTable depTypeAliasTable = posParentChildType == PosPCType.PARENT ? stats.childDepTypeAliasTable
+					: stats.parentDepTypeAliasTable;
+			DepType[] depTypes = posParentChildType == PosPCType.PARENT ? stats.childDepTypes
+					: stats.parentDepTypes;
+			List<DepType> dTList = new ArrayList<DepType>();
+			
 			for(int i = 0; i < numDepType; i++) {
-				//don't add 1 since prob starts at 0
-				int randInt = RAND_GEN.nextInt(totalProb);		
-				//use binary search to find the right interval,
-				//map already sorted according to 				
-				int targetIndex = selectRandomDepTypeSearch(randInt, 0, depTypeList.size()-1, depTypeList);
-				DepType depType = depTypeList.get(targetIndex).depType;
+				//constant time draw weighted by prob
+				DepType depType = depTypes[depTypeAliasTable.sample(rand)];
 				
 				//avoid incompatible DepType pairs e.g. "det" and "pre (case)" occuring in same list, e.g.: "any for baron".
 				//Also remove if chosen DepType is same as the parent type of pos.
 				int maxIter = 3;
-				while(shouldRemoveIncompatiblePairs(pos, posParentChildType, depType, dTList)) {
+				while(shouldRemoveIncompatiblePairs(tree, node, posParentChildType, depType, dTList)) {
 					if(--maxIter < 0) {
 						break;
 					}
-					randInt = RAND_GEN.nextInt(totalProb);
-					targetIndex = selectRandomDepTypeSearch(randInt, 0, depTypeList.size()-1, depTypeList);
-					depType = depTypeList.get(targetIndex).depType;					
+					depType = depTypes[depTypeAliasTable.sample(rand)];
 				}
 				
-				//-1 since the upper bound is returned, rather than lower bound
-				//targetIndex = targetIndex == 0 ? targetIndex : targetIndex - 1; 
 				dTList.add(depType);
 			}
 			
@@ -348,15 +386,18 @@ public class Pos {
 		
 		/**
 		 * Remove incompatible DepType pairs e.g. "det" and "pre (case)" occuring in same list, e.g.: "any for baron".
-		 * Also remove if chosen DepType is same as the parent type of pos.
+		 * Also remove if chosen DepType is same as the parent type of node.
+		 * @param tree
+		 * @param node
 		 * @param depType
 		 * @param depTypeSet depType so far
 		 * @return True if removed, False otherwise.
 		 */
-		private static boolean shouldRemoveIncompatiblePairs(Pos pos, PosPCType posPCType,
+		private static boolean shouldRemoveIncompatiblePairs(PosTree tree, int node, PosPCType posPCType,
 				DepType depType, List<DepType> depTypeList) {
 			
-			if(posPCType == PosPCType.PARENT && null != pos.parentDep && pos.parentDep.depType() == depType) {
+			if(posPCType == PosPCType.PARENT && PosTree.NO_NODE != tree.parent(node) 
+					&& tree.depType(node) == depType) {
 				return true;
 			}
 			
@@ -377,37 +418,117 @@ public class Pos {
 			return false;
 		}
 
-		public static int selectRandomDepTypeSearch(int targetProb, int lowerIndex, int upperIndex, 
-				List<DepTypeProbPair> depTypePairList) {
-			
-			if(lowerIndex + 1 == upperIndex){
-				//return lowerIndex;
-				return upperIndex;
-			}
-			int midIndex = (lowerIndex + upperIndex)/2;
-			int midIndexProb = depTypePairList.get(midIndex).prob;
-			if(targetProb > midIndexProb){
-				return selectRandomDepTypeSearch(targetProb, midIndex, upperIndex, depTypePairList);
-			}else if(targetProb < midIndexProb){
-				return selectRandomDepTypeSearch(targetProb, lowerIndex, midIndex, depTypePairList);
-			}else{
-				//since prob starts at 0, so 50% prob occupy 0 through 49 (say).
-				return upperIndex;
-			}			
+		/**
+		 * Probability of one draw of selectRandomDepType giving depType,
+		 * before incompatible DepType's are redrawn.
+		 * @param depType
+		 * @param posParentChildType Whether this posType is taken as parent or child.
+		 * @return
+		 */
+		public double depTypeProb(DepType depType, PosPCType posParentChildType) {
+			PosTypeStats stats = stats();
+			AliasTable depTypeAliasTable = posParentChildType == PosPCType.PARENT ? stats.childDepTypeAliasTable
+					: stats.parentDepTypeAliasTable;
+			DepType[] depTypes = posParentChildType == PosPCType.PARENT ? stats.childDepTypes
+					: stats.parentDepTypes;
+			if(null == depTypeAliasTable) {
+				return 0;
+			}
+			double prob = 0;
+			for(int i = 0; i < depTypes.length; i++) {
+				if(depTypes[i] == depType) {
+					prob += depTypeAliasTable.probability(i);
+				}
+			}
+			return prob;
 		}
 		
 		public PosTypeName posTypeName() {
-			/*switch(this) {
-			case VERB:
-				return PosTypeName.VERB;
-			default:
-				return PosTypeName.NONE;
-			}*/
-			return PosTypeName.getTypeFromName(this.name());
+			return this.posTypeName;
 		}
 		
 	}/*End of PosType enum*/
 	
+	/**
+	 * Stats of a PosType: alias tables over the DepType's of its relations
+	 * to parents (e.g. nsubj) and to children, and its root prob.
+	 */
+	private static final class PosTypeStats{
+		
+		private static final DepType[] NO_DEP_TYPES = new DepType[0];
+		
+		/**alias tables over parentDepTypes and childDepTypes, null if no DepType's*/
+		private final AliasTable parentDepTypeAliasTable;
+		private final AliasTable childDepTypeAliasTable;
+		private final DepType[] parentDepTypes;
+		private final DepType[] childDepTypes;
+		/** probability (as percentage) for this pos being root, between 0 and 100.*/
+		private final int isRootProb;
+		
+		/**
+		 * @param posTypeName
+		 * @param parentDepTypePairListMap cumulative prob lists of DepType's to parents, with padding at index 0.
+		 * @param childDepTypePairListMap
+		 * @param rootProbMap
+		 */
+		PosTypeStats(PosTypeName posTypeName, Map<PosTypeName, List<DepTypeProbPair>> parentDepTypePairListMap,
+				Map<PosTypeName, List<DepTypeProbPair>> childDepTypePairListMap, Map<PosTypeName, Integer> rootProbMap) {
+			
+			if(posTypeName == PosTypeName.NONE){
+				parentDepTypes = NO_DEP_TYPES;
+				childDepTypes = NO_DEP_TYPES;
+				parentDepTypeAliasTable = null;
+				childDepTypeAliasTable = null;
+				isRootProb = 0;
+				return;
+			}
+			
+			/*These prob are arranged in increasing order, ie cumulative probabilities*/
+			List<DepTypeProbPair> parentDepTypePairList = parentDepTypePairListMap.get(posTypeName);
+			List<DepTypeProbPair> childDepTypePairList = childDepTypePairListMap.get(posTypeName);
+			
+			parentDepTypes = createDepTypeArray(parentDepTypePairList);
+			parentDepTypeAliasTable = createDepTypeAliasTable(parentDepTypePairList);
+			childDepTypes = createDepTypeArray(childDepTypePairList);
+			childDepTypeAliasTable = createDepTypeAliasTable(childDepTypePairList);
+			
+			Integer rootProb = rootProbMap.get(posTypeName);
+			//out of 100 currently
+			isRootProb = null == rootProb ? 0 : rootProb;
+		}
+		
+		/**
+		 * DepType's in a cumulative prob list, without the padding at index 0.
+		 * @param depTypePairList
+		 * @return
+		 */
+		private static DepType[] createDepTypeArray(List<DepTypeProbPair> depTypePairList) {
+			DepType[] depTypes = new DepType[Math.max(depTypePairList.size()-1, 0)];
+			for(int i = 1; i < depTypePairList.size(); i++) {
+				depTypes[i-1] = depTypePairList.get(i).depType;
+			}
+			return depTypes;
+		}
+		
+		/**
+		 * Alias table over the DepType's in a cumulative prob list, which has padding at index 0.
+		 * Indices drawn are indices into createDepTypeArray.
+		 * @param depTypePairList
+		 * @return null if list contains no DepType.
+		 */
+		private static AliasTable createDepTypeAliasTable(List<DepTypeProbPair> depTypePairList) {
+			int depTypeCount = depTypePairList.size()-1;
+			if(depTypeCount < 1) {
+				return null;
+			}
+			int[] weights = new int[depTypeCount];
+			for(int i = 1; i < depTypePairList.size(); i++) {
+				weights[i-1] = depTypePairList.get(i).prob - depTypePairList.get(i-1).prob;
+			}
+			return new AliasTable(weights);
+		}
+	}
+	
 	public static class DepTypeProbPair {
 		DepType depType; 
 		int prob;
@@ -430,71 +551,72 @@ public class Pos {
 	 * @param parentDepTypeListMap maps for relations to parent and children
 	 * @param childDepTypeListMap
 	 */
-	private static void createPosStatsMap(String fileStr, Map<PosTypeName, List<DepTypeProbPair>> parentDepTypeListMap,
+	static void createPosStatsMap(String fileStr, Map<PosTypeName, List<DepTypeProbPair>> parentDepTypeListMap,
 			Map<PosTypeName, List<DepTypeProbPair>> childDepTypeListMap,
 			Map<PosTypeName, Integer> rootProbMap) {
 		
 		if(null == fileStr) {
 			throw new IllegalArgumentException("fileStr for posType cannot be null.");
 		}			
-		List<String> lines = StoryUtils.readLinesFromFile(fileStr);
 		
 		Matcher introMatcher;
-		for(String line : lines){
-			//DEP_INTRO_PATTERN has 4 groups
-			if((introMatcher=DEP_INTRO_PATTERN.matcher(line)).matches()){
-				//e.g. VERB
-				String posNameStr = introMatcher.group(2);
-				Map<PosTypeName, List<DepTypeProbPair>> chosenMap;
-				if(introMatcher.group(3).contains("parents")){
-					chosenMap = parentDepTypeListMap;
-				}else{
-					chosenMap = childDepTypeListMap;
-				}
+		try(MappedLineReader lines = StoryUtils.readLines(fileStr)){
+			for(CharSequence line : lines){
+				//DEP_INTRO_PATTERN has 4 groups
+				if((introMatcher=DEP_INTRO_PATTERN.matcher(line)).matches()){
+					//e.g. VERB
+					String posNameStr = introMatcher.group(2);
+					Map<PosTypeName, List<DepTypeProbPair>> chosenMap;
+					if(introMatcher.group(3).contains("parents")){
+						chosenMap = parentDepTypeListMap;
+					}else{
+						chosenMap = childDepTypeListMap;
+					}
 				
-				List<DepTypeProbPair> probPairList = new ArrayList<DepTypeProbPair>();
+					List<DepTypeProbPair> probPairList = new ArrayList<DepTypeProbPair>();
 				
-				String dataStr = introMatcher.group(4);
-				String[] dataAr = COMMA_SEP_PATTERN.split(dataStr);			
-				Matcher m;
-				String depTypeStr;
-				int prob;
-				int occurrenceCount;
-				DepType depType;
-				int totalProb = 0;
-				//initial padding so binary search can return upper index.
-				probPairList.add(new DepTypeProbPair(DepType.NONE, totalProb));
+					String dataStr = introMatcher.group(4);
+					String[] dataAr = COMMA_SEP_PATTERN.split(dataStr);			
+					Matcher m;
+					String depTypeStr;
+					int prob;
+					int occurrenceCount;
+					DepType depType;
+					int totalProb = 0;
+					//initial padding so binary search can return upper index.
+					probPairList.add(new DepTypeProbPair(DepType.NONE, totalProb));
 				
-				//System.out.println("dataAr "+Arrays.toString(dataAr));
-				for(String s : dataAr) {
-					if((m=DEP_PATTERN.matcher(s)).matches()) {
-						//e.g. "nsubj", or "root"
-						depTypeStr = m.group(1);
-						//System.out.println("Dep.DepType.getTypeFromName(depTypeStr) "+depTypeStr+" "+Dep.DepType.getTypeFromName(depTypeStr));
-						if((depType = Dep.DepType.getTypeFromName(depTypeStr)) != DepType.NONE) {
-							occurrenceCount = Integer.parseInt(m.group(2));
-							prob = Integer.parseInt(m.group(3));
-							//System.out.println("depTypeStr "+depTypeStr);
-							if("root".equals(depTypeStr)) {
-								rootProbMap.put(PosTypeName.getTypeFromName(posNameStr), prob);
-								//root doesn't extend as a dependence relation
-								continue;
-								//this.isRootProb = prob;
-							}
-							//experiment with this constant, then make field
-							if(prob == 0 && occurrenceCount < 10){
-								continue;
+					//System.out.println("dataAr "+Arrays.toString(dataAr));
+					for(String s : dataAr) {
+						if((m=DEP_PATTERN.matcher(s)).matches()) {
+							//e.g. "nsubj", or "root"
+							depTypeStr = m.group(1);
+							//System.out.println("Dep.DepType.getTypeFromName(depTypeStr) "+depTypeStr+" "+Dep.DepType.getTypeFromName(depTypeStr));
+							if((depType = Dep.DepType.getTypeFromName(depTypeStr)) != DepType.NONE) {
+								occurrenceCount = Integer.parseInt(m.group(2));
+								prob = Integer.parseInt(m.group(3));
+								//System.out.println("depTypeStr "+depTypeStr);
+								if("root".equals(depTypeStr)) {
+									rootProbMap.put(PosTypeName.getTypeFromName(posNameStr), prob);
+									//root doesn't extend as a dependence relation
+									continue;
+									//this.isRootProb = prob;
+								}
+								//experiment with this constant, then make field
+								if(prob == 0 && occurrenceCount < 10){
+									continue;
+								}
+								//some data have 0 prob because low occurrence.
+								//experiment with this constant!!
+								prob = prob == 0 ? 2 : prob*10;
+								totalProb += prob;
+								//depTypeMap.put(depType, totalProb);
+								probPairList.add(new DepTypeProbPair(depType, totalProb));							
 							}
-							//some data have 0 prob because low occurrence.
-							//experiment with this constant!!
-							prob = prob == 0 ? 2 : prob*10;
-							totalProb += prob;
-							//depTypeMap.put(depType, totalProb);
-							probPairList.add(new DepTypeProbPair(depType, totalProb));							
 						}
 					}
+					chosenMap.put(PosTypeName.getTypeFromName(posNameStr), probPairList);
 				}
-				chosenMap.put(PosTypeName.getTypeFromName(posNameStr), probPairList);
 			}
 		}
 		
@@ -509,14 +631,19 @@ public class Pos {
 	 * @param posTypeWord A word of PosType posType
 	 */
 	public static Pos createSentenceTree(PosType posType, String posTypeWord) {
-
-		//create a pos with that Type
-		Pos pos = new Pos(posType);
-		pos.posWord = posTypeWord;
-		System.out.println("originPos word: "+pos.posWord);
-		int countSoFar = 1;
-		growTree(pos, countSoFar);
-		return pos;
+		return createSentenceTree(posType, posTypeWord, GenerationContext.forCurrentThread());
+	}
+	
+	/**
+	 * create sentence tree given a PosType and word. Returns
+	 * that supplied entry pos, *not* root of tree.
+	 * @assume that posTypeWord is of PosType posType.
+	 * @param posType
+	 * @param posTypeWord A word of PosType posType
+	 * @param context
+	 */
+	public static Pos createSentenceTree(PosType posType, String posTypeWord, GenerationContext context) {
+		return createPosTree(posType, posTypeWord, context).toPos();
 	}
 	
 	/**
@@ -525,11 +652,17 @@ public class Pos {
 	 * @param posType
 	 */
 	public static Pos createSentenceTree(PosType posType) {
-		if(null == posType) {
-			posType = defaultPosType;
-		}
-		String word = Story.getRandomWord(posType);
-		return createSentenceTree(posType, word);
+		return createSentenceTree(posType, GenerationContext.forCurrentThread());
+	}
+	
+	/**
+	 * create sentence tree given a PosType. Returns
+	 * that supplied entry pos, *not* root of tree.
+	 * @param posType
+	 * @param context
+	 */
+	public static Pos createSentenceTree(PosType posType, GenerationContext context) {
+		return createPosTree(posType, context).toPos();
 	}
 
 	/**
@@ -538,78 +671,165 @@ public class Pos {
 	 * @param word
 	 */
 	public static Pos createSentenceTree(String word) {
+		return createSentenceTree(word, GenerationContext.forCurrentThread());
+	}
+	
+	/**
+	 * create sentence tree given a word. Returns
+	 * that supplied entry pos, *not* root of tree.
+	 * @param word
+	 * @param context
+	 */
+	public static Pos createSentenceTree(String word, GenerationContext context) {
+		return createPosTree(word, context).toPos();
+	}
+	
+	/**
+	 * create compact sentence tree given a PosType and word, 
+	 * node 0 being the supplied entry pos. Growth is abandoned, and
+	 * the tree returned pruned, once its score bound drops below context.minScore().
+	 * @assume that posTypeWord is of PosType posType.
+	 * @param posType
+	 * @param posTypeWord A word of PosType posType
+	 * @param context
+	 */
+	public static PosTree createPosTree(PosType posType, String posTypeWord, GenerationContext context) {
+
+		//create a tree with that Type as origin
+		return growOriginTree(new PosTree(posType, posTypeWord), context);
+	}
+	
+	/**
+	 * Grows tree consisting of just the origin node.
+	 * @param tree
+	 * @param context
+	 * @return tree
+	 */
+	private static PosTree growOriginTree(PosTree tree, GenerationContext context) {
+		if(context.tracing()) context.trace("originPos word: "+tree.word(0));
+		int countSoFar = 1;
+		growTree(tree, 0, countSoFar, context);
+		return tree;
+	}
+	
+	/**
+	 * create compact sentence tree given a PosType, 
+	 * node 0 being the supplied entry pos.
+	 * @param posType
+	 * @param context
+	 */
+	public static PosTree createPosTree(PosType posType, GenerationContext context) {
+		if(null == posType) {
+			posType = defaultPosType;
+		}
+		int wordId = Story.getRandomWordId(posType, context.rand());
+		return growOriginTree(new PosTree(posType, wordId), context);
+	}
+	
+	/**
+	 * create compact sentence tree given a word, 
+	 * node 0 being the supplied entry pos.
+	 * @param word
+	 * @param context
+	 */
+	public static PosTree createPosTree(String word, GenerationContext context) {
 		
-		PosTypeName posTypeName = ExtraLexicon.wordPosTypeNameMap().get(word);
+		PosTypeName posTypeName = Story.lexicon().commonPosTypeName(word);
 		PosType posType = posTypeName == null ? defaultPosType : posTypeName.getPosType();
 		
-		return createSentenceTree(posType, word);
+		return createPosTree(posType, word, context);
+	}
+	
+	/**
+	 * Attach additional Dep and Pos to given node, and grow the new children 
+	 * in turn, depth first.
+	 * @param tree
+	 * @param node
+	 * @param posCount existing number of pos already in tree.
+	 * @param context
+	 * @return updated pos count.
+	 */
+	private static int growTree(PosTree tree, int node, int posCount, GenerationContext context) {
+		
+		//children added are at indices [firstChild, childEnd)
+		int firstChild = tree.size();
+		posCount = expandNode(tree, node, posCount, context);
+		int childEnd = tree.size();
+		
+		//once a tree has been accepted, trees short of the min word count are no longer
+		//needed as fallback, so abandoned as soon as origin's children still to be grown 
+		//can't make up the shortfall.
+		boolean checkWordCount = context.hasWordCountTarget() && context.minScore() > 0 
+				&& PosTree.NO_NODE == tree.parent(node);
+		int pendingCapacity = 0;
+		if(checkWordCount) {
+			for(int childNode = firstChild; childNode < childEnd; childNode++) {
+				pendingCapacity += wordCapacity(tree, childNode);
+			}
+		}
+		for(int childNode = firstChild; childNode < childEnd; childNode++) {
+			if(checkWordCount) {
+				if(tree.size() + pendingCapacity < context.minWordCount()) {
+					if(context.tracing()) context.trace("pruned, at most " + (tree.size() + pendingCapacity) 
+							+ " words, below " + context.minWordCount());
+					tree.prune();
+					return posCount;
+				}
+				pendingCapacity -= wordCapacity(tree, childNode);
+			}
+			//grow children
+			posCount = growTree(tree, childNode, posCount, context);
+			if(tree.isPruned()) {
+				return posCount;
+			}
+		}
+		//subtree complete, fix its order and score it, to abandon tree early
+		//if it can no longer beat the best so far.
+		tree.seal(node, context.rand());
+		if(tree.scoreBound() < context.minScore()) {
+			if(context.tracing()) context.trace("pruned, score bound "+tree.scoreBound() 
+					+ " below " + context.minScore());
+			tree.prune();
+		}
+		return posCount;
 	}
+	
 	/**
-	 * Attach additional Dep and Pos to given Pos.
-	 * @param pos
+	 * Attach additional Dep and Pos to given node, without growing them further.
+	 * Used for both depth-first growth and beam search.
+	 * @param tree
+	 * @param node
 	 * @param posCount existing number of pos already in tree.
+	 * @param context
 	 * @return updated pos count.
 	 */
-	private static int growTree(Pos pos, int posCount) {
+	static int expandNode(PosTree tree, int node, int posCount, GenerationContext context) {
 		
-		PosType posType = pos.posType;
+		PosType posType = tree.posType(node);
+		RandomGenerator rand = context.rand();
 		
 		//not mutually exclusive!
 		//PosPCType parentChildType = PosPCType.generateRandType();
 		
-		boolean getParentBool = whetherCreateParent(pos);
+		boolean getParentBool = whetherCreateParent(tree, node, rand);
 		//use prob to determine if get parent.
 		if(getParentBool) {
 			//create Dep with randomly generated DepType
-			List<DepType> depTypeList = PosType.selectRandomDepType(pos, PosPCType.CHILD, posCount);
-			System.out.println("Pos - parent depTypeList "+depTypeList);
+			List<DepType> depTypeList = PosType.selectRandomDepType(tree, node, PosPCType.CHILD, posCount, rand);
+			if(context.tracing()) context.trace("Pos - parent depTypeList "+depTypeList);
 			posCount += depTypeList.size();
-			boolean b = false;
-			if(b && !depTypeList.isEmpty()) {
-				//delete duplicate dep, to avoid e.g. two prepositions stacked together, "as at"
-				depTypeList = StoryUtils.deleteDuplicateDepType(depTypeList);
-				
-				DepType depType = depTypeList.get(0);
-				//this is for child
-				PosType matchingPosType = depType.selectRandomMatchingPos(posType, PosPCType.CHILD);		
-				
-				//create Dep from DepType
-				//Pos parentPos_, Pos childPos_, DepType depType_
-				Pos childPos;
-				Pos parentPos;
-				/*if(parentChildType == PosPCType.PARENT) {
-					parentPos = pos;
-					childPos = new Pos(matchingPosType);
-					childPos.distToOrigin = 1;
-					*/
-				///*else {
-					parentPos = new Pos(matchingPosType);			
-					childPos = pos;	
-					parentPos.distToOrigin = pos.distToOrigin + 1;
-					parentPos.posWord = Story.getRandomWord(matchingPosType);
-					System.out.println("randomly selected parent matchingPosType: "+matchingPosType + " FOR " + depType
-							+ " WORD " + parentPos.posWord);	
-				//}	*/
-				
-				Dep dep = new Dep(depType, parentPos, childPos);
-				//don't always add!!! Could repeat
-				childPos.addDep(dep, PosPCType.CHILD);
-				parentPos.addDep(dep, PosPCType.PARENT);
-				
-				//grow children
-				//don't grow more children for parent node - Oct 8
-				//posCount = growTree(parentPos, posCount);
-			}			
+			//parent Pos no longer attached, so origin is root - Oct 8. The draw is kept
+			//as it still counts towards posCount.
 		}
 		
-		boolean getChildBool = whetherCreateChild(pos);
+		if(context.hasWordCountTarget()) {
+			return posCount + growToTarget(tree, node, context);
+		}
+		boolean getChildBool = whetherCreateChild(tree, node);
 		//get_child takes into account e.g. how far from Pos originator. how many children already, etc
 		if(getChildBool) {
 			//create Dep with randomly generated DepType
-			/*if(posType == PosType.SCONJ) {
-				System.out.println("sconj!");
-			}*/
-			List<DepType> depTypeList = PosType.selectRandomDepType(pos, PosPCType.PARENT, posCount);
+			List<DepType> depTypeList = PosType.selectRandomDepType(tree, node, PosPCType.PARENT, posCount, rand);
 			posCount += depTypeList.size();
 			
 			//delete duplicate dep, to avoid e.g. two prepositions stacked together, "as at"
@@ -617,79 +837,290 @@ public class Pos {
 				depTypeList = StoryUtils.deleteDuplicateDepType(depTypeList);				
 			}
 			
-			System.out.println("Pos - children depTypeList "+depTypeList);
+			if(context.tracing()) context.trace("Pos - children depTypeList "+depTypeList);
+			//CCONJ children are dropped
+			posCount -= depTypeList.size() - addChildren(tree, node, depTypeList, context);
+		}
+		return posCount;
+	}
+	
+	/**
+	 * Attach children of given DepType's to node, with PosType's and words drawn for them.
+	 * @param tree
+	 * @param node
+	 * @param depTypeList
+	 * @param context
+	 * @return number of children attached, CCONJ children being dropped.
+	 */
+	private static int addChildren(PosTree tree, int node, List<DepType> depTypeList, GenerationContext context) {
+		
+		PosType posType = tree.posType(node);
+		RandomGenerator rand = context.rand();
+		int parentNode = tree.parent(node);
+		int addedCount = 0;
+		for(DepType depType : depTypeList) {
+			//this is for child
+			PosType matchingPosType = depType.selectRandomMatchingPos(posType, PosPCType.PARENT, rand);
+			//CCONJ e.g. "either", "both", which often don't make much sense in sentences\
+			if(PosType.CCONJ == matchingPosType //|| PosType.PUNCT == matchingPosType
+					) {
+				continue;
+			}
+			
+			if(PosTree.NO_NODE != parentNode) {
+				//avoid same consecutive pos, e.g. verb-verb
+				PosType parentPosType = tree.posType(parentNode);
+				//some dep don't have many pos
+				int maxIter = 2;
+				while(parentPosType == matchingPosType) {
+					if(--maxIter < 0) {
+						break;
+					}
+					matchingPosType = depType.selectRandomMatchingPos(posType, PosPCType.PARENT, rand);
+				}
+			}
+			
+			int childWordId = Story.getRandomWordId(matchingPosType, rand);
+			//no alias table for posType under depType, child gets the placeholder word
+			if(PosType.NONE == matchingPosType && context.tracing()) context.trace("no matching pos for " 
+					+ posType + " FOR " + depType);
+			if(context.tracing()) context.trace("randomly selected child matchingPosType: "+matchingPosType 
+					+ " FOR " + depType + " WORD " + Story.lexicon().word(childWordId));
+			
+			tree.addChild(node, depType, matchingPosType, childWordId);
+			addedCount++;
+		}
+		return addedCount;
+	}
+	
+	/**
+	 * Attach children to node towards context's word count target: their number is 
+	 * drawn conditioned on the target staying reachable, and children dropped as 
+	 * duplicates or CCONJ are redrawn, so the tree is grown to the target size
+	 * rather than grown and then discarded.
+	 * @param tree
+	 * @param node
+	 * @param context
+	 * @return number of children attached.
+	 */
+	private static int growToTarget(PosTree tree, int node, GenerationContext context) {
+		
+		int targetCount = drawTargetChildCount(tree, node, context);
+		int addedCount = 0;
+		for(int round = 0; addedCount < targetCount && round <= TARGET_REDRAW_ROUNDS; round++) {
+			List<DepType> depTypeList = PosType.drawDepTypes(tree, node, PosPCType.PARENT, 
+					targetCount - addedCount, context.rand());
+			//delete duplicate dep, including those of children already attached
+			List<DepType> newDepTypeList = new ArrayList<DepType>(depTypeList.size());
 			for(DepType depType : depTypeList) {
-				//this is for child
-				PosType matchingPosType = depType.selectRandomMatchingPos(posType, PosPCType.PARENT);
-				//CCONJ e.g. "either", "both", which often don't make much sense in sentences\
-				if(PosType.CCONJ == matchingPosType //|| PosType.PUNCT == matchingPosType
-						) {
-					posCount--;
-					continue;
+				if(round == TARGET_REDRAW_ROUNDS 
+						|| !newDepTypeList.contains(depType) && !hasChildOfDepType(tree, node, depType)) {
+					newDepTypeList.add(depType);
 				}
-				
-				if(null != pos.parentDep) {
-					//avoid same consecutive pos, e.g. verb-verb
-					PosType parentPosType = pos.parentDep.parentPos().posType;
-					//some dep don't have many pos
-					int maxIter = 2;
-					while(parentPosType == matchingPosType) {
-						if(--maxIter < 0) {
-							break;
-						}
-						matchingPosType = depType.selectRandomMatchingPos(posType, PosPCType.PARENT);
-					}
+			}
+			if(context.tracing()) context.trace("Pos - children depTypeList "+newDepTypeList 
+					+ " towards " + targetCount);
+			addedCount += addChildren(tree, node, newDepTypeList, context);
+		}
+		return addedCount;
+	}
+	
+	private static boolean hasChildOfDepType(PosTree tree, int node, DepType depType) {
+		for(int child = tree.firstChild(node); PosTree.NO_NODE != child; child = tree.nextSibling(child)) {
+			if(tree.depType(child) == depType) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Number of children to attach to node for context's word count target. 
+	 * Drawn from the model's distribution of node's number of children, 
+	 * conditioned on the tree size staying within the max, and the min staying 
+	 * reachable by node and the nodes still to be expanded.
+	 * @param tree
+	 * @param node
+	 * @param context
+	 * @return
+	 */
+	private static int drawTargetChildCount(PosTree tree, int node, GenerationContext context) {
+		
+		int capacity = childCapacity(tree, node);
+		if(0 == capacity) {
+			return 0;
+		}
+		int size = tree.size();
+		//nodes after node are its later siblings, still to be expanded, 
+		//or children of earlier siblings, which are too deep to get children.
+		int pendingCapacity = 0;
+		for(int i = node+1; i < size; i++) {
+			pendingCapacity += childCapacity(tree, i);
+		}
+		int distToOrigin = tree.depth(node);
+		int newChildCapacity = distToOrigin < CHILD_DIST_THRESHOLD ? TARGET_NEW_CHILD_CAPACITY : 0;
+		int maxCount = Math.min(capacity, context.maxWordCount() - size);
+		int shortfall = context.minWordCount() - size - pendingCapacity;
+		//fewest children that, along with their own, make up the shortfall
+		int minCount = shortfall <= 0 ? 0 : (shortfall + newChildCapacity) / (newChildCapacity + 1);
+		if(minCount >= maxCount) {
+			return Math.max(maxCount, 0);
+		}
+		
+		PosType posType = tree.posType(node);
+		RandomGenerator rand = context.rand();
+		int childCount = tree.childCount(node);
+		AliasTable childCountAliasTable = Story.childCountAliasTable(posType.posTypeName());
+		double totalProb = 0;
+		for(int index = 0; index < childCountAliasTable.size(); index++) {
+			int count = PosType.modelChildCount(posType, distToOrigin, childCount, index);
+			if(count >= minCount && count <= maxCount) {
+				totalProb += childCountAliasTable.probability(index);
+			}
+		}
+		if(0 == totalProb) {
+			//model gives no count in range, e.g. origin always takes 3, so take nearest one
+			int count = PosType.modelChildCount(posType, distToOrigin, childCount, childCountAliasTable.sample(rand));
+			return Math.max(minCount, Math.min(maxCount, count));
+		}
+		double randProb = rand.nextDouble() * totalProb;
+		int count = minCount;
+		for(int index = 0; index < childCountAliasTable.size(); index++) {
+			int indexCount = PosType.modelChildCount(posType, distToOrigin, childCount, index);
+			if(indexCount >= minCount && indexCount <= maxCount) {
+				count = indexCount;
+				randProb -= childCountAliasTable.probability(index);
+				if(randProb < 0) {
+					break;
 				}
-				
-				//create Dep from DepType
-				//Pos parentPos_, Pos childPos_, DepType depType_
-				Pos childPos;
-				Pos parentPos;
-				//if(parentChildType == PosPCType.PARENT) {
-				
-				parentPos = pos;
-				childPos = new Pos(matchingPosType);
-				childPos.distToOrigin = pos.distToOrigin + 1;
-					
-				childPos.posWord = Story.getRandomWord(matchingPosType);
-				System.out.println("randomly selected child matchingPosType: "+matchingPosType + " FOR " + depType
-						+ " WORD " + childPos.posWord);
-				/*}/*else {
-					parentPos = new Pos(matchingPosType);			
-					childPos = pos;	
-					parentPos.distToOrigin = 1;
-				}	*/
-				
-				Dep dep = new Dep(depType, parentPos, childPos);
-				childPos.addDep(dep, PosPCType.CHILD);
-				parentPos.addDep(dep, PosPCType.PARENT);
-				
-				//grow children
-				posCount = growTree(childPos, posCount);				
 			}
 		}
-		return posCount;
+		return count;
+	}
+	
+	/**
+	 * Most children node can get when growing towards a word count target.
+	 * @param tree
+	 * @param node
+	 * @return 0 if node can't get children.
+	 */
+	private static int childCapacity(PosTree tree, int node) {
+		
+		PosType posType = tree.posType(node);
+		if(!whetherCreateChild(tree, node) || posType.posTypeName() == PosTypeName.NONE
+				|| null == posType.stats().childDepTypeAliasTable) {
+			return 0;
+		}
+		AliasTable childCountAliasTable = Story.childCountAliasTable(posType.posTypeName());
+		if(null == childCountAliasTable) {
+			return 0;
+		}
+		int distToOrigin = tree.depth(node);
+		if(0 == distToOrigin) {
+			return TARGET_MAX_ORIGIN_CHILD_COUNT - tree.childCount(node);
+		}
+		//highest bracket gives most children
+		int capacity = PosType.modelChildCount(posType, distToOrigin, tree.childCount(node), 
+				childCountAliasTable.size()-1);
+		return Math.max(capacity, 0);
+	}
+	
+	/**
+	 * Most words growing node towards a word count target can still add, counting
+	 * its descendants. Only bounded for nodes whose children can't get children 
+	 * of their own, MAX_TARGET_WORD_COUNT otherwise.
+	 * @param tree
+	 * @param node node not expanded yet.
+	 * @return
+	 */
+	static int wordCapacity(PosTree tree, int node) {
+		if(tree.depth(node) < CHILD_DIST_THRESHOLD) {
+			return MAX_TARGET_WORD_COUNT;
+		}
+		return childCapacity(tree, node);
+	}
+	
+	/**
+	 * Whether expandNode could attach any Pos to node.
+	 * @param tree
+	 * @param node
+	 * @return
+	 */
+	static boolean canExpand(PosTree tree, int node) {
+		//origin may still draw a parent DepType
+		return PosTree.NO_NODE == tree.parent(node) || whetherCreateChild(tree, node);
+	}
+	
+	/**
+	 * Log of the model probability of the children attached to node: the 
+	 * probability of its number of children, and for each child, of its DepType
+	 * given node's PosType, and of its PosType given that DepType.
+	 * @param tree
+	 * @param node
+	 * @return
+	 */
+	static double expansionLogProb(PosTree tree, int node) {
+		
+		PosType posType = tree.posType(node);
+		double logProb = 0;
+		
+		AliasTable childCountAliasTable = Story.childCountAliasTable(posType.posTypeName());
+		if(null != childCountAliasTable) {
+			//last bracket is for that many children or more
+			int bracket = Math.min(tree.childCount(node), childCountAliasTable.size()-1);
+			logProb += Math.log(Math.max(childCountAliasTable.probability(bracket), MIN_PROB));
+		}
+		for(int child = tree.firstChild(node); PosTree.NO_NODE != child; child = tree.nextSibling(child)) {
+			DepType depType = tree.depType(child);
+			double depTypeProb = posType.depTypeProb(depType, PosPCType.PARENT);
+			double matchingPosProb = depType.matchingPosProb(posType, tree.posType(child), PosPCType.PARENT);
+			logProb += Math.log(Math.max(depTypeProb, MIN_PROB)) + Math.log(Math.max(matchingPosProb, MIN_PROB));
+		}
+		return logProb;
+	}
+	
+	/**
+	 * Tree with just the origin Pos, given a PosType and/or word. Word
+	 * drawn at random if null, PosType looked up from word if null.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param rand
+	 * @return
+	 */
+	static PosTree createOriginTree(PosType posType, String posTypeWord, RandomGenerator rand) {
+		if(null == posTypeWord) {
+			if(null == posType) {
+				posType = defaultPosType;
+			}
+			return new PosTree(posType, Story.getRandomWordId(posType, rand));
+		}else if(null == posType) {
+			PosTypeName posTypeName = Story.lexicon().commonPosTypeName(posTypeWord);
+			posType = posTypeName == null ? defaultPosType : posTypeName.getPosType();
+		}
+		return new PosTree(posType, posTypeWord);
 	}
 
 	/**
-	 * Determines if create parent based on pos being root, 
+	 * Determines if create parent based on node being root, 
 	 * and dist from originator.
-	 * @param pos
+	 * @param tree
+	 * @param node
+	 * @param rand
 	 * @return
 	 */
-	private static boolean whetherCreateParent(Pos pos) {
+	private static boolean whetherCreateParent(PosTree tree, int node, RandomGenerator rand) {
 		
-		if(null != pos.parentDep) {
+		if(PosTree.NO_NODE != tree.parent(node)) {
 			return false;
 		}
 		//threshold dist to origin
 		final int PARENT_DIST_THRESHOLD = 1;
-		if(pos.distToOrigin > PARENT_DIST_THRESHOLD) {
+		if(tree.depth(node) > PARENT_DIST_THRESHOLD) {
 			return false;
 		}
 		
-		int rootProb = pos.posType.isRootProb;
-		int randInt = RAND_GEN.nextInt(TOTAL_PROB_100)+1;
+		int rootProb = tree.posType(node).stats().isRootProb;
+		int randInt = rand.nextInt(TOTAL_PROB_100)+1;
 		
 		if(randInt <= rootProb) {
 			return false;
@@ -699,128 +1130,142 @@ public class Pos {
 	}
 	
 	/**
-	 * Determines if create parent based on pos being root.
-	 * @param pos
+	 * Determines if create children for node.
+	 * @param tree
+	 * @param node
 	 * @return
 	 */
-	private static boolean whetherCreateChild(Pos pos) {
+	private static boolean whetherCreateChild(PosTree tree, int node) {
 		
-		int numChildren = pos.childDepList.size();
+		int numChildren = tree.childCount(node);
 		
 		final int NUM_CHILDREN_THRESHOLD = 3;
 		if(numChildren > NUM_CHILDREN_THRESHOLD) {
 			return false;
 		}
 		
-		//threshold dist to origin
-		final int CHILD_DIST_THRESHOLD = 1;
-		if(pos.distToOrigin > CHILD_DIST_THRESHOLD) {
+		int distToOrigin = tree.depth(node);
+		if(distToOrigin > CHILD_DIST_THRESHOLD) {
 			return false;
 		}
+		PosType posType = tree.posType(node);
 		//verbs tend to have children that are also verbs
-		if(pos.posType == PosType.VERB && pos.distToOrigin > 1) {
+		if(posType == PosType.VERB && distToOrigin > 1) {
 			return false;
 		}
 		
-		if(pos.posType == PosType.PUNCT) {
+		if(posType == PosType.PUNCT) {
 			return false;
 		}
 		return true;
 	}
 	
 	/**
-	 * Creates phrase for subtree.
+	 * Creates phrase for subtree. Children are ordered in one pass, then the
+	 * subtree is written out once, in sentence order, into lists shared by
+	 * all Pos in the subtree. So linear in subtree size.
+	 * @param rand
 	 * @return
 	 */
-	private String createSubTreePhrase() {
+	private String createSubTreePhrase(final RandomGenerator rand) {
 		
-		if(null != this.subTreePhrase) {
-			return this.subTreePhrase;
-		}		
-		if(this.childDepList.isEmpty()) {
-			//leaf Pos
-			this.subTreePosList.add(this.posType());
-			this.subTreeWordsList.add(this.posWord);
-			return this.posWord;
-		}
-		
-		//List<String> leftDepList = new ArrayList<String>();
-		//List<String> rightDepList = new ArrayList<String>();
-		
-		Collections.sort(this.childDepList, 
-				new Comparator<Dep>(){
-					public int compare(Dep dep1, Dep dep2){
-						//these dist are ~2.5 on avg, with std dev 2.5?
-						double dep1Dist = dep1.depType().parentChildDist();
-						double dep2Dist = dep2.depType().parentChildDist();
-						int comp = dep1Dist > dep2Dist ? 1 : (dep1Dist < dep2Dist ? -1 : 0);
-						
-						//introduce some randomness if distance difference is small.
-						//but this makes the compare non-transitive and non-symmetric!!
-						double diff;
-						if(comp > 0 && (diff=dep1Dist - dep2Dist) < 1 
-								|| comp < 0 && (diff=dep2Dist - dep1Dist) < 1){
-							int randInt = RAND_GEN.nextInt(TOTAL_PROB_100);
-							if(randInt < 40//70*(1-diff)
-									){
-								comp = -comp;
-							}
-						}
-						return comp;
-					}
-				} 
-		);
+		if(null != this.arrangedWordsList) {
+			return subTreePhrase();
+		}
+		int subTreeSize = orderSubTree(rand);
 		
-		//List<PosType> subTreePosList = new ArrayList<PosType>();
-		this.subTreePosList.add(this.posType());
-		this.subTreeWordsList.add(this.posWord);
+		List<PosType> posList = new ArrayList<PosType>(subTreeSize);
+		List<String> wordsList = new ArrayList<String>(subTreeSize);
+		emitSubTree(posList, wordsList);
 		
-		StringBuilder rightSb = new StringBuilder(30);
-		StringBuilder leftSb = new StringBuilder(30);
-
-		//arrange based on dep avg dist and left-right ordering.
+		return subTreePhrase();
+	}
+	
+	/**
+	 * Sorts children based on dep avg dist, and draws for each child whether
+	 * it follows this pos, recursively.
+	 * @param rand
+	 * @return number of Pos in subtree.
+	 */
+	private int orderSubTree(final RandomGenerator rand) {
+		
+		int subTreeSize = 1;
+		if(this.childDepList.size() > 1) {
+			Collections.sort(this.childDepList, depDistComparator(rand));
+		}
 		//list already sorted according to distance
 		for(Dep dep : this.childDepList) {
 			
 			int parentFirstProb = dep.depType().parentFirstProb();
-			//System.out.println("~~~~parentFirstProb "+parentFirstProb);
 			//parentFirstProb between 0 and 100
-			int randInt = RAND_GEN.nextInt(TOTAL_PROB_100 + 1);
+			int randInt = rand.nextInt(TOTAL_PROB_100 + 1);
 			Pos childPos = dep.childPos();
 			if(childPos == this){
 				throw new IllegalArgumentException("child pos equal to this pos!");
 			}
-			String childPosStr = childPos.createSubTreePhrase();
-			//null if leaf node
-			List<PosType> childTreeList = childPos.subTreePosList();
-			
-			if(randInt < parentFirstProb){
-				//depList already sorted
-				//rightDepList.add(childPosStr);
-				rightSb.append(childPosStr).append(" ");
-				//null if leaf node
-				if(null == childTreeList) {
-					this.subTreePosList.add(childPos.posType());
-				}else {
-					this.subTreePosList.addAll(childPos.subTreePosList());
-				}
-				this.subTreeWordsList.addAll(childPos.subTreeWordsList);
-			}else{
-				//leftDepList.add(0, childPosStr);
-				leftSb.insert(0, " ").insert(0, childPosStr);
-				
-				if(null == childTreeList) {
-					this.subTreePosList.add(0, childPos.posType());
-				}else {
-					this.subTreePosList.addAll(0, childPos.subTreePosList());
-				}	
-				this.subTreeWordsList.addAll(0, childPos.subTreeWordsList);
-			}			
-		}	
+			childPos.followsParent = randInt < parentFirstProb;
+			subTreeSize += childPos.orderSubTree(rand);
+		}
+		return subTreeSize;
+	}
+	
+	/**
+	 * Appends subtree to lists in sentence order: children preceding this pos
+	 * in reverse of sorted order, so shortest dep is next to this pos, then this 
+	 * pos, then children following it in sorted order.
+	 * @param posList
+	 * @param wordsList
+	 */
+	private void emitSubTree(List<PosType> posList, List<String> wordsList) {
+		
+		this.arrangedPosList = posList;
+		this.arrangedWordsList = wordsList;
+		this.subTreeStart = posList.size();
 		
-		//this.subTreePosList = subTreePosList;
-		this.subTreePhrase = leftSb.toString() + this.posWord + " " + rightSb.toString();
-		return this.subTreePhrase;		
+		for(int i = this.childDepList.size()-1; i >= 0; i--) {
+			Pos childPos = this.childDepList.get(i).childPos();
+			if(!childPos.followsParent) {
+				childPos.emitSubTree(posList, wordsList);
+			}
+		}
+		posList.add(this.posType);
+		wordsList.add(this.posWord);
+		for(Dep dep : this.childDepList) {
+			Pos childPos = dep.childPos();
+			if(childPos.followsParent) {
+				childPos.emitSubTree(posList, wordsList);
+			}
+		}
+		this.subTreeEnd = posList.size();
+	}
+	
+	/**
+	 * Orders Dep's by avg parent-child distance, with some randomness.
+	 * @param rand
+	 * @return
+	 */
+	private static Comparator<Dep> depDistComparator(final RandomGenerator rand) {
+		return new Comparator<Dep>(){
+			public int compare(Dep dep1, Dep dep2){
+				//these dist are ~2.5 on avg, with std dev 2.5?
+				double dep1Dist = dep1.depType().parentChildDist();
+				double dep2Dist = dep2.depType().parentChildDist();
+				int comp = dep1Dist > dep2Dist ? 1 : (dep1Dist < dep2Dist ? -1 : 0);
+				
+				//introduce some randomness if distance difference is small.
+				//but this makes the compare non-transitive and non-symmetric!!
+				double diff;
+				if(comp > 0 && (diff=dep1Dist - dep2Dist) < 1 
+						|| comp < 0 && (diff=dep2Dist - dep1Dist) < 1){
+					int randInt = rand.nextInt(TOTAL_PROB_100);
+					if(randInt < 40//70*(1-diff)
+							){
+						comp = -comp;
+					}
+				}
+				return comp;
+			}
+		};
 	}
 	
 	/**
@@ -830,24 +1275,30 @@ public class Pos {
 	 * @return
 	 */
 	public static String arrangePosStr(Pos originPos) {
+		return arrangePosStr(originPos, GenerationContext.forCurrentThread());
+	}
+	
+	/**
+	 * Create sentence string from pos tree, the sentence arranged
+	 * based on avg distances in a Dep and left-right ordering.
+	 * @param originPos
+	 * @param context
+	 * @return
+	 */
+	public static String arrangePosStr(Pos originPos, GenerationContext context) {
 		
 		if(null == originPos) {
 			throw new IllegalArgumentException("originPos cannot be null!");
 		}
-		Pos curPos = originPos;
-		Pos prevPos = curPos;
-		curPos.createSubTreePhrase();
-		
-		Dep parentDep = curPos.parentDep;
-		
-		while(null != parentDep && (curPos = parentDep.parentPos()) != null) {			
-			curPos.createSubTreePhrase();
-			prevPos = curPos;			
-			parentDep = curPos.parentDep;
-			//get the parent
+		//arrange whole tree once from the root
+		Pos rootPos = originPos;
+		Dep parentDep = rootPos.parentDep;
+		while(null != parentDep && null != parentDep.parentPos()) {
+			rootPos = parentDep.parentPos();
+			parentDep = rootPos.parentDep;
 		}
 		
-		return prevPos.subTreePhrase;
+		return rootPos.createSubTreePhrase(context.rand());
 	}
 	
 	/**
@@ -879,15 +1330,40 @@ public class Pos {
 		return this.posType;
 	}
 	
+	/**
+	 * PosType's of subtree in sentence order, empty until arranged.
+	 * @return
+	 */
 	public List<PosType> subTreePosList(){
-		return this.subTreePosList;
+		if(null == this.arrangedPosList) {
+			return Collections.emptyList();
+		}
+		return this.arrangedPosList.subList(this.subTreeStart, this.subTreeEnd);
 	}
 	
+	/**
+	 * Words of subtree in sentence order, empty until arranged.
+	 * @return
+	 */
 	public List<String> subTreeWordsList(){
-		return this.subTreeWordsList;
+		if(null == this.arrangedWordsList) {
+			return Collections.emptyList();
+		}
+		return this.arrangedWordsList.subList(this.subTreeStart, this.subTreeEnd);
 	}
 	
+	/**
+	 * Phrase for subtree, null until arranged.
+	 * @return
+	 */
 	public String subTreePhrase() {
+		if(null == this.subTreePhrase && null != this.arrangedWordsList) {
+			StringBuilder sb = new StringBuilder((this.subTreeEnd - this.subTreeStart) << 3);
+			for(int i = this.subTreeStart; i < this.subTreeEnd; i++) {
+				sb.append(this.arrangedWordsList.get(i)).append(' ');
+			}
+			this.subTreePhrase = sb.toString();
+		}
 		return this.subTreePhrase;
 	}
 	
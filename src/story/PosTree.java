@@ -0,0 +1,652 @@
+package story;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+import story.Dep.DepType;
+import story.Pos.PosType;
+import story.Story.PosPCType;
+import utils.Lexicon;
+
+/**
+ * Compact sentence tree, nodes held in parallel arrays indexed by node,
+ * rather than as Pos and Dep objects. Node 0 is the origin Pos, and each
+ * node's parent has a smaller index than the node itself.
+ * Growth (Pos.createPosTree), arrangement into a sentence (arrange) and
+ * scoring (ScoreTree.computeTreeScore) run directly on these arrays,
+ * so a candidate tree costs a few small arrays. Words are held as Lexicon
+ * ids, and only turned into Strings for output. Use toPos() for the
+ * equivalent Pos tree. Confined to the thread that builds it.
+ * <p>
+ * Each subtree is sealed once fully grown: its word order is fixed, and
+ * the score factors of the adjacent pairs inside it are multiplied into 
+ * scoreBound(). As a sealed subtree is contiguous in the final sentence,
+ * and all factors are at most 1, scoreBound() bounds the final score 
+ * while the tree is still growing.
+ * <p>
+ * A summary of the nodes, the number of each PosType and the max depth, is
+ * kept up to date as nodes are added, so checks on a grown tree, e.g.
+ * containsVerb(), take constant time rather than walking it.
+ *
+ * @author yihed
+ *
+ */
+public class PosTree {
+
+	/**parent index of the origin, and end of sibling lists*/
+	public static final int NO_NODE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int TOTAL_PROB_100 = 100;
+	private static final PosType[] POS_TYPES = PosType.values();
+	private static final DepType[] DEP_TYPES = DepType.values();
+
+	/**PosType ordinal of each node*/
+	private byte[] posOrdinals;
+	/**Lexicon id of each node's word, Lexicon.NO_ID for an origin word not in the lexicon*/
+	private int[] wordIds;
+	/**origin word, if not in the lexicon*/
+	private String originWord;
+	private int[] parents;
+	/**DepType ordinal of relation to parent, NONE for origin*/
+	private byte[] depOrdinals;
+	/**distance to origin*/
+	private byte[] depths;
+	private byte[] childCounts;
+	//children of each node as linked list, in order added,
+	//reordered by seal().
+	private int[] firstChildren;
+	private int[] lastChildren;
+	private int[] nextSiblings;
+	private int size;
+	/**number of nodes of each PosType, by ordinal*/
+	private final int[] posTypeCounts;
+	private int maxDepth;
+
+	/**whether node's children are ordered, and scored*/
+	private boolean[] sealed;
+	/**whether node precedes its parent in sentence, set when parent sealed*/
+	private boolean[] precedesParent;
+	/**PosType ordinal of first and last word of sealed subtree*/
+	private byte[] firstPosOrdinals;
+	private byte[] lastPosOrdinals;
+	//scratch space for sorting children
+	private int[] scratch;
+	/**product of pair scores inside sealed subtrees, and sum of their logs*/
+	private double scoreBound = ScoreTree.MAX_TREE_SCORE;
+	private double logScoreBound;
+	/**whether growth was abandoned*/
+	private boolean pruned;
+
+	/**node indices in sentence order, null until arranged*/
+	private int[] order;
+	private String sentence;
+
+	/**
+	 * Copy of tree, to branch off from. Only unarranged trees can be copied.
+	 * @param tree
+	 */
+	PosTree(PosTree tree) {
+		if(null != tree.order) {
+			throw new IllegalStateException("Cannot copy tree already arranged.");
+		}
+		this.posOrdinals = tree.posOrdinals.clone();
+		this.wordIds = tree.wordIds.clone();
+		this.originWord = tree.originWord;
+		this.parents = tree.parents.clone();
+		this.depOrdinals = tree.depOrdinals.clone();
+		this.depths = tree.depths.clone();
+		this.childCounts = tree.childCounts.clone();
+		this.firstChildren = tree.firstChildren.clone();
+		this.lastChildren = tree.lastChildren.clone();
+		this.nextSiblings = tree.nextSiblings.clone();
+		this.sealed = tree.sealed.clone();
+		this.precedesParent = tree.precedesParent.clone();
+		this.firstPosOrdinals = tree.firstPosOrdinals.clone();
+		this.lastPosOrdinals = tree.lastPosOrdinals.clone();
+		this.scratch = new int[tree.scratch.length];
+		this.size = tree.size;
+		this.posTypeCounts = tree.posTypeCounts.clone();
+		this.maxDepth = tree.maxDepth;
+		this.scoreBound = tree.scoreBound;
+		this.logScoreBound = tree.logScoreBound;
+		this.pruned = tree.pruned;
+	}
+
+	/**
+	 * Tree with only the origin node.
+	 * @param originPosType
+	 * @param originWord need not be in the lexicon.
+	 */
+	PosTree(PosType originPosType, String originWord) {
+		this(originPosType, Story.lexicon().id(originWord));
+		if(Lexicon.NO_ID == wordIds[0]) {
+			this.originWord = originWord;
+		}
+	}
+
+	/**
+	 * Tree with only the origin node.
+	 * @param originPosType
+	 * @param originWordId Lexicon id of origin word.
+	 */
+	PosTree(PosType originPosType, int originWordId) {
+		this.posOrdinals = new byte[INITIAL_CAPACITY];
+		this.wordIds = new int[INITIAL_CAPACITY];
+		this.parents = new int[INITIAL_CAPACITY];
+		this.depOrdinals = new byte[INITIAL_CAPACITY];
+		this.depths = new byte[INITIAL_CAPACITY];
+		this.childCounts = new byte[INITIAL_CAPACITY];
+		this.firstChildren = new int[INITIAL_CAPACITY];
+		this.lastChildren = new int[INITIAL_CAPACITY];
+		this.nextSiblings = new int[INITIAL_CAPACITY];
+		this.sealed = new boolean[INITIAL_CAPACITY];
+		this.precedesParent = new boolean[INITIAL_CAPACITY];
+		this.firstPosOrdinals = new byte[INITIAL_CAPACITY];
+		this.lastPosOrdinals = new byte[INITIAL_CAPACITY];
+		this.scratch = new int[INITIAL_CAPACITY];
+		this.posTypeCounts = new int[POS_TYPES.length];
+		addNode(NO_NODE, DepType.NONE, originPosType, originWordId);
+	}
+
+	/**
+	 * Adds child to given parent node.
+	 * @param parent
+	 * @param depType relation between parent and child
+	 * @param posType
+	 * @param wordId Lexicon id of child's word.
+	 * @return index of child.
+	 */
+	int addChild(int parent, DepType depType, PosType posType, int wordId) {
+		if(parent < 0 || parent >= size) {
+			throw new IllegalArgumentException("parent node out of range: " + parent);
+		}
+		if(sealed[parent]) {
+			throw new IllegalStateException("Cannot add to sealed node: " + parent);
+		}
+		return addNode(parent, depType, posType, wordId);
+	}
+
+	private int addNode(int parent, DepType depType, PosType posType, int wordId) {
+		if(size == posOrdinals.length) {
+			grow();
+		}
+		int node = size++;
+		posOrdinals[node] = (byte)posType.ordinal();
+		wordIds[node] = wordId;
+		parents[node] = parent;
+		depOrdinals[node] = (byte)depType.ordinal();
+		firstChildren[node] = NO_NODE;
+		lastChildren[node] = NO_NODE;
+		nextSiblings[node] = NO_NODE;
+		posTypeCounts[posType.ordinal()]++;
+		if(NO_NODE != parent) {
+			depths[node] = (byte)(depths[parent] + 1);
+			maxDepth = Math.max(maxDepth, depths[node]);
+			if(NO_NODE == lastChildren[parent]) {
+				firstChildren[parent] = node;
+			}else {
+				nextSiblings[lastChildren[parent]] = node;
+			}
+			lastChildren[parent] = node;
+			childCounts[parent]++;
+		}
+		return node;
+	}
+
+	private void grow() {
+		int capacity = posOrdinals.length << 1;
+		posOrdinals = Arrays.copyOf(posOrdinals, capacity);
+		wordIds = Arrays.copyOf(wordIds, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		depOrdinals = Arrays.copyOf(depOrdinals, capacity);
+		depths = Arrays.copyOf(depths, capacity);
+		childCounts = Arrays.copyOf(childCounts, capacity);
+		firstChildren = Arrays.copyOf(firstChildren, capacity);
+		lastChildren = Arrays.copyOf(lastChildren, capacity);
+		nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+		sealed = Arrays.copyOf(sealed, capacity);
+		precedesParent = Arrays.copyOf(precedesParent, capacity);
+		firstPosOrdinals = Arrays.copyOf(firstPosOrdinals, capacity);
+		lastPosOrdinals = Arrays.copyOf(lastPosOrdinals, capacity);
+		scratch = Arrays.copyOf(scratch, capacity);
+	}
+
+	/**
+	 * Arrange tree into a sentence, based on avg distances in a Dep and
+	 * left-right ordering, same as Pos.arrangePosStr. Nodes not yet sealed
+	 * are sealed first. Only arranged once, later calls return the same sentence.
+	 * @param rand
+	 * @return
+	 */
+	public String arrange(RandomGenerator rand) {
+		if(null != this.sentence) {
+			return this.sentence;
+		}
+		if(pruned) {
+			throw new IllegalStateException("Cannot arrange pruned tree.");
+		}
+		//children have larger indices than parents, so this seals bottom-up
+		for(int node = size-1; node >= 0; node--) {
+			if(!sealed[node]) {
+				seal(node, rand);
+			}
+		}
+
+		this.order = new int[size];
+		int len = emit(0, 0);
+		assert len == size;
+
+		Lexicon lexicon = Story.lexicon();
+		StringBuilder sb = new StringBuilder(size << 3);
+		for(int i = 0; i < size; i++) {
+			int wordId = wordIds[order[i]];
+			if(Lexicon.NO_ID == wordId) {
+				sb.append(originWord);
+			}else {
+				lexicon.appendWord(sb, wordId);
+			}
+			sb.append(' ');
+		}
+		this.sentence = sb.toString();
+		return this.sentence;
+	}
+
+	/**
+	 * Seals subtree of node, whose children must all be sealed: sorts 
+	 * children by dep distance, decides which side of node each goes on, 
+	 * same as Pos.createSubTreePhrase, and multiplies the scores of the 
+	 * pairs where child subtrees and node meet into scoreBound().
+	 * No more children can be added to node after.
+	 * @param node
+	 * @param rand
+	 */
+	void seal(int node, RandomGenerator rand) {
+		if(sealed[node]) {
+			throw new IllegalStateException("Node already sealed: " + node);
+		}
+		int childCount = 0;
+		for(int child = firstChildren[node]; NO_NODE != child; child = nextSiblings[child]) {
+			if(!sealed[child]) {
+				throw new IllegalStateException("Children must be sealed before parent: " + child);
+			}
+			scratch[childCount++] = child;
+		}
+		sealed[node] = true;
+		byte posOrdinal = posOrdinals[node];
+		if(0 == childCount) {
+			firstPosOrdinals[node] = posOrdinal;
+			lastPosOrdinals[node] = posOrdinal;
+			return;
+		}
+		//insertion sort, few children per node
+		for(int i = 1; i < childCount; i++) {
+			int child = scratch[i];
+			int j = i - 1;
+			while(j >= 0 && compareChildren(scratch[j], child, rand) > 0) {
+				scratch[j+1] = scratch[j];
+				j--;
+			}
+			scratch[j+1] = child;
+		}
+		//relink in sorted order
+		firstChildren[node] = scratch[0];
+		for(int i = 0; i < childCount-1; i++) {
+			nextSiblings[scratch[i]] = scratch[i+1];
+		}
+		nextSiblings[scratch[childCount-1]] = NO_NODE;
+		lastChildren[node] = scratch[childCount-1];
+
+		for(int i = 0; i < childCount; i++) {
+			int child = scratch[i];
+			//parentFirstProb between 0 and 100
+			int randInt = rand.nextInt(TOTAL_PROB_100 + 1);
+			precedesParent[child] = randInt >= DEP_TYPES[depOrdinals[child]].parentFirstProb();
+		}
+
+		//score pairs where pieces meet, in sentence order
+		double score = 1;
+		double logScore = 0;
+		byte last = -1;
+		for(int i = childCount-1; i >= 0; i--) {
+			int child = scratch[i];
+			if(precedesParent[child]) {
+				if(last < 0) {
+					firstPosOrdinals[node] = firstPosOrdinals[child];
+				}else {
+					score *= ScoreTree.getTypePairScore(last, firstPosOrdinals[child]);
+					logScore += ScoreTree.logTypePairScore(last, firstPosOrdinals[child]);
+				}
+				last = lastPosOrdinals[child];
+			}
+		}
+		if(last < 0) {
+			firstPosOrdinals[node] = posOrdinal;
+		}else {
+			score *= ScoreTree.getTypePairScore(last, posOrdinal);
+			logScore += ScoreTree.logTypePairScore(last, posOrdinal);
+		}
+		last = posOrdinal;
+		for(int i = 0; i < childCount; i++) {
+			int child = scratch[i];
+			if(!precedesParent[child]) {
+				score *= ScoreTree.getTypePairScore(last, firstPosOrdinals[child]);
+				logScore += ScoreTree.logTypePairScore(last, firstPosOrdinals[child]);
+				last = lastPosOrdinals[child];
+			}
+		}
+		lastPosOrdinals[node] = last;
+		this.scoreBound *= score;
+		this.logScoreBound += logScore;
+	}
+
+	/**
+	 * Seals node if all its children are sealed, then its ancestors in
+	 * turn while their subtrees are complete. Node must not get any
+	 * more children, e.g. have been expanded already.
+	 * @param node
+	 * @param rand
+	 */
+	void sealIfComplete(int node, RandomGenerator rand) {
+		while(NO_NODE != node && !sealed[node]) {
+			for(int child = firstChildren[node]; NO_NODE != child; child = nextSiblings[child]) {
+				if(!sealed[child]) {
+					return;
+				}
+			}
+			seal(node, rand);
+			node = parents[node];
+		}
+	}
+
+	/**
+	 * Same ordering as Pos.depDistComparator, including the
+	 * random swaps when distances are close.
+	 */
+	private int compareChildren(int child1, int child2, RandomGenerator rand) {
+		//these dist are ~2.5 on avg, with std dev 2.5?
+		double dep1Dist = DEP_TYPES[depOrdinals[child1]].parentChildDist();
+		double dep2Dist = DEP_TYPES[depOrdinals[child2]].parentChildDist();
+		int comp = dep1Dist > dep2Dist ? 1 : (dep1Dist < dep2Dist ? -1 : 0);
+		if(comp > 0 && dep1Dist - dep2Dist < 1
+				|| comp < 0 && dep2Dist - dep1Dist < 1){
+			if(rand.nextInt(TOTAL_PROB_100) < 40) {
+				comp = -comp;
+			}
+		}
+		return comp;
+	}
+
+	/**
+	 * Writes subtree of node into order, starting at position.
+	 * Children preceding node are written in reverse of their sorted order,
+	 * so the shortest dep ends up next to node, followed by node, then the
+	 * following children in sorted order.
+	 * @return position after subtree.
+	 */
+	private int emit(int node, int position) {
+		position = emitPreceding(firstChildren[node], position);
+		order[position++] = node;
+		for(int child = firstChildren[node]; NO_NODE != child; child = nextSiblings[child]) {
+			if(!precedesParent[child]) {
+				position = emit(child, position);
+			}
+		}
+		return position;
+	}
+
+	private int emitPreceding(int child, int position) {
+		if(NO_NODE == child) {
+			return position;
+		}
+		position = emitPreceding(nextSiblings[child], position);
+		if(precedesParent[child]) {
+			position = emit(child, position);
+		}
+		return position;
+	}
+
+	/**
+	 * Upper bound on the final score: product of the pair scores inside
+	 * sealed subtrees. Equals the final score without the sentence boundary
+	 * pairs once the whole tree is sealed.
+	 * @return
+	 */
+	public double scoreBound() {
+		return this.scoreBound;
+	}
+
+	/**
+	 * Log of scoreBound(), summed rather than multiplied, so doesn't
+	 * underflow for large trees.
+	 * @return
+	 */
+	public double logScoreBound() {
+		return this.logScoreBound;
+	}
+
+	/**
+	 * Marks growth as abandoned, the tree can no longer be arranged.
+	 */
+	void prune() {
+		this.pruned = true;
+	}
+
+	public boolean isPruned() {
+		return this.pruned;
+	}
+
+	/**
+	 * PosType of first word in sentence.
+	 * @return
+	 */
+	public PosType firstPosType() {
+		checkArranged();
+		return POS_TYPES[firstPosOrdinals[0]];
+	}
+
+	/**
+	 * PosType of last word in sentence.
+	 * @return
+	 */
+	public PosType lastPosType() {
+		checkArranged();
+		return POS_TYPES[lastPosOrdinals[0]];
+	}
+
+	private void checkArranged() {
+		if(null == order) {
+			throw new IllegalStateException("Tree has not been arranged yet.");
+		}
+	}
+
+	/**
+	 * Number of nodes, i.e. words.
+	 * @return
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public PosType posType(int node) {
+		return POS_TYPES[posOrdinals[node]];
+	}
+
+	/**
+	 * Word of node, as new String unless the origin word is not in the lexicon.
+	 * @param node
+	 * @return
+	 */
+	public String word(int node) {
+		int wordId = this.wordIds[node];
+		return Lexicon.NO_ID == wordId ? this.originWord : Story.lexicon().word(wordId);
+	}
+
+	/**
+	 * @param node
+	 * @return Lexicon id of node's word, Lexicon.NO_ID if origin word not in the lexicon.
+	 */
+	public int wordId(int node) {
+		return this.wordIds[node];
+	}
+
+	/**
+	 * @param node
+	 * @return parent node, NO_NODE for origin.
+	 */
+	public int parent(int node) {
+		return this.parents[node];
+	}
+
+	/**
+	 * Relation of node to its parent, NONE for origin.
+	 * @param node
+	 * @return
+	 */
+	public DepType depType(int node) {
+		return DEP_TYPES[depOrdinals[node]];
+	}
+
+	/**
+	 * Distance to origin.
+	 * @param node
+	 * @return
+	 */
+	public int depth(int node) {
+		return this.depths[node];
+	}
+
+	public int childCount(int node) {
+		return this.childCounts[node];
+	}
+
+	/**
+	 * @param node
+	 * @return first child of node, NO_NODE if none.
+	 */
+	public int firstChild(int node) {
+		return this.firstChildren[node];
+	}
+
+	/**
+	 * @param node
+	 * @return next sibling of node, NO_NODE if none.
+	 */
+	public int nextSibling(int node) {
+		return this.nextSiblings[node];
+	}
+
+	/**
+	 * Whether every node has been sealed.
+	 * @return
+	 */
+	public boolean isSealed() {
+		return this.sealed[0];
+	}
+
+	/**
+	 * PosType at position in the sentence.
+	 * @param position
+	 * @return
+	 */
+	public PosType posTypeAt(int position) {
+		checkArranged();
+		return POS_TYPES[posOrdinals[order[position]]];
+	}
+
+	/**
+	 * Sentence, null until arranged.
+	 * @return
+	 */
+	public String sentence() {
+		return this.sentence;
+	}
+
+	/**
+	 * PosType's in sentence order.
+	 * @return
+	 */
+	public List<PosType> posTypeList(){
+		checkArranged();
+		List<PosType> posTypeList = new ArrayList<PosType>(size);
+		for(int i = 0; i < size; i++) {
+			posTypeList.add(POS_TYPES[posOrdinals[order[i]]]);
+		}
+		return posTypeList;
+	}
+
+	/**
+	 * Words in sentence order.
+	 * @return
+	 */
+	public List<String> wordsList(){
+		checkArranged();
+		List<String> wordsList = new ArrayList<String>(size);
+		for(int i = 0; i < size; i++) {
+			wordsList.add(word(order[i]));
+		}
+		return wordsList;
+	}
+
+	/**
+	 * If tree contains a VERB, or AUX (e.g. is, has, are).
+	 * @return
+	 */
+	public boolean containsVerb() {
+		return posTypeCounts[PosType.VERB.ordinal()] > 0 || posTypeCounts[PosType.AUX.ordinal()] > 0;
+	}
+
+	/**
+	 * Number of nodes of posType.
+	 * @param posType
+	 * @return
+	 */
+	public int posTypeCount(PosType posType) {
+		return this.posTypeCounts[posType.ordinal()];
+	}
+
+	public boolean containsPosType(PosType posType) {
+		return this.posTypeCounts[posType.ordinal()] > 0;
+	}
+
+	/**
+	 * Greatest distance of a node to origin.
+	 * @return
+	 */
+	public int maxDepth() {
+		return this.maxDepth;
+	}
+
+	/**
+	 * Equivalent tree of Pos and Dep objects, children in sibling order,
+	 * i.e. as added, or as sorted if sealed.
+	 * @return the origin Pos.
+	 */
+	public Pos toPos() {
+		Pos[] posAr = new Pos[size];
+		for(int node = 0; node < size; node++) {
+			Pos pos = new Pos(posType(node), word(node), depths[node]);
+			posAr[node] = pos;
+			int parent = parents[node];
+			if(NO_NODE != parent) {
+				Dep dep = new Dep(depType(node), posAr[parent], pos);
+				pos.addDep(dep, PosPCType.CHILD);
+				posAr[parent].addDep(dep, PosPCType.PARENT);
+			}
+		}
+		return posAr[0];
+	}
+
+	@Override
+	public String toString() {
+		if(null != this.sentence) {
+			return this.sentence;
+		}
+		String[] words = new String[size];
+		for(int node = 0; node < size; node++) {
+			words[node] = word(node);
+		}
+		return Arrays.toString(words);
+	}
+}
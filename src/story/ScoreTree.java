@@ -17,6 +17,10 @@ public class ScoreTree {
 	public static final double MAX_TREE_SCORE = 1.;
 	//default score for same PosType's in a row, used unless explicit score specified.
 	public static final double DUPLICATE_SCORE = 0.8;
+	/**pair scores indexed by PosType ordinals, compiled from posTypeScoreMap and the
+	 * default rules, and their logs, for summing scores of long sentences*/
+	private static final double[][] typePairScores;
+	private static final double[][] logTypePairScores;
 	
 	static {
 		posTypeScoreMap = new HashMap<PosType, Map<PosType, Double>>();
@@ -120,6 +124,23 @@ public class ScoreTree {
 		//"2 splice"
 		addToPosTypeScoreMap(PosType.NUM, PosType.VERB, 0.7);
 		
+		PosType[] posTypes = PosType.values();
+		typePairScores = new double[posTypes.length][posTypes.length];
+		logTypePairScores = new double[posTypes.length][posTypes.length];
+		for(PosType type1 : posTypes) {
+			for(PosType type2 : posTypes) {
+				double score = lookupTypePairScore(type1, type2);
+				typePairScores[type1.ordinal()][type2.ordinal()] = score;
+				logTypePairScores[type1.ordinal()][type2.ordinal()] = Math.log(score);
+			}
+		}
+	}
+	
+	/**
+	 * Initializes the scoring tables, if not yet, which are otherwise
+	 * initialized on first use.
+	 */
+	static void load() {
 	}
 	
 	/**
@@ -139,7 +160,13 @@ public class ScoreTree {
 		posMap.put(type2, score);		
 	}
 	
-	private static double getTypePairScore(PosType type1, PosType type2) {
+	/**
+	 * Score of pair from posTypeScoreMap, or default score if not in map.
+	 * @param type1
+	 * @param type2
+	 * @return
+	 */
+	private static double lookupTypePairScore(PosType type1, PosType type2) {
 		
 		Map<PosType, Double> posMap = posTypeScoreMap.get(type1);
 		if(null == posMap) {		
@@ -162,6 +189,46 @@ public class ScoreTree {
 		return score;		
 	}
 	
+	/**
+	 * Score for type2 immediately following type1, between 0 and MAX_TREE_SCORE.
+	 * @param type1
+	 * @param type2
+	 * @return
+	 */
+	public static double getTypePairScore(PosType type1, PosType type2) {
+		return typePairScores[type1.ordinal()][type2.ordinal()];
+	}
+	
+	/**
+	 * Score for pair, by PosType ordinals.
+	 * @param ordinal1
+	 * @param ordinal2
+	 * @return
+	 */
+	static double getTypePairScore(int ordinal1, int ordinal2) {
+		return typePairScores[ordinal1][ordinal2];
+	}
+	
+	/**
+	 * Log of score for type2 immediately following type1, at most 0.
+	 * @param type1
+	 * @param type2
+	 * @return
+	 */
+	public static double logTypePairScore(PosType type1, PosType type2) {
+		return logTypePairScores[type1.ordinal()][type2.ordinal()];
+	}
+	
+	/**
+	 * Log of score for pair, by PosType ordinals.
+	 * @param ordinal1
+	 * @param ordinal2
+	 * @return
+	 */
+	static double logTypePairScore(int ordinal1, int ordinal2) {
+		return logTypePairScores[ordinal1][ordinal2];
+	}
+	
 	/**
 	 * Compute score based on adjacent PosTypes.
 	 * @return
@@ -173,15 +240,78 @@ public class ScoreTree {
 		if(posTypeListSz == 0) {
 			return MAX_TREE_SCORE;
 		}
-		double treeScore = initialScore * getTypePairScore(PosType.NONE, posTypeList.get(0));
+		int prevOrdinal = posTypeList.get(0).ordinal();
+		double treeScore = initialScore * typePairScores[PosType.NONE.ordinal()][prevOrdinal];
 		
-		for(int i = 0; i < posTypeListSz-1; i++) {
-			treeScore *= getTypePairScore(posTypeList.get(i), posTypeList.get(i+1));
+		for(int i = 1; i < posTypeListSz; i++) {
+			int ordinal = posTypeList.get(i).ordinal();
+			treeScore *= typePairScores[prevOrdinal][ordinal];
+			prevOrdinal = ordinal;
 		}
 		
-		treeScore *= getTypePairScore(posTypeList.get(posTypeListSz-1), PosType.NONE);
+		treeScore *= typePairScores[prevOrdinal][PosType.NONE.ordinal()];
 		
 		return treeScore;
 	}
 	
+	/**
+	 * Log of score based on adjacent PosTypes, summed rather than
+	 * multiplied, so doesn't underflow for long sentences.
+	 * @param posTypeList PosType's in sentence order.
+	 * @param initialScore
+	 * @return
+	 */
+	public static double computeLogScore(List<PosType> posTypeList, double initialScore) {
+		int posTypeListSz = posTypeList.size();
+		
+		if(posTypeListSz == 0) {
+			return Math.log(MAX_TREE_SCORE);
+		}
+		int prevOrdinal = posTypeList.get(0).ordinal();
+		double logScore = Math.log(initialScore) + logTypePairScores[PosType.NONE.ordinal()][prevOrdinal];
+		
+		for(int i = 1; i < posTypeListSz; i++) {
+			int ordinal = posTypeList.get(i).ordinal();
+			logScore += logTypePairScores[prevOrdinal][ordinal];
+			prevOrdinal = ordinal;
+		}
+		
+		logScore += logTypePairScores[prevOrdinal][PosType.NONE.ordinal()];
+		
+		return logScore;
+	}
+	
+	/**
+	 * Compute score based on adjacent PosTypes, for arranged tree. 
+	 * Pairs inside the tree were already scored as its subtrees were sealed,
+	 * so only the sentence boundary pairs remain.
+	 * @param tree
+	 * @param initialScore
+	 * @return
+	 */
+	public static double computeTreeScore(PosTree tree, double initialScore) {
+		
+		double treeScore = initialScore * getTypePairScore(PosType.NONE, tree.firstPosType());
+		treeScore *= tree.scoreBound();
+		treeScore *= getTypePairScore(tree.lastPosType(), PosType.NONE);
+		
+		return treeScore;
+	}
+	
+	/**
+	 * Log of score based on adjacent PosTypes, for arranged tree, 
+	 * summed from the log pair scores gathered as subtrees were sealed.
+	 * @param tree
+	 * @param initialScore
+	 * @return
+	 */
+	public static double computeTreeLogScore(PosTree tree, double initialScore) {
+		
+		double logScore = Math.log(initialScore) + logTypePairScore(PosType.NONE, tree.firstPosType());
+		logScore += tree.logScoreBound();
+		logScore += logTypePairScore(tree.lastPosType(), PosType.NONE);
+		
+		return logScore;
+	}
+	
 }
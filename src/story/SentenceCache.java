@@ -0,0 +1,268 @@
+package story;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import story.Pos.PosType;
+import story.Story.SearchStrategy;
+
+/**
+ * Cache in front of a SentenceGenerator, for repeated requests with the
+ * same PosType and/or word. Keeps the sentencesPerKey top scoring sentences
+ * per key: the first CANDIDATES_PER_SENTENCE * sentencesPerKey requests for 
+ * a key each generate a sentence, served to that request, and the best of 
+ * these are kept. Later requests rotate among them, so popular keys are 
+ * served without generation but don't always get the same sentence, while 
+ * misses cost one generation, as without the cache. Bounded by number of keys, least
+ * recently used evicted first, and keys expire ttl after being added, so
+ * they are regenerated periodically. Thread-safe.
+ *
+ * @author yihed
+ *
+ */
+public class SentenceCache {
+
+	public static final long DEFAULT_MAX_KEYS = 10000;
+	public static final int DEFAULT_SENTENCES_PER_KEY = 4;
+	public static final long DEFAULT_TTL_MINUTES = 10;
+	/**sentences generated for a key per sentence kept*/
+	public static final int CANDIDATES_PER_SENTENCE = 2;
+
+	private final SentenceGenerator generator;
+	private final int sentencesPerKey;
+	private final Cache<Key, Entry> cache;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Request a sentence is cached under. tell distinguishes TellStory requests
+	 * from Story requests with the same word.
+	 */
+	private static final class Key{
+
+		private final PosType posType;
+		private final String word;
+		private final SearchStrategy strategy;
+		private final boolean tell;
+
+		Key(PosType posType_, String word_, SearchStrategy strategy_, boolean tell_){
+			this.posType = posType_;
+			this.word = word_;
+			this.strategy = strategy_;
+			this.tell = tell_;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Key)) {
+				return false;
+			}
+			Key otherKey = (Key)other;
+			return posType == otherKey.posType && strategy == otherKey.strategy && tell == otherKey.tell
+					&& Objects.equals(word, otherKey.word);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(posType, word, strategy, tell);
+		}
+	}
+
+	/**
+	 * Top scoring sentences of a key, highest first, rotated through once 
+	 * enough candidates have been added.
+	 */
+	private static final class Entry{
+
+		private final GeneratedSentence[] sentences;
+		private final int candidateCount;
+		//guarded by this
+		private int size;
+		private int addedCount;
+		private int nextIndex;
+
+		/**
+		 * @param capacity number of sentences kept.
+		 * @param candidateCount_ number of sentences added before rotating.
+		 */
+		Entry(int capacity, int candidateCount_){
+			this.sentences = new GeneratedSentence[capacity];
+			this.candidateCount = candidateCount_;
+		}
+
+		/**
+		 * @return next sentence in rotation, or null if not enough candidates added yet.
+		 */
+		synchronized GeneratedSentence nextSentence() {
+			if(addedCount < candidateCount) {
+				return null;
+			}
+			GeneratedSentence sentence = sentences[nextIndex];
+			nextIndex = (nextIndex + 1) % size;
+			return sentence;
+		}
+
+		/**
+		 * Keeps sentence if among the top scoring ones, replacing the lowest if full.
+		 * Concurrent misses can add more than candidateCount.
+		 * @param sentence
+		 */
+		synchronized void add(GeneratedSentence sentence) {
+			addedCount++;
+			int index;
+			if(size < sentences.length) {
+				index = size++;
+			}else if(sentence.score() > sentences[size-1].score()) {
+				index = size-1;
+			}else {
+				return;
+			}
+			//insertion into order by descending score
+			while(index > 0 && sentences[index-1].score() < sentence.score()) {
+				sentences[index] = sentences[index-1];
+				index--;
+			}
+			sentences[index] = sentence;
+		}
+	}
+
+	public SentenceCache(SentenceGenerator generator_) {
+		this(generator_, DEFAULT_MAX_KEYS, DEFAULT_SENTENCES_PER_KEY, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param generator_
+	 * @param maxKeys max number of keys kept, least recently used evicted first.
+	 * @param sentencesPerKey_ number of top scoring sentences kept, and rotated through, per key.
+	 * @param ttl time after which a key is dropped, and regenerated on the next request.
+	 * @param ttlUnit
+	 */
+	public SentenceCache(SentenceGenerator generator_, long maxKeys, int sentencesPerKey_, long ttl,
+			TimeUnit ttlUnit) {
+		if(null == generator_) {
+			throw new IllegalArgumentException("generator cannot be null.");
+		}
+		if(maxKeys < 1 || sentencesPerKey_ < 1 || ttl < 1) {
+			throw new IllegalArgumentException("maxKeys, sentencesPerKey and ttl must be positive.");
+		}
+		this.generator = generator_;
+		this.sentencesPerKey = sentencesPerKey_;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxKeys)
+				.expireAfterWrite(ttl, ttlUnit)
+				.removalListener(notification -> {
+					if(notification.wasEvicted()) {
+						evictionCount.increment();
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * Sentence from given posType and/or word, as SentenceGenerator.generate.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param strategy
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord, SearchStrategy strategy) {
+		Entry entry = entry(new Key(posType, posTypeWord, strategy, false));
+		GeneratedSentence sentence = entry.nextSentence();
+		if(null != sentence) {
+			hitCount.increment();
+			return sentence;
+		}
+		missCount.increment();
+		sentence = generator.generate(posType, posTypeWord, strategy);
+		entry.add(sentence);
+		return sentence;
+	}
+
+	/**
+	 * Sentence containing word, as SentenceGenerator.tell.
+	 * @param word
+	 * @return null if word is not in the vocabulary, or no sentence
+	 * can be grown from any of its PosType's.
+	 */
+	public GeneratedSentence tell(String word) {
+		//any pos of word, see Story.posAnchors, not just the first one in the lexicon
+		if(Story.posAnchors(word).isEmpty()) {
+			return null;
+		}
+		Entry entry = entry(new Key(null, word, null, true));
+		GeneratedSentence sentence = entry.nextSentence();
+		if(null != sentence) {
+			hitCount.increment();
+			return sentence;
+		}
+		missCount.increment();
+		sentence = generator.tell(word);
+		if(null != sentence) {
+			entry.add(sentence);
+		}
+		return sentence;
+	}
+
+	private Entry entry(Key key) {
+		try {
+			return cache.get(key, () -> new Entry(sentencesPerKey, sentencesPerKey * CANDIDATES_PER_SENTENCE));
+		}catch(ExecutionException e) {
+			//creating an Entry doesn't throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public SentenceGenerator generator() {
+		return this.generator;
+	}
+
+	/**
+	 * Number of requests served from the cache.
+	 * @return
+	 */
+	public long hitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Number of requests that generated a sentence.
+	 * @return
+	 */
+	public long missCount() {
+		return missCount.sum();
+	}
+
+	public double hitRate() {
+		long hits = hitCount.sum();
+		long requests = hits + missCount.sum();
+		return requests == 0 ? 0 : hits / (double)requests;
+	}
+
+	/**
+	 * Number of keys evicted, for size or expiry.
+	 * @return
+	 */
+	public long evictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Approximate number of keys cached.
+	 * @return
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d keys, %d hits, %d misses (hit rate %.3f), %d evictions",
+				size(), hitCount(), missCount(), hitRate(), evictionCount());
+	}
+}
@@ -0,0 +1,133 @@
+package story;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * Drops repeated sentences from bulk generation, e.g. short sentences of
+ * common words. Sentences are looked up in Bloom filters of the ones seen
+ * so far, hashed by their chars, so memory doesn't grow with the number of
+ * sentences. A false positive drops a sentence that was not seen, with
+ * probability at most falsePositiveRate.
+ * To bound memory for runs of any length, there are two filters, each sized
+ * for capacity sentences: new ones go in the current filter, and once it
+ * holds capacity, it becomes the previous filter, replacing the oldest. So
+ * repeats are caught within the last capacity to 2*capacity distinct sentences,
+ * and sentences repeated within that window are kept in it. E.g. the default
+ * capacity and rate take about 40MB.
+ * Duplicates are counted, and recorded in GenerationMetrics. Thread-safe.
+ *
+ * @author yihed
+ *
+ */
+public class SentenceDeduplicator {
+
+	public static final long DEFAULT_CAPACITY = 10_000_000;
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	private final long capacity;
+	private final double filterFalsePositiveRate;
+	private final GenerationMetrics metrics;
+	private BloomFilter<CharSequence> currentFilter;
+	//null until the first filter is full
+	private BloomFilter<CharSequence> previousFilter;
+	//sentences put in currentFilter
+	private long currentCount;
+	private final LongAdder sentenceCount = new LongAdder();
+	private final LongAdder duplicateCount = new LongAdder();
+
+	/**
+	 * Deduplicator with DEFAULT_CAPACITY and DEFAULT_FALSE_POSITIVE_RATE, recording
+	 * into the shared GenerationMetrics.
+	 */
+	public SentenceDeduplicator() {
+		this(DEFAULT_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE, GenerationMetrics.shared());
+	}
+
+	/**
+	 * @param capacity_ number of distinct sentences each filter is sized for.
+	 * @param falsePositiveRate_ max probability of dropping a sentence not seen.
+	 * @param metrics_ metrics the duplicates are recorded into.
+	 */
+	public SentenceDeduplicator(long capacity_, double falsePositiveRate_, GenerationMetrics metrics_) {
+		if(capacity_ < 1) {
+			throw new IllegalArgumentException("capacity must be positive.");
+		}
+		if(!(falsePositiveRate_ > 0 && falsePositiveRate_ < 1)) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1.");
+		}
+		if(null == metrics_) {
+			throw new IllegalArgumentException("metrics cannot be null.");
+		}
+		this.capacity = capacity_;
+		//a sentence is checked against both filters
+		this.filterFalsePositiveRate = falsePositiveRate_ / 2;
+		this.metrics = metrics_;
+		this.currentFilter = createFilter();
+	}
+
+	private BloomFilter<CharSequence> createFilter() {
+		return BloomFilter.create(Funnels.unencodedCharsFunnel(), capacity, filterFalsePositiveRate);
+	}
+
+	/**
+	 * Adds sentence, unless seen before.
+	 * @param sentence
+	 * @return whether sentence is new, i.e. to be kept.
+	 */
+	public boolean add(CharSequence sentence) {
+		boolean duplicate;
+		synchronized(this) {
+			boolean inCurrent = currentFilter.mightContain(sentence);
+			duplicate = inCurrent || (null != previousFilter && previousFilter.mightContain(sentence));
+			if(!inCurrent) {
+				//also sentences of previous filter, so those repeated stay in the window
+				currentFilter.put(sentence);
+				if(++currentCount >= capacity) {
+					previousFilter = currentFilter;
+					currentFilter = createFilter();
+					currentCount = 0;
+				}
+			}
+		}
+		sentenceCount.increment();
+		if(duplicate) {
+			duplicateCount.increment();
+		}
+		metrics.recordDeduplication(duplicate);
+		return !duplicate;
+	}
+
+	/**
+	 * Number of sentences added, including duplicates.
+	 * @return
+	 */
+	public long sentenceCount() {
+		return sentenceCount.sum();
+	}
+
+	public long duplicateCount() {
+		return duplicateCount.sum();
+	}
+
+	/**
+	 * Fraction of sentences added that were duplicates.
+	 * @return 0 if none added.
+	 */
+	public double duplicateRate() {
+		long sentences = sentenceCount.sum();
+		return sentences == 0 ? 0 : duplicateCount.sum() / (double)sentences;
+	}
+
+	public long capacity() {
+		return this.capacity;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d sentences, %d duplicates (rate %.4f)", sentenceCount(), duplicateCount(),
+				duplicateRate());
+	}
+}
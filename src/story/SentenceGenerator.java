@@ -0,0 +1,665 @@
+package story;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import story.Pos.PosType;
+import story.Story.SearchStrategy;
+
+/**
+ * Sentence generator instance that can be shared across threads. 
+ * The model tables are read-only after class initialization, and each 
+ * thread draws from its own SplittableRandom stream, split off a root 
+ * stream once per thread, so calls neither share nor contend on state.
+ * Trees returned are confined to the calling thread.
+ * Each call generates from its own seed, drawn from the thread's stream
+ * unless given, and carried on the GeneratedSentence, so any output can
+ * be replayed by calling again with the same arguments and that seed.
+ * Batch and stream items are seeded by their index from one base seed, 
+ * so their outputs don't depend on which thread generated them.
+ * Batches and streams can drop repeated sentences through a SentenceDeduplicator.
+ *
+ * @author yihed
+ *
+ */
+public class SentenceGenerator {
+
+	//number of chunks per worker thread a batch is split into, for load balancing,
+	//as sentences vary widely in the number of trees they take.
+	private static final int BATCH_CHUNKS_PER_THREAD = 8;
+	//golden ratio increment and mix constants of SplitMix64
+	private static final long SEED_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final long SEED_MIX_1 = 0xbf58476d1ce4e5b9L;
+	private static final long SEED_MIX_2 = 0x94d049bb133111ebL;
+	
+	//root stream, only touched once per thread to split off that thread's stream.
+	private final SplittableRandom rootRandom;
+	private final ThreadLocal<SplittableRandom> threadRandom;
+	private final GenerationTracer tracer;
+	private final GenerationMetrics metrics;
+	
+	public SentenceGenerator() {
+		this(GenerationTracer.NO_OP);
+	}
+	
+	/**
+	 * @param tracer sink for trace messages, shared by all threads.
+	 */
+	public SentenceGenerator(GenerationTracer tracer) {
+		this(new SplittableRandom().nextLong(), tracer);
+	}
+	
+	/**
+	 * @param seed seed of the root stream which the per-thread streams are split from.
+	 */
+	public SentenceGenerator(long seed) {
+		this(seed, GenerationTracer.NO_OP);
+	}
+	
+	/**
+	 * @param seed seed of the root stream which the per-thread streams are split from.
+	 * @param tracer sink for trace messages, shared by all threads.
+	 */
+	public SentenceGenerator(long seed, GenerationTracer tracer) {
+		this(seed, tracer, GenerationMetrics.shared());
+	}
+	
+	/**
+	 * @param seed seed of the root stream which the per-thread streams are split from.
+	 * @param tracer sink for trace messages, shared by all threads.
+	 * @param metrics metrics generation is recorded into, rather than the shared ones.
+	 */
+	public SentenceGenerator(long seed, GenerationTracer tracer, GenerationMetrics metrics) {
+		if(null == tracer) {
+			throw new IllegalArgumentException("tracer cannot be null.");
+		}
+		if(null == metrics) {
+			throw new IllegalArgumentException("metrics cannot be null.");
+		}
+		this.rootRandom = new SplittableRandom(seed);
+		this.threadRandom = ThreadLocal.withInitial(this::splitThreadRandom);
+		this.tracer = tracer;
+		this.metrics = metrics;
+	}
+	
+	private SplittableRandom splitThreadRandom() {
+		synchronized(rootRandom) {
+			return rootRandom.split();
+		}
+	}
+	
+	/**
+	 * Context for one generation on the calling thread, with
+	 * a fresh seed from the thread's stream.
+	 * @return
+	 */
+	GenerationContext context() {
+		return context(nextSeed());
+	}
+	
+	/**
+	 * Context for one generation from given seed.
+	 * @param seed
+	 * @return
+	 */
+	GenerationContext context(long seed) {
+		return new GenerationContext(seed, tracer, metrics);
+	}
+	
+	private long nextSeed() {
+		return threadRandom.get().nextLong();
+	}
+	
+	/**
+	 * Seed of item index of a batch or stream with given base seed. Mixed 
+	 * as in SplitMix64, so seeds of neighboring items are uncorrelated.
+	 * @param baseSeed
+	 * @param index
+	 * @return
+	 */
+	public static long itemSeed(long baseSeed, long index) {
+		long seed = baseSeed + (index + 1) * SEED_GAMMA;
+		seed = (seed ^ (seed >>> 30)) * SEED_MIX_1;
+		seed = (seed ^ (seed >>> 27)) * SEED_MIX_2;
+		return seed ^ (seed >>> 31);
+	}
+	
+	GenerationTracer tracer() {
+		return this.tracer;
+	}
+	
+	/**
+	 * Metrics of the sentences generated, see GenerationMetrics.snapshot().
+	 * @return
+	 */
+	public GenerationMetrics metrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word, as Story.createSentence.
+	 * @param posType
+	 * @param posTypeWord
+	 * @return
+	 */
+	public String createSentence(PosType posType, String posTypeWord) {
+		return Story.createSentence(posType, posTypeWord, context());
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word and seed, as Story.createSentence.
+	 * Same arguments give same sentence.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param seed
+	 * @return
+	 */
+	public String createSentence(PosType posType, String posTypeWord, long seed) {
+		return Story.createSentence(posType, posTypeWord, context(seed));
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word, along with its score,
+	 * PosType's and words, as Story.generateSentence.
+	 * @param posType
+	 * @param posTypeWord
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord) {
+		return Story.generateSentence(posType, posTypeWord, context());
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word, along with its score,
+	 * PosType's and words, using given search strategy, as Story.generateSentence.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param strategy
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord, SearchStrategy strategy) {
+		return Story.generateSentence(posType, posTypeWord, context(), strategy);
+	}
+	
+	/**
+	 * Replayable version of generate(PosType, String, SearchStrategy): same 
+	 * arguments give same sentence, e.g. seed of an earlier GeneratedSentence 
+	 * gives that sentence back.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param strategy
+	 * @param seed
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord, SearchStrategy strategy, long seed) {
+		return Story.generateSentence(posType, posTypeWord, context(seed), strategy);
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word with between minWordCount 
+	 * and maxWordCount words, using given search strategy. Trees are grown to
+	 * that many words, rather than grown freely and discarded, see 
+	 * GenerationContext.setWordCountRange.
+	 * @param posType
+	 * @param posTypeWord
+	 * @param strategy
+	 * @param minWordCount
+	 * @param maxWordCount
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord, SearchStrategy strategy, 
+			int minWordCount, int maxWordCount) {
+		return generate(posType, posTypeWord, strategy, minWordCount, maxWordCount, nextSeed());
+	}
+	
+	/**
+	 * Replayable version of generate(PosType, String, SearchStrategy, int, int).
+	 * @param posType
+	 * @param posTypeWord
+	 * @param strategy
+	 * @param minWordCount
+	 * @param maxWordCount
+	 * @param seed
+	 * @return
+	 */
+	public GeneratedSentence generate(PosType posType, String posTypeWord, SearchStrategy strategy, 
+			int minWordCount, int maxWordCount, long seed) {
+		GenerationContext context = context(seed);
+		context.setWordCountRange(minWordCount, maxWordCount);
+		return Story.generateSentence(posType, posTypeWord, context, strategy);
+	}
+	
+	/**
+	 * Create sentence containing word, as TellStory.generateSentence.
+	 * @param word
+	 * @return null if word is not in the vocabulary, or no sentence
+	 * can be grown from its PosType.
+	 */
+	public GeneratedSentence tell(String word) {
+		return TellStory.generateSentence(word, context());
+	}
+	
+	/**
+	 * Replayable version of tell(String).
+	 * @param word
+	 * @param seed
+	 * @return null if word is not in the vocabulary, or no sentence
+	 * can be grown from its PosType.
+	 */
+	public GeneratedSentence tell(String word, long seed) {
+		return TellStory.generateSentence(word, context(seed));
+	}
+	
+	/**
+	 * Unbounded lazy stream of sentences from posType, each generated only when
+	 * pulled, so e.g. limit() and findFirst() generate no more than needed.
+	 * Can be run in parallel().
+	 * @param posType
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(PosType posType) {
+		return stream(posType, nextSeed());
+	}
+	
+	/**
+	 * As stream(PosType), with item i seeded by itemSeed(seed, i), so the 
+	 * same seed gives the same sequence, sequential or parallel.
+	 * @param posType
+	 * @param seed
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(PosType posType, long seed) {
+		return LongStream.range(0, Long.MAX_VALUE)
+				.mapToObj(i -> generate(posType, null, SearchStrategy.SAMPLING, itemSeed(seed, i)));
+	}
+	
+	/**
+	 * As stream(PosType, long), without the sentences deduplicator has seen
+	 * before, in this stream or others it was passed to. When run in parallel(),
+	 * which of two equal sentences is kept depends on thread timing.
+	 * @param posType
+	 * @param seed
+	 * @param deduplicator
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(PosType posType, long seed, SentenceDeduplicator deduplicator) {
+		return stream(posType, seed).filter(sentence -> deduplicator.add(sentence.sentence()));
+	}
+	
+	/**
+	 * Unbounded lazy stream of sentences from word, each generated only when
+	 * pulled. Can be run in parallel().
+	 * @param word
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(String word) {
+		return stream(word, nextSeed());
+	}
+	
+	/**
+	 * As stream(String), with item i seeded by itemSeed(seed, i), so the 
+	 * same seed gives the same sequence, sequential or parallel.
+	 * @param word
+	 * @param seed
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(String word, long seed) {
+		if(null == word) {
+			throw new IllegalArgumentException("word cannot be null.");
+		}
+		return LongStream.range(0, Long.MAX_VALUE)
+				.mapToObj(i -> generate(null, word, SearchStrategy.SAMPLING, itemSeed(seed, i)));
+	}
+	
+	/**
+	 * As stream(String, long), without the sentences deduplicator has seen
+	 * before, in this stream or others it was passed to.
+	 * @param word
+	 * @param seed
+	 * @param deduplicator
+	 * @return
+	 */
+	public Stream<GeneratedSentence> stream(String word, long seed, SentenceDeduplicator deduplicator) {
+		return stream(word, seed).filter(sentence -> deduplicator.add(sentence.sentence()));
+	}
+	
+	/**
+	 * Create sentence tree given a PosType, as Pos.createSentenceTree.
+	 * @param posType
+	 * @return
+	 */
+	public Pos createSentenceTree(PosType posType) {
+		return Pos.createSentenceTree(posType, context());
+	}
+	
+	/**
+	 * Create sentence tree given a word, as Pos.createSentenceTree.
+	 * @param word
+	 * @return
+	 */
+	public Pos createSentenceTree(String word) {
+		return Pos.createSentenceTree(word, context());
+	}
+	
+	/**
+	 * Create compact sentence tree given a PosType, as Pos.createPosTree.
+	 * @param posType
+	 * @return
+	 */
+	public PosTree createPosTree(PosType posType) {
+		return Pos.createPosTree(posType, context());
+	}
+	
+	/**
+	 * Create compact sentence tree given a PosType, as Pos.createPosTree,
+	 * abandoning growth once its score can no longer reach minScore.
+	 * @param posType
+	 * @param minScore
+	 * @return possibly pruned tree.
+	 */
+	public PosTree createPosTree(PosType posType, double minScore) {
+		GenerationContext context = context();
+		context.setMinScore(minScore);
+		return Pos.createPosTree(posType, context);
+	}
+	
+	/**
+	 * Create compact sentence tree given a word, as Pos.createPosTree.
+	 * @param word
+	 * @return
+	 */
+	public PosTree createPosTree(String word) {
+		return Pos.createPosTree(word, context());
+	}
+	
+	/**
+	 * Arrange compact tree into a sentence, as PosTree.arrange.
+	 * @param tree
+	 * @return
+	 */
+	public String arrange(PosTree tree) {
+		return tree.arrange(threadRandom.get());
+	}
+	
+	/**
+	 * Arrange tree into a sentence, as Pos.arrangePosStr.
+	 * @param originPos
+	 * @return
+	 */
+	public String arrangePosStr(Pos originPos) {
+		return Pos.arrangePosStr(originPos, context());
+	}
+	
+	/**
+	 * Generate count sentences from posType across parallelism threads.
+	 * Sentences are in order of their index in the batch.
+	 * @param posType
+	 * @param count
+	 * @param parallelism number of worker threads.
+	 * @return
+	 */
+	public BatchResult generateBatch(PosType posType, int count, int parallelism) {
+		return generateBatch(posType, null, count, parallelism, nextSeed(), null);
+	}
+	
+	/**
+	 * As generateBatch(PosType, int, int), with sentence i seeded by itemSeed(seed, i),
+	 * so the same seed gives the same sentences for any parallelism.
+	 * @param posType
+	 * @param count
+	 * @param parallelism number of worker threads.
+	 * @param seed
+	 * @return
+	 */
+	public BatchResult generateBatch(PosType posType, int count, int parallelism, long seed) {
+		return generateBatch(posType, null, count, parallelism, seed, null);
+	}
+	
+	/**
+	 * As generateBatch(PosType, int, int, long), without the sentences deduplicator 
+	 * has seen before, in this batch or others it was passed to, so the batch may 
+	 * have fewer than count sentences. Which of two equal sentences is kept depends
+	 * on thread timing if parallelism is above 1.
+	 * @param posType
+	 * @param count number of sentences generated, before dropping duplicates.
+	 * @param parallelism number of worker threads.
+	 * @param seed
+	 * @param deduplicator
+	 * @return
+	 */
+	public BatchResult generateBatch(PosType posType, int count, int parallelism, long seed, 
+			SentenceDeduplicator deduplicator) {
+		if(null == deduplicator) {
+			throw new IllegalArgumentException("deduplicator cannot be null.");
+		}
+		return generateBatch(posType, null, count, parallelism, seed, deduplicator);
+	}
+	
+	/**
+	 * Generate count sentences from word across parallelism threads.
+	 * Sentences are in order of their index in the batch.
+	 * @param word
+	 * @param count
+	 * @param parallelism number of worker threads.
+	 * @return
+	 */
+	public BatchResult generateBatch(String word, int count, int parallelism) {
+		return generateBatch(word, count, parallelism, nextSeed());
+	}
+	
+	/**
+	 * As generateBatch(String, int, int), with sentence i seeded by itemSeed(seed, i),
+	 * so the same seed gives the same sentences for any parallelism.
+	 * @param word
+	 * @param count
+	 * @param parallelism number of worker threads.
+	 * @param seed
+	 * @return
+	 */
+	public BatchResult generateBatch(String word, int count, int parallelism, long seed) {
+		if(null == word) {
+			throw new IllegalArgumentException("word cannot be null.");
+		}
+		return generateBatch(null, word, count, parallelism, seed, null);
+	}
+	
+	/**
+	 * As generateBatch(String, int, int, long), without the sentences deduplicator 
+	 * has seen before, see generateBatch(PosType, int, int, long, SentenceDeduplicator).
+	 * @param word
+	 * @param count number of sentences generated, before dropping duplicates.
+	 * @param parallelism number of worker threads.
+	 * @param seed
+	 * @param deduplicator
+	 * @return
+	 */
+	public BatchResult generateBatch(String word, int count, int parallelism, long seed, 
+			SentenceDeduplicator deduplicator) {
+		if(null == word || null == deduplicator) {
+			throw new IllegalArgumentException("word and deduplicator cannot be null.");
+		}
+		return generateBatch(null, word, count, parallelism, seed, deduplicator);
+	}
+	
+	/**
+	 * @param posType
+	 * @param word
+	 * @param count
+	 * @param parallelism
+	 * @param seed
+	 * @param deduplicator null to keep duplicates.
+	 * @return
+	 */
+	private BatchResult generateBatch(PosType posType, String word, int count, int parallelism, long seed,
+			SentenceDeduplicator deduplicator) {
+		if(count < 0) {
+			throw new IllegalArgumentException("count cannot be negative.");
+		}
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive.");
+		}
+		String[] sentences = new String[count];
+		int chunkSize = Math.max(1, count / (parallelism * BATCH_CHUNKS_PER_THREAD));
+		
+		long startTime = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new BatchTask(posType, word, seed, deduplicator, sentences, 0, count, chunkSize));
+		}finally {
+			pool.shutdown();
+		}
+		long elapsedNanos = System.nanoTime() - startTime;
+		
+		if(null == deduplicator) {
+			return new BatchResult(Arrays.asList(sentences), seed, elapsedNanos, parallelism, 0);
+		}
+		//duplicates were left null
+		List<String> distinctSentences = new ArrayList<String>(count);
+		for(String sentence : sentences) {
+			if(null != sentence) {
+				distinctSentences.add(sentence);
+			}
+		}
+		return new BatchResult(distinctSentences, seed, elapsedNanos, parallelism, count - distinctSentences.size());
+	}
+	
+	/**
+	 * Generates the sentences in an index range of the batch, each written to
+	 * its own index, so results are merged in order without locking. Duplicates
+	 * are left null.
+	 */
+	private class BatchTask extends RecursiveAction{
+		
+		private static final long serialVersionUID = 1L;
+		private final PosType posType;
+		private final String word;
+		private final long seed;
+		private final SentenceDeduplicator deduplicator;
+		private final String[] sentences;
+		private final int startIndex;
+		private final int endIndex;
+		private final int chunkSize;
+		
+		BatchTask(PosType posType_, String word_, long seed_, SentenceDeduplicator deduplicator_, String[] sentences_, 
+				int startIndex_, int endIndex_, int chunkSize_){
+			this.posType = posType_;
+			this.word = word_;
+			this.seed = seed_;
+			this.deduplicator = deduplicator_;
+			this.sentences = sentences_;
+			this.startIndex = startIndex_;
+			this.endIndex = endIndex_;
+			this.chunkSize = chunkSize_;
+		}
+		
+		@Override
+		protected void compute() {
+			if(endIndex - startIndex <= chunkSize) {
+				for(int i = startIndex; i < endIndex; i++) {
+					String sentence = createSentence(posType, word, itemSeed(seed, i));
+					if(null == deduplicator || deduplicator.add(sentence)) {
+						sentences[i] = sentence;
+					}
+				}
+				return;
+			}
+			int midIndex = (startIndex + endIndex) >>> 1;
+			invokeAll(new BatchTask(posType, word, seed, deduplicator, sentences, startIndex, midIndex, chunkSize),
+					new BatchTask(posType, word, seed, deduplicator, sentences, midIndex, endIndex, chunkSize));
+		}
+	}
+	
+	/**
+	 * Sentences of a batch, in order, along with the seed and throughput.
+	 */
+	public static class BatchResult{
+		
+		private final List<String> sentences;
+		private final long seed;
+		private final long elapsedNanos;
+		private final int parallelism;
+		private final int duplicateCount;
+		
+		BatchResult(List<String> sentences_, long seed_, long elapsedNanos_, int parallelism_, int duplicateCount_){
+			this.sentences = Collections.unmodifiableList(sentences_);
+			this.seed = seed_;
+			this.elapsedNanos = elapsedNanos_;
+			this.parallelism = parallelism_;
+			this.duplicateCount = duplicateCount_;
+		}
+		
+		public List<String> sentences(){
+			return this.sentences;
+		}
+		
+		/**
+		 * Base seed of the batch, sentence i was generated from itemSeed(seed, i).
+		 * @return
+		 */
+		public long seed() {
+			return this.seed;
+		}
+		
+		/**
+		 * Wall-clock time to generate the whole batch.
+		 * @return
+		 */
+		public long elapsedNanos() {
+			return this.elapsedNanos;
+		}
+		
+		public int parallelism() {
+			return this.parallelism;
+		}
+		
+		/**
+		 * Number of sentences dropped as duplicates, 0 if not deduplicated.
+		 * @return
+		 */
+		public int duplicateCount() {
+			return this.duplicateCount;
+		}
+		
+		/**
+		 * Fraction of sentences generated that were dropped as duplicates.
+		 * @return
+		 */
+		public double duplicateRate() {
+			int generatedCount = sentences.size() + duplicateCount;
+			return generatedCount == 0 ? 0 : duplicateCount / (double)generatedCount;
+		}
+		
+		/**
+		 * Generation throughput, counting sentences dropped as duplicates.
+		 * @return
+		 */
+		public double sentencesPerSecond() {
+			return elapsedNanos == 0 ? 0 : (sentences.size() + duplicateCount) * 1e9 / elapsedNanos;
+		}
+		
+		/**
+		 * Throughput of sentences kept, i.e. without duplicates.
+		 * @return
+		 */
+		public double keptSentencesPerSecond() {
+			return elapsedNanos == 0 ? 0 : sentences.size() * 1e9 / elapsedNanos;
+		}
+		
+		@Override
+		public String toString() {
+			int generatedCount = sentences.size() + duplicateCount;
+			String str = String.format("%d sentences in %.1f ms on %d threads (%.1f sentences/s)",
+					generatedCount, elapsedNanos / 1e6, parallelism, sentencesPerSecond());
+			return duplicateCount == 0 ? str : str + String.format(", %d duplicates dropped (rate %.4f), "
+					+ "%d kept (%.1f sentences/s)", duplicateCount, duplicateRate(), sentences.size(), 
+					keptSentencesPerSecond());
+		}
+	}
+}
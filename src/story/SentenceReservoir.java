@@ -0,0 +1,251 @@
+package story;
+
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import story.Pos.PosType;
+import story.Story.SearchStrategy;
+
+/**
+ * Reservoirs of pre-generated sentences per PosType, as sentences from a
+ * PosType alone are interchangeable. Requests poll from a lock-free queue;
+ * once a reservoir drops below lowWatermark, a background worker generates
+ * sentences scoring at least minScore until it is back at capacity. So
+ * requests for served PosTypes cost a queue poll, unless a burst drains the
+ * reservoir faster than it refills. Workers are low-priority daemon threads.
+ * Refills record into the generator's GenerationMetrics, so a generator of
+ * its own keeps them apart from the metrics of generation on request.
+ *
+ * @author yihed
+ *
+ */
+public class SentenceReservoir implements AutoCloseable {
+
+	public static final int DEFAULT_CAPACITY = 64;
+	public static final int DEFAULT_LOW_WATERMARK = 16;
+	public static final double DEFAULT_MIN_SCORE = 0.9;
+	public static final int DEFAULT_WORKER_COUNT = 2;
+
+	private final SentenceGenerator generator;
+	private final int capacity;
+	private final int lowWatermark;
+	private final double minScore;
+	//indexed by PosType ordinal, null for PosTypes not served
+	private final Reservoir[] reservoirs;
+	//PosTypes whose reservoir needs refilling, each at most once
+	private final BlockingQueue<PosType> refillQueue = new LinkedBlockingQueue<PosType>();
+	private final Thread[] workers;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private volatile boolean closed;
+
+	/**
+	 * Sentences of one PosType.
+	 */
+	private static final class Reservoir{
+
+		final Queue<GeneratedSentence> sentences = new ConcurrentLinkedQueue<GeneratedSentence>();
+		//size of sentences, kept separately as queue's size() is linear
+		final AtomicInteger size = new AtomicInteger();
+		//whether PosType is in refillQueue or being refilled
+		final AtomicBoolean refillPending = new AtomicBoolean();
+	}
+
+	/**
+	 * Reservoirs for all PosTypes sentences can be generated from, with default
+	 * capacity, watermark, min score and number of workers.
+	 * @param generator_
+	 */
+	public SentenceReservoir(SentenceGenerator generator_) {
+		this(generator_, defaultPosTypes(), DEFAULT_CAPACITY, DEFAULT_LOW_WATERMARK, DEFAULT_MIN_SCORE,
+				DEFAULT_WORKER_COUNT);
+	}
+
+	/**
+	 * Not filled until start().
+	 * @param generator_
+	 * @param posTypes PosTypes to keep reservoirs for.
+	 * @param capacity_ number of sentences reservoirs are refilled to.
+	 * @param lowWatermark_ reservoirs below this are refilled.
+	 * @param minScore_ sentences scoring lower are discarded.
+	 * @param workerCount number of background threads generating sentences.
+	 */
+	public SentenceReservoir(SentenceGenerator generator_, Set<PosType> posTypes, int capacity_, int lowWatermark_,
+			double minScore_, int workerCount) {
+		if(null == generator_) {
+			throw new IllegalArgumentException("generator cannot be null.");
+		}
+		if(capacity_ < 1 || lowWatermark_ < 1 || lowWatermark_ > capacity_) {
+			throw new IllegalArgumentException("lowWatermark must be between 1 and capacity.");
+		}
+		if(workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be positive.");
+		}
+		this.generator = generator_;
+		this.capacity = capacity_;
+		this.lowWatermark = lowWatermark_;
+		this.minScore = minScore_;
+		this.reservoirs = new Reservoir[PosType.values().length];
+		for(PosType posType : posTypes) {
+			if(!Story.canOriginateSentence(posType)) {
+				throw new IllegalArgumentException("Sentences cannot be generated from " + posType);
+			}
+			reservoirs[posType.ordinal()] = new Reservoir();
+		}
+		this.workers = new Thread[workerCount];
+		for(int i = 0; i < workerCount; i++) {
+			Thread worker = new Thread(this::refillLoop, "sentence-reservoir-" + i);
+			worker.setDaemon(true);
+			worker.setPriority(Thread.MIN_PRIORITY);
+			workers[i] = worker;
+		}
+	}
+
+	private static Set<PosType> defaultPosTypes(){
+		Set<PosType> posTypes = EnumSet.noneOf(PosType.class);
+		for(PosType posType : PosType.values()) {
+			if(Story.canOriginateSentence(posType)) {
+				posTypes.add(posType);
+			}
+		}
+		return posTypes;
+	}
+
+	/**
+	 * Starts the workers, which fill all reservoirs.
+	 */
+	public void start() {
+		for(PosType posType : PosType.values()) {
+			Reservoir reservoir = reservoirs[posType.ordinal()];
+			if(null != reservoir) {
+				requestRefill(posType, reservoir);
+			}
+		}
+		for(Thread worker : workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the workers, sentences already in the reservoirs can still be polled.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for(Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * Takes a pre-generated sentence from posType's reservoir, without blocking.
+	 * @param posType
+	 * @return null if posType is not served or its reservoir is empty.
+	 */
+	public GeneratedSentence poll(PosType posType) {
+		Reservoir reservoir = reservoirs[posType.ordinal()];
+		if(null == reservoir) {
+			return null;
+		}
+		GeneratedSentence sentence = reservoir.sentences.poll();
+		if(null == sentence) {
+			missCount.increment();
+			requestRefill(posType, reservoir);
+			return null;
+		}
+		hitCount.increment();
+		if(reservoir.size.decrementAndGet() < lowWatermark) {
+			requestRefill(posType, reservoir);
+		}
+		return sentence;
+	}
+
+	/**
+	 * Takes a pre-generated sentence from posType's reservoir, or generates
+	 * one on the calling thread if there is none.
+	 * @param posType
+	 * @return
+	 */
+	public GeneratedSentence take(PosType posType) {
+		GeneratedSentence sentence = poll(posType);
+		return null != sentence ? sentence : generator.generate(posType, null, SearchStrategy.SAMPLING);
+	}
+
+	private void requestRefill(PosType posType, Reservoir reservoir) {
+		if(!closed && reservoir.refillPending.compareAndSet(false, true)) {
+			refillQueue.offer(posType);
+		}
+	}
+
+	private void refillLoop() {
+		try {
+			while(!closed) {
+				PosType posType = refillQueue.take();
+				Reservoir reservoir = reservoirs[posType.ordinal()];
+				boolean refilled = false;
+				try {
+					refill(posType, reservoir);
+					refilled = true;
+				}catch(RuntimeException e) {
+					//left to the next poll to request again
+					e.printStackTrace();
+				}finally {
+					reservoir.refillPending.set(false);
+				}
+				//polls since the last size check can have drained it again
+				if(refilled && reservoir.size.get() < lowWatermark) {
+					requestRefill(posType, reservoir);
+				}
+			}
+		}catch(InterruptedException e) {
+			//closed
+		}
+	}
+
+	private void refill(PosType posType, Reservoir reservoir) {
+		while(!closed && reservoir.size.get() < capacity) {
+			GeneratedSentence sentence = generator.generate(posType, null, SearchStrategy.SAMPLING);
+			if(sentence.score() >= minScore) {
+				reservoir.sentences.offer(sentence);
+				reservoir.size.incrementAndGet();
+			}
+		}
+	}
+
+	public SentenceGenerator generator() {
+		return this.generator;
+	}
+
+	/**
+	 * Number of sentences currently in posType's reservoir.
+	 * @param posType
+	 * @return 0 if posType is not served.
+	 */
+	public int size(PosType posType) {
+		Reservoir reservoir = reservoirs[posType.ordinal()];
+		return null == reservoir ? 0 : reservoir.size.get();
+	}
+
+	/**
+	 * Number of polls served from a reservoir.
+	 * @return
+	 */
+	public long hitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Number of polls of served PosTypes that found their reservoir empty.
+	 * @return
+	 */
+	public long missCount() {
+		return missCount.sum();
+	}
+}
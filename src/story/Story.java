@@ -5,22 +5,27 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.function.BiFunction;
 import java.util.regex.Matcher;
+import java.util.random.RandomGenerator;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ListMultimap;
 import com.google.common.collect.SetMultimap;
 
+import story.GenerationMetrics.Rejection;
+import story.GenerationMetrics.SentenceMetrics;
 import story.Pos.PosType;
 import story.Pos.PosType.PosTypeName;
 import utils.ExtraLexicon;
+import utils.Lexicon;
+import utils.AliasTable;
+import utils.MappedLineReader;
 import utils.StoryUtils;
-import utils.StoryUtils.SearchableList;
+import utils.WordTrie;
 
 /**
  * Class for generating stories
@@ -28,48 +33,110 @@ import utils.StoryUtils.SearchableList;
  */
 public class Story {
 
-	/**
-	 * Map of pos and words. E.g. on entry for "NOUN" is "apple"
-	 */
-	private static final ListMultimap<PosTypeName, String> POS_WORD_MAP;
-	/**
-	 * Words and their part of speech.
-	 */
-	private static final Map<String, PosType> wordPosTypeMap;
-	
-	private static final Random RAND_GEN = new Random();
-	//e.g. <p>1084 (4%) <code>VERB</code> nodes are leaves.</p>
-		//data on the nodes parent child type stats. Generate number of
-		//parent children stats.
-	private static final Map<PosTypeName, SearchableList<Integer>> posTypePCProbMap; 
 	private static final Pattern PC_TYPE_PATTERN = Pattern.compile("<p>.+\\((\\d+)%\\)\\s*<code>(.+)</code> nodes (.+)");
 	private static final String PLACEHOLDER_WORD = "PC";
 	private static final Pattern LAST_TOK_PATT = Pattern.compile("\\s+(?=([^\\s]+$))");
-	private static final boolean DEBUG = true;
 	
-	//private static final int TOTAL_PROB = 100;
+	private static final int TOTAL_PROB_100 = 100;
+	//weight of tagging a word with a pos listed for it in the lexicon data
+	private static final int LEXICON_TAG_WEIGHT = 1;
+	/**most pos a sentence from a word is tried with, e.g. VERB and NOUN for "play"*/
+	public static final int MAX_POS_ANCHORS = 3;
+	//trees grown for a word count target before settling for the best one 
+	//outside the range or without verb, as e.g. 1 word from a NOUN can't have a verb.
+	private static final int MAX_TARGET_TREES = 200;
 	
-	static {
-		POS_WORD_MAP = ArrayListMultimap.create();
-		wordPosTypeMap = new HashMap<String, PosType>();
+	/**
+	 * Words of each pos, e.g. "apple" for "NOUN", and the common words of each pos,
+	 * with the pos of each word, as int ids. Loaded on first use, without the rest 
+	 * of the model, so word lookups start fast. Read-only after initialization, as 
+	 * all model tables, so can be shared across threads.
+	 */
+	private static final class LexiconHolder{
+		
+		static final Lexicon LEXICON;
+		static final int PLACEHOLDER_WORD_ID;
+		
+		static {
+			ModelSnapshot snapshot = ModelSnapshot.get();
+			LEXICON = null != snapshot ? snapshot.lexicon() : parseLexicon();
+			PLACEHOLDER_WORD_ID = LEXICON.id(PLACEHOLDER_WORD);
+		}
+	}
+	
+	/**
+	 * Parses the lexicon from the text data, along with the common words
+	 * and the placeholder word.
+	 * @return
+	 */
+	static Lexicon parseLexicon() {
+		Lexicon.Builder lexiconBuilder = new Lexicon.Builder();
 		//should create from file
 		/*contains pairs of form e.g. apple noun. Note lower case pos.*/
 		String lexiconPath = "data/lexicon.txt";
 		//lexiconPath = "data/lexiconMedium.txt";
-		createLexicon(POS_WORD_MAP, wordPosTypeMap, lexiconPath);
+		createLexicon(lexiconBuilder, lexiconPath);
+		ExtraLexicon.addCommonWords(lexiconBuilder);
+		lexiconBuilder.add(PLACEHOLDER_WORD);
+		return lexiconBuilder.build();
+	}
+	
+	/**
+	 * Number of children stats, loaded on first use.
+	 */
+	private static final class ChildCountHolder{
 		
-		//fill map from data sources
+		//e.g. <p>1084 (4%) <code>VERB</code> nodes are leaves.</p>
+		//data on the nodes parent child type stats. Generate number of
+		//parent children stats. Indexed by PosTypeName ordinal, null if no stats.
+		static final AliasTable[] CHILD_COUNT_ALIAS_TABLES;
 		
-		//create data maps posTypePCProbMMap
-		Map<PosTypeName, List<Integer>> preMap = new HashMap<PosTypeName, List<Integer>>();
-		/*String e.g. <p>2182 (8%) <code>VERB</code> nodes have one child.</p>*/
-		String pcProbFileStr = "data/pcProb.txt";
-		//create map for how many children a Pos has
-		createPCProbMap(pcProbFileStr, preMap);
-		System.out.println("pcProbMap created!");
+		static {
+			//create data maps posTypePCProbMMap
+			Map<PosTypeName, List<Integer>> preMap = new HashMap<PosTypeName, List<Integer>>();
+			ModelSnapshot snapshot = ModelSnapshot.get();
+			if(null != snapshot) {
+				snapshot.fillPCProbMap(preMap);
+			}else {
+				//fill map from data sources
+				/*String e.g. <p>2182 (8%) <code>VERB</code> nodes have one child.</p>*/
+				String pcProbFileStr = "data/pcProb.txt";
+				//create map for how many children a Pos has
+				createPCProbMap(pcProbFileStr, preMap);
+			}
+			System.out.println("pcProbMap created!");
+			CHILD_COUNT_ALIAS_TABLES = createChildCountAliasTables(preMap);
+			System.out.println("childCountAliasTables created!");
+		}
+	}
+	
+	/**
+	 * Tries over the words of each pos, for prefix queries, built from the 
+	 * lexicon on first use. Indexed by PosTypeName ordinal.
+	 */
+	private static final class WordTrieHolder{
+		
+		static final WordTrie[] WORD_TRIES;
 		
-		posTypePCProbMap = processSearchablePreMap(preMap);
-		System.out.println("posTypePCProbMap created!");
+		static {
+			PosTypeName[] posTypeNames = PosTypeName.values();
+			WORD_TRIES = new WordTrie[posTypeNames.length];
+			for(PosTypeName posTypeName : posTypeNames) {
+				WORD_TRIES[posTypeName.ordinal()] = LexiconHolder.LEXICON.buildWordTrie(posTypeName);
+			}
+		}
+	}
+	
+	/**
+	 * Loads all model tables, which are otherwise each loaded on first use, 
+	 * e.g. so a server doesn't load them while serving its first requests.
+	 */
+	public static void loadModel() {
+		lexicon();
+		childCountAliasTable(PosTypeName.VERB);
+		Pos.loadStats();
+		Dep.loadStats();
+		ScoreTree.load();
 	}
 	//given a PosType, 
 	
@@ -84,47 +151,64 @@ public class Story {
 			return this == PARENT ? CHILD : PARENT;
 		}
 		
-		public static PosPCType generateRandType() {
-			return RAND_GEN.nextBoolean() ? PARENT : CHILD;		
+		public static PosPCType generateRandType(RandomGenerator rand) {
+			return rand.nextBoolean() ? PARENT : CHILD;		
 		}
 	}
 	
-	private static void createLexicon(ListMultimap<PosTypeName, String> posWordLexiconMMap,
-			Map<String, PosType> wordPosTypeMap, String lexiconPath){
+	/**
+	 * How a sentence is searched for.
+	 */
+	public static enum SearchStrategy{
+		/**draw whole trees until one scores high enough*/
+		SAMPLING, 
+		/**grow trees breadth first, keeping the best partial trees, see BeamSearch*/
+		BEAM;
+	}
+	
+	/**
+	 * Adds the words of each pos in lexicon file, and the first pos seen for
+	 * each word, to lexiconBuilder.
+	 * @param lexiconBuilder
+	 * @param lexiconPath
+	 */
+	static void createLexicon(Lexicon.Builder lexiconBuilder, String lexiconPath){
 		
 		SetMultimap<PosTypeName, String> lexiconSetMMap = HashMultimap.create();
 		System.out.println("Creating lexicon...");
-		List<String> lines = StoryUtils.readLinesFromFile(lexiconPath);
 		Matcher m;
 		/*lines are of the form "apple noun", where last token indicates pos. Could
 		 * be n-gram.*/
-		for(String line : lines) {
-			//strip surrounding spaces
-			if((m = StoryUtils.SURROUNDING_SPACE_PATT.matcher(line)).matches()) {
-				line = m.group(1);
-			}
-			String[] lineAr = LAST_TOK_PATT.split(line);
-			if(lineAr.length < 2) {
-				continue;
-			}
-			PosTypeName posTypeName = PosTypeName.getTypeFromName(lineAr[1].toUpperCase());
+		try(MappedLineReader lines = StoryUtils.readLines(lexiconPath)){
+			for(CharSequence line : lines) {
+				//strip surrounding spaces
+				if((m = StoryUtils.SURROUNDING_SPACE_PATT.matcher(line)).matches()) {
+					line = m.group(1);
+				}
+				String[] lineAr = LAST_TOK_PATT.split(line);
+				if(lineAr.length < 2) {
+					continue;
+				}
+				PosTypeName posTypeName = PosTypeName.getTypeFromName(lineAr[1].toUpperCase());
 			
-			if(posTypeName != PosTypeName.NONE) {
-				String word = lineAr[0];
-				lexiconSetMMap.put(posTypeName, word);	
-				
-				if(!wordPosTypeMap.containsKey(word)) {
-					wordPosTypeMap.put(word, posTypeName.getPosType());
+				if(posTypeName != PosTypeName.NONE) {
+					String word = lineAr[0];
+					lexiconSetMMap.put(posTypeName, word);	
+					lexiconBuilder.putPosTypeNameIfAbsent(word, posTypeName);
+					//all pos of word, weighted far below the frequency of common words
+					lexiconBuilder.addPosTag(word, posTypeName, LEXICON_TAG_WEIGHT);
+				}else {
+					throw new IllegalArgumentException(line + " classified as posTypeName.NONE");
 				}
-			}else {
-				throw new IllegalArgumentException(line + " classified as posTypeName.NONE");
 			}
 		}
 		System.out.println("lexicon file read! lexiconSetMMap.keys().size() "+lexiconSetMMap.keySet().size());
 		for(PosTypeName posTypeName : lexiconSetMMap.keySet()) {
-			posWordLexiconMMap.putAll(posTypeName, lexiconSetMMap.get(posTypeName));
+			for(String word : lexiconSetMMap.get(posTypeName)) {
+				lexiconBuilder.addPosWord(posTypeName, word);
+			}
 		}
-		System.out.println("lexicon data put to list multimap!");
+		System.out.println("lexicon data put to lexicon!");
 		/*posWordLexiconMMap.put(PosTypeName.VERB, "fly");
 		posWordLexiconMMap.put(PosTypeName.VERB, "have");
 		posWordLexiconMMap.put(PosTypeName.AUX, "be");
@@ -142,31 +226,40 @@ public class Story {
 		
 	}
 	
-	public static ListMultimap<PosTypeName, String> POS_WORD_MAP(){
-		return POS_WORD_MAP;
+	public static Lexicon lexicon(){
+		return LexiconHolder.LEXICON;
 	}
 	
 	/**
-	 * Create Searchable premap with desired ordering
+	 * Create alias tables for the number of children, from premap of
+	 * percentages, indexed by PosTypeName ordinal.
 	 * @param preMap
 	 * @return
 	 */
-	private static Map<PosTypeName, SearchableList<Integer>> processSearchablePreMap(Map<PosTypeName, 
+	private static AliasTable[] createChildCountAliasTables(Map<PosTypeName, 
 			List<Integer>> preMap) {
 		
-		Map<PosTypeName, SearchableList<Integer>> searchableListMap 
-			= new HashMap<PosTypeName, SearchableList<Integer>>();
+		AliasTable[] aliasTables = new AliasTable[PosTypeName.values().length];
 		
 		for(Map.Entry<PosTypeName, List<Integer>> entry : preMap.entrySet()) {
 			//System.out.println("Story - entry "+entry.toString());
 			List<Integer> probList = entry.getValue();
+			//index 0 is padding, the rest are percentages for 0, 1, 2, and 3 or more children.
+			int[] weights = new int[probList.size()-1];
+			int totalProb = 0;
 			for(int i = 1; i < probList.size(); i++) {
-				probList.set(i, probList.get(i-1) + probList.get(i));
+				weights[i-1] = probList.get(i);
+				totalProb += weights[i-1];
 			}
-			searchableListMap.put(entry.getKey(), new SearchableList<Integer>(probList));
+			//percentages don't always add up to 100 due to rounding, 
+			//remainder goes to the last bracket, same as the cumulative search did.
+			if(totalProb < TOTAL_PROB_100) {
+				weights[weights.length-1] += TOTAL_PROB_100 - totalProb;
+			}
+			aliasTables[entry.getKey().ordinal()] = new AliasTable(weights);
 		}
 		
-		return searchableListMap;
+		return aliasTables;
 	}
 
 	/**
@@ -174,7 +267,7 @@ public class Story {
 	 * @param posTypePCProbMMap
 	 * @param charset default is UTF-8 if none specified.
 	 */
-	private static void createPCProbMap(String fileStr, Map<PosTypeName, List<Integer>> posTypePCProbMap,
+	static void createPCProbMap(String fileStr, Map<PosTypeName, List<Integer>> posTypePCProbMap,
 			Charset... charset) {
 		//read data in from file
 		Matcher m;
@@ -183,94 +276,200 @@ public class Story {
 		String posTypeStr;
 		String childrenCountStr;
 		
-		List<String> lines = StoryUtils.readLinesFromFile(fileStr, charset);
 		
-		for(String line : lines){
+		try(MappedLineReader lines = StoryUtils.readLines(fileStr, charset)){
+			for(CharSequence line : lines){
 			
-			/*match String such as "<p>2182 (8%) <code>VERB</code> nodes have one child.</p>"	
-			 gives 8 ~~ VERB ~~ have one child.</p> for the different groups. These two lie in 
-			 one string*/
-			if((m=PC_TYPE_PATTERN.matcher(line)).matches()) {
+				/*match String such as "<p>2182 (8%) <code>VERB</code> nodes have one child.</p>"	
+				 gives 8 ~~ VERB ~~ have one child.</p> for the different groups. These two lie in 
+				 one string*/
+				if((m=PC_TYPE_PATTERN.matcher(line)).matches()) {
 				
-				posTypeStr = m.group(2);
+					posTypeStr = m.group(2);
 				
-				PosTypeName posTypeName = PosTypeName.getTypeFromName(posTypeStr);
-				if(posTypeName == PosTypeName.NONE) {
-					return      /*******here  ********/;
-				}
-				prob = Integer.parseInt(m.group(1));
-				childrenCountStr = m.group(3);
+					PosTypeName posTypeName = PosTypeName.getTypeFromName(posTypeStr);
+					if(posTypeName == PosTypeName.NONE) {
+						return      /*******here  ********/;
+					}
+					prob = Integer.parseInt(m.group(1));
+					childrenCountStr = m.group(3);
 	
-				List<Integer> pcProbList = posTypePCProbMap.get(posTypeName);
+					List<Integer> pcProbList = posTypePCProbMap.get(posTypeName);
 				
-				if(null == pcProbList) {
-					pcProbList = new ArrayList<Integer>();
-					for(int i = 0; i < 5; i++) {
-						pcProbList.add(0);					
+					if(null == pcProbList) {
+						pcProbList = new ArrayList<Integer>();
+						for(int i = 0; i < 5; i++) {
+							pcProbList.add(0);					
+						}
+						//initial padding so binary search can return upper index.
+						pcProbList.set(0, 0);					
+						posTypePCProbMap.put(posTypeName, pcProbList);
 					}
-					//initial padding so binary search can return upper index.
-					pcProbList.set(0, 0);					
-					posTypePCProbMap.put(posTypeName, pcProbList);
-				}
 				
-				if(childrenCountStr.contains("are leaves")) {
-					pcProbList.set(1, prob);
-				}else if(childrenCountStr.contains("one child")) {
-					pcProbList.set(2, prob);
-				}else if(childrenCountStr.contains("two children")) {
-					pcProbList.set(3, prob);
-				}else if(childrenCountStr.contains("three or more children")) {
-					pcProbList.set(4, prob);
-				}
+					if(childrenCountStr.contains("are leaves")) {
+						pcProbList.set(1, prob);
+					}else if(childrenCountStr.contains("one child")) {
+						pcProbList.set(2, prob);
+					}else if(childrenCountStr.contains("two children")) {
+						pcProbList.set(3, prob);
+					}else if(childrenCountStr.contains("three or more children")) {
+						pcProbList.set(4, prob);
+					}
 				
-			}		
+				}		
+			}
 		}		
 	}
 	
 	public static String getRandomWord(PosType posType) {
+		return getRandomWord(posType, GenerationContext.forCurrentThread().rand());
+	}
+	
+	/**
+	 * Random word of given PosType, mostly from the common words.
+	 * @param posType
+	 * @param rand
+	 * @return
+	 */
+	public static String getRandomWord(PosType posType, RandomGenerator rand) {
+		return lexicon().word(getRandomWordId(posType, rand));
+	}
+	
+	/**
+	 * Lexicon id of random word of given PosType, mostly from the common words.
+	 * @param posType
+	 * @param rand
+	 * @return id of the placeholder word if posType has no words, e.g. PosType.NONE.
+	 */
+	public static int getRandomWordId(PosType posType, RandomGenerator rand) {
 		
+		Lexicon lexicon = LexiconHolder.LEXICON;
 		PosTypeName posTypeName = posType.posTypeName();
-		
-		List<String> posTypeWordList = null;
-		int randInt = RAND_GEN.nextInt(100);
+		int randInt = rand.nextInt(100);
 		
 		if(randInt < 85) {
 		//if(posTypeName == PosTypeName.NOUN || posTypeName == PosTypeName.VERB) {
-			posTypeWordList = ExtraLexicon.commonPosWordListMultimap().get(posTypeName);		
+			int commonWordCount = lexicon.commonPosWordCount(posTypeName);
+			if(commonWordCount > 0) {
+				return lexicon.commonPosWordId(posTypeName, rand.nextInt(commonWordCount));
+			}
 		}
 		
-		if(null == posTypeWordList || posTypeWordList.isEmpty()){
-			posTypeWordList = Story.POS_WORD_MAP().get(posTypeName);
+		int wordCount = lexicon.posWordCount(posTypeName);
+		if(0 == wordCount) {
+			return LexiconHolder.PLACEHOLDER_WORD_ID;
 		}
-		
-		//List<String> posTypeWordList = Story.POS_WORD_MAP().get(posTypeName);
-		if(posTypeWordList.isEmpty()) {
-			System.out.println("Story - no vocab word for PosType " + posTypeName);
-			return PLACEHOLDER_WORD;
+		return lexicon.posWordId(posTypeName, rand.nextInt(wordCount));
+	}
+	
+	/**
+	 * Trie over the words of posTypeName, from both the lexicon data and the
+	 * common words, e.g. to count or draw words starting with a prefix.
+	 * @param posTypeName
+	 * @return
+	 */
+	public static WordTrie wordTrie(PosTypeName posTypeName) {
+		return WordTrieHolder.WORD_TRIES[posTypeName.ordinal()];
+	}
+	
+	/**
+	 * Random word of given PosType starting with prefix, each such word 
+	 * equally likely, found without rejecting words that don't match.
+	 * @param posType
+	 * @param prefix
+	 * @param rand
+	 * @return null if no word of posType starts with prefix.
+	 */
+	public static String getRandomWord(PosType posType, CharSequence prefix, RandomGenerator rand) {
+		int wordId = wordTrie(posType.posTypeName()).randomWordId(prefix, rand);
+		return Lexicon.NO_ID == wordId ? null : lexicon().word(wordId);
+	}
+	
+	/**
+	 * Alias table for the number of children of a Pos with given PosTypeName,
+	 * index drawn is number of children, 3 meaning 3 or more.
+	 * @param posTypeName
+	 * @return null if no stats for posTypeName.
+	 */
+	public static AliasTable childCountAliasTable(PosTypeName posTypeName){
+		return ChildCountHolder.CHILD_COUNT_ALIAS_TABLES[posTypeName.ordinal()];
+	}
+
+	/**
+	 * Part of speech of word, out of the lexicon words (current count: 41k).
+	 * @param word
+	 * @return null if word is not in the lexicon.
+	 */
+	public static PosType wordPosType(String word){
+		PosTypeName posTypeName = lexicon().posTypeName(word);
+		return null == posTypeName ? null : posTypeName.getPosType();
+	}
+	
+	/**
+	 * PosType's a sentence can be grown from word as, i.e. the pos word is 
+	 * tagged with in the lexicon or word frequency data that can originate a
+	 * sentence, most frequent first, at most MAX_POS_ANCHORS.
+	 * @param word
+	 * @return empty if word is not in the lexicon, or has no such pos.
+	 */
+	public static List<PosType> posAnchors(String word) {
+		Lexicon lexicon = lexicon();
+		int id = lexicon.id(word);
+		int tagCount = lexicon.posTagCount(id);
+		List<PosType> anchors = new ArrayList<PosType>(Math.min(tagCount, MAX_POS_ANCHORS));
+		for(int i = 0; i < tagCount && anchors.size() < MAX_POS_ANCHORS; i++) {
+			PosType posType = lexicon.posTag(id, i).getPosType();
+			if(canOriginateSentence(posType)) {
+				anchors.add(posType);
+			}
 		}
-		int posTypeWordListSz = posTypeWordList.size();
-		String word = posTypeWordList.get(RAND_GEN.nextInt(posTypeWordListSz));
+		return anchors;
+	}
+	
+	/**
+	 * Generates a sentence from each PosType anchor in parallel, and keeps the 
+	 * highest scoring one, that of the earlier anchor on ties. Each anchor 
+	 * draws from its own context forked off context, seeded from context's 
+	 * stream, so the result doesn't depend on which thread ran which anchor.
+	 * @param anchors
+	 * @param context
+	 * @param anchorGenerator generates sentence from an anchor and its context.
+	 * @return null if no anchor gives a sentence.
+	 */
+	static GeneratedSentence generateFromAnchors(List<PosType> anchors, GenerationContext context,
+			BiFunction<PosType, GenerationContext, GeneratedSentence> anchorGenerator) {
 		
-		/*int maxIter = 15;
-		//prototype slow!!
-		while('s' != word.charAt(0)) {
-			if(--maxIter < 1) {
-				break;
+		long baseSeed = context.rand().nextLong();
+		GeneratedSentence[] sentences = new GeneratedSentence[anchors.size()];
+		IntStream.range(0, anchors.size()).parallel().forEach(i -> sentences[i] 
+				= anchorGenerator.apply(anchors.get(i), context.fork(SentenceGenerator.itemSeed(baseSeed, i))));
+		
+		GeneratedSentence bestSentence = null;
+		for(int i = 0; i < sentences.length; i++) {
+			GeneratedSentence sentence = sentences[i];
+			if(context.tracing()) context.trace("anchor " + anchors.get(i) + " score: " 
+				+ (null == sentence ? "none" : sentence.score()));
+			if(null != sentence && (null == bestSentence || sentence.score() > bestSentence.score())) {
+				bestSentence = sentence;
 			}
-			word = posTypeWordList.get(RAND_GEN.nextInt(posTypeWordListSz));
-		}*/
-		return word;
+		}
+		if(null == bestSentence) {
+			return null;
+		}
+		//carry seed of context rather than of the anchor's, so it replays the whole call
+		return new GeneratedSentence(bestSentence.sentence(), bestSentence.score(), bestSentence.posTypeList(),
+				bestSentence.wordsList(), context.seed());
 	}
 	
-	public static Map<PosTypeName, SearchableList<Integer>> posTypePCProbMap(){
-		return posTypePCProbMap;
-	}
-
 	/**
-	 * Map of words (current count: 41k) and their part of speech.
+	 * Whether sentences can be generated from an origin of posType. Trees 
+	 * from NONE or PUNCT never get children, so never contain a verb, and
+	 * generateSentence would not return.
+	 * @param posType
+	 * @return
 	 */
-	public static Map<String, PosType> wordPosTypeMap(){
-		return wordPosTypeMap;
+	public static boolean canOriginateSentence(PosType posType) {
+		return posType != PosType.NONE && posType != PosType.PUNCT;
 	}
 	
 	/**
@@ -281,42 +480,142 @@ public class Story {
 	 * @return
 	 */
 	public static String createSentence(PosType posType, String posTypeWord) {
+		return createSentence(posType, posTypeWord, GenerationContext.forCurrentThread());
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word. If both non-null,
+	 * they are assumed to be consistent.
+	 * @param posType
+	 * @param posTypeWord Word of that posType
+	 * @param context
+	 * @return
+	 */
+	public static String createSentence(PosType posType, String posTypeWord, GenerationContext context) {
+		return generateSentence(posType, posTypeWord, context).sentence();
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word, along with its score,
+	 * PosType's and words. If both non-null, they are assumed to be consistent.
+	 * @param posType
+	 * @param posTypeWord Word of that posType
+	 * @param context
+	 * @return
+	 */
+	public static GeneratedSentence generateSentence(PosType posType, String posTypeWord, GenerationContext context) {
+		return generateSentence(posType, posTypeWord, context, SearchStrategy.SAMPLING);
+	}
+	
+	/**
+	 * Create sentence from given posType and/or word, along with its score,
+	 * PosType's and words, using given search strategy. If both non-null, 
+	 * they are assumed to be consistent. If only word is given, and it has several
+	 * pos, sentences are generated with it as each, see posAnchors, and the 
+	 * best one kept. If context has a word count target,
+	 * trees are grown to it, and the sentence is only outside it if no tree 
+	 * grown within MAX_TARGET_TREES has a verb and the target word count.
+	 * @param posType
+	 * @param posTypeWord Word of that posType
+	 * @param context
+	 * @param strategy
+	 * @return
+	 */
+	public static GeneratedSentence generateSentence(PosType posType, String posTypeWord, GenerationContext context,
+			SearchStrategy strategy) {
+		if(null == posType && null != posTypeWord) {
+			List<PosType> anchors = posAnchors(posTypeWord);
+			if(anchors.size() > 1) {
+				return generateFromAnchors(anchors, context, 
+						(anchor, anchorContext) -> generateSentence(anchor, posTypeWord, anchorContext, strategy));
+			}else if(anchors.size() == 1) {
+				posType = anchors.get(0);
+			}
+		}
+		if(strategy == SearchStrategy.BEAM) {
+			return BeamSearch.generateSentence(posType, posTypeWord, context);
+		}
 		//treemap to keep track of scores of various pos.
-		TreeMap<Double, Pos> scorePosTMap = new TreeMap<Double, Pos>();
+		TreeMap<Double, PosTree> scoreTreeTMap = new TreeMap<Double, PosTree>();
 		//List<String> posStringList = new ArrayList<String>();
 		double topScore = 0.;
+		boolean hasWordCountTarget = context.hasWordCountTarget();
+		//best tree outside the word count target or without verb, in case none is in it
+		PosTree fallbackTree = null;
+		double fallbackScore = -1;
+		int targetTreesLeft = MAX_TARGET_TREES;
+		SentenceMetrics sentenceMetrics = context.metrics().startSentence();
 		
 		int maxIter = 10;
-		while(--maxIter > 0 || scorePosTMap.isEmpty() || topScore < 0.9) {
-			//PosType posType = PosType.VERB;
-			//origin of tree, the supplied entry point, *not* root
-			Pos originPos;
-			if(null != posType && null != posTypeWord){
-				originPos = Pos.createSentenceTree(posType, posTypeWord);
-			}else if(null != posTypeWord) {
-				originPos = Pos.createSentenceTree(posTypeWord);
-			}else {
-				originPos = Pos.createSentenceTree(posType);
-			}
-			
-			double initialScore = ScoreTree.MAX_TREE_SCORE;
-			
-			if(!Pos.treeContainsVerb(originPos)) {
-				if(DEBUG) System.out.println("~~~~~~~ ++++ NO VERB ++++ ");
-				continue;				
-			}
-			//arrange tree into a sentence based on 
-			String sentence = Pos.arrangePosStr(originPos);
-			double score = ScoreTree.computeTreeScore(originPos, initialScore);
-			topScore = score > topScore ? score : topScore;
-			
-			if(DEBUG) {
-				System.out.println("current sentence: " + sentence);
-				System.out.println("score: " + score);				
-				System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ ");
+		//the bound is only for this loop's trees, restored for later uses of context
+		double callerMinScore = context.minScore();
+		try {
+			while(--maxIter > 0 || scoreTreeTMap.isEmpty() || topScore < 0.9) {
+				if(hasWordCountTarget && --targetTreesLeft < 0 
+						&& (!scoreTreeTMap.isEmpty() || null != fallbackTree)) {
+					break;
+				}
+				//trees that can't beat the top score are abandoned while growing
+				context.setMinScore(topScore);
+				//PosType posType = PosType.VERB;
+				//origin of tree, the supplied entry point, *not* root
+				long mark = sentenceMetrics.mark();
+				PosTree tree;
+				if(null != posType && null != posTypeWord){
+					tree = Pos.createPosTree(posType, posTypeWord, context);
+				}else if(null != posTypeWord) {
+					tree = Pos.createPosTree(posTypeWord, context);
+				}else {
+					tree = Pos.createPosTree(posType, context);
+				}
+				sentenceMetrics.grown(mark);
+				
+				double initialScore = ScoreTree.MAX_TREE_SCORE;
+				
+				if(tree.isPruned()) {
+					sentenceMetrics.rejected(Rejection.PRUNED);
+					continue;
+				}
+				if(hasWordCountTarget && (!tree.containsVerb() || !context.isTargetWordCount(tree.size()))) {
+					if(context.tracing()) context.trace("~~~~~~~ ++++ NO VERB OR NOT " + context.minWordCount() 
+						+ "-" + context.maxWordCount() + " WORDS ++++ ");
+					sentenceMetrics.rejected(tree.containsVerb() ? Rejection.WORD_COUNT : Rejection.NO_VERB);
+					mark = sentenceMetrics.mark();
+					tree.arrange(context.rand());
+					sentenceMetrics.arranged(mark);
+					mark = sentenceMetrics.mark();
+					double score = ScoreTree.computeTreeScore(tree, initialScore);
+					sentenceMetrics.scored(mark);
+					if(score > fallbackScore) {
+						fallbackScore = score;
+						fallbackTree = tree;
+					}
+					continue;
+				}
+				if(!tree.containsVerb()) {
+					if(context.tracing()) context.trace("~~~~~~~ ++++ NO VERB ++++ ");
+					sentenceMetrics.rejected(Rejection.NO_VERB);
+					continue;				
+				}
+				//arrange tree into a sentence based on 
+				mark = sentenceMetrics.mark();
+				String sentence = tree.arrange(context.rand());
+				sentenceMetrics.arranged(mark);
+				mark = sentenceMetrics.mark();
+				double score = ScoreTree.computeTreeScore(tree, initialScore);
+				sentenceMetrics.scored(mark);
+				topScore = score > topScore ? score : topScore;
+				
+				if(context.tracing()) {
+					context.trace("current sentence: " + sentence);
+					context.trace("score: " + score);				
+					context.trace(" ~~~~~~~~~~~~~~~~~~~~~~ ");
+				}
+				
+				scoreTreeTMap.put(score, tree);
 			}
-			
-			scorePosTMap.put(score, originPos);
+		}finally {
+			context.setMinScore(callerMinScore);
 		}
 		
 		/**
@@ -329,24 +628,42 @@ public class Story {
 			}
 		 */
 		
-		Map.Entry<Double, Pos> mapEntry = scorePosTMap.floorEntry(ScoreTree.MAX_TREE_SCORE);
-		Pos winningRootPos = mapEntry.getValue();
-		String sentence = winningRootPos.subTreePhrase();
-		List<PosType> posTypeList = winningRootPos.subTreePosList();
+		if(scoreTreeTMap.isEmpty()) {
+			sentenceMetrics.finished(fallbackTree, fallbackScore, true);
+			return createGeneratedSentence(fallbackTree, fallbackScore, context);
+		}
+		Map.Entry<Double, PosTree> mapEntry = scoreTreeTMap.floorEntry(ScoreTree.MAX_TREE_SCORE);
+		sentenceMetrics.finished(mapEntry.getValue(), mapEntry.getKey(), false);
+		return createGeneratedSentence(mapEntry.getValue(), mapEntry.getKey(), context);
+	}
+	
+	/**
+	 * GeneratedSentence from winning arranged tree.
+	 * @param winningTree
+	 * @param score
+	 * @param context
+	 * @return
+	 */
+	static GeneratedSentence createGeneratedSentence(PosTree winningTree, double score, GenerationContext context) {
+		String sentence = winningTree.sentence();
+		List<PosType> posTypeList = winningTree.posTypeList();
 		//e.g. "is verboten divine "
 		if(posTypeList.get(0) == PosType.AUX) {
 			sentence += "?";
 		}
-		System.out.println("posTypeList: " + posTypeList);
-		System.out.println("score: " + mapEntry.getKey());
+		if(context.tracing()) {
+			context.trace("posTypeList: " + posTypeList);
+			context.trace("score: " + score);
+		}
 		
-		return sentence;
+		return new GeneratedSentence(sentence, score, posTypeList, winningTree.wordsList(), context.seed());
 	}
 	
 	//create story, connecting input words and prob
 	public static void main(String[] args) {
 		//guess pos for the input words using pos tagger, 
 		
+		SentenceGenerator generator = new SentenceGenerator(GenerationTracer.fromSystemProperty());
 		Scanner sc = new Scanner(System.in);
 		while(sc.hasNextLine()) {
 			String line = sc.nextLine();
@@ -359,13 +676,27 @@ public class Story {
 				break;
 			}
 			PosType posType = PosTypeName.getTypeFromName(type.toUpperCase()).getPosType();
-			if(posType == PosType.NONE) {
+			if(!canOriginateSentence(posType)) {
 				System.out.println("Please enter a valid PosType");
 				continue;
 			}
+			//e.g. "VERB beam", or "VERB 42" to replay seed 42
+			SearchStrategy strategy = SearchStrategy.SAMPLING;
+			Long seed = null;
+			for(int i = 1; i < lineAr.length; i++) {
+				if("beam".equals(lineAr[i])) {
+					strategy = SearchStrategy.BEAM;
+				}else if(StoryUtils.INTEGER_PATT.matcher(lineAr[i]).matches()) {
+					seed = Long.parseLong(lineAr[i]);
+				}
+			}
 			
-			String sentence = createSentence(posType, null);
-			System.out.println("top sentence: " + sentence);
+			GeneratedSentence sentence = null == seed ? generator.generate(posType, null, strategy)
+					: generator.generate(posType, null, strategy, seed);
+			System.out.println("top sentence: " + sentence.sentence());
+			System.out.println("posTypeList: " + sentence.posTypeList());
+			System.out.println("score: " + sentence.score());
+			System.out.println("seed: " + sentence.seed());
 			
 			System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ ");
 		}
@@ -0,0 +1,465 @@
+package story;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import story.Pos.PosType;
+import story.Pos.PosType.PosTypeName;
+import story.Story.SearchStrategy;
+import utils.StoryUtils;
+
+/**
+ * Standalone HTTP server for generating sentences, as alternative to
+ * deploying story.jar in a servlet container. The model is loaded once
+ * at startup, and requests share one SentenceGenerator. Requests without
+ * a seed are served from a SentenceReservoir if from a PosType alone, and 
+ * from a SentenceCache otherwise. Each request runs on its own virtual 
+ * thread when the JDK supports them (21+).
+ * Endpoints, GET only, responding with JSON of the sentence, its score,
+ * PosType's, words and seed:
+ * /sentence?pos=VERB[&strategy=beam][&seed=42][&words=7] generates from a PosType, as Story,
+ * words being an exact word count or a range such as 5-8.
+ * /tell?word=orange[&seed=42] generates a sentence containing word, as TellStory.
+ * /stats responds with the cache and reservoir counters.
+ * /metrics responds with the GenerationMetrics of generation on request, also available 
+ * over JMX. The reservoir's background refills record into metrics of their own.
+ *
+ * @author yihed
+ *
+ */
+public class StoryServer {
+
+	public static final int DEFAULT_PORT = 8080;
+	/**MBean name of the metrics of the default reservoir's refills*/
+	public static final String RESERVOIR_METRICS_NAME = GenerationMetrics.OBJECT_NAME + ",name=reservoir";
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	//max number of connections waiting to be accepted
+	private static final int CONNECTION_BACKLOG = 1024;
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_BAD_REQUEST = 400;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_BAD_METHOD = 405;
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final SentenceGenerator generator;
+	private final SentenceCache cache;
+	private final SentenceReservoir reservoir;
+
+	/**
+	 * Generates sentence for the query parameters of a request.
+	 */
+	private interface SentenceSource{
+		/**
+		 * @param params
+		 * @return null if there is no sentence for params.
+		 * @throws IllegalArgumentException if params are invalid.
+		 */
+		GeneratedSentence generate(Map<String, String> params);
+	}
+
+	/**
+	 * Server bound to address, not started yet, with a default SentenceCache
+	 * and SentenceReservoir. The reservoir refills with a generator of the same
+	 * tracer, recording into metrics registered as RESERVOIR_METRICS_NAME.
+	 * @param address_
+	 * @param generator_
+	 * @throws IOException if address can't be bound.
+	 */
+	public StoryServer(InetSocketAddress address_, SentenceGenerator generator_) throws IOException {
+		this(address_, generator_, createReservoirGenerator(generator_));
+	}
+	
+	/**
+	 * Server bound to address, not started yet, with a default SentenceCache
+	 * and SentenceReservoir.
+	 * @param address_
+	 * @param generator_ generator of requests.
+	 * @param reservoirGenerator_ generator of the reservoir's refills, recording 
+	 * into other metrics than generator_.
+	 * @throws IOException if address can't be bound.
+	 */
+	public StoryServer(InetSocketAddress address_, SentenceGenerator generator_, 
+			SentenceGenerator reservoirGenerator_) throws IOException {
+		this(address_, new SentenceCache(generator_), new SentenceReservoir(reservoirGenerator_));
+	}
+	
+	/**
+	 * Server bound to address, not started yet. The reservoir is started
+	 * and closed along with the server.
+	 * @param address_
+	 * @param cache_ cache of the generator to serve requests from.
+	 * @param reservoir_ reservoir not started yet, of a generator recording into 
+	 * other metrics than the cache's, so /metrics only reports generation on request.
+	 * @throws IOException if address can't be bound.
+	 */
+	public StoryServer(InetSocketAddress address_, SentenceCache cache_, SentenceReservoir reservoir_) 
+			throws IOException {
+		if(null == cache_ || null == reservoir_) {
+			throw new IllegalArgumentException("cache and reservoir cannot be null.");
+		}
+		GenerationMetrics metrics = cache_.generator().metrics();
+		if(metrics.isEnabled() && metrics == reservoir_.generator().metrics()) {
+			throw new IllegalArgumentException("reservoir cannot record into the metrics of the cache's generator.");
+		}
+		this.cache = cache_;
+		this.reservoir = reservoir_;
+		this.generator = cache_.generator();
+		this.executor = createRequestExecutor();
+		this.server = HttpServer.create(address_, CONNECTION_BACKLOG);
+		this.server.setExecutor(executor);
+		this.server.createContext("/sentence", exchange -> handle(exchange, this::generateFromPos));
+		this.server.createContext("/tell", exchange -> handle(exchange, this::generateFromWord));
+		this.server.createContext("/stats", this::handleStats);
+		this.server.createContext("/metrics", this::handleMetrics);
+	}
+
+	/**
+	 * Generator for the reservoir, with the tracer of generator, and metrics of 
+	 * its own, unless generator's are disabled.
+	 * @param generator
+	 * @return
+	 */
+	private static SentenceGenerator createReservoirGenerator(SentenceGenerator generator) {
+		if(!generator.metrics().isEnabled()) {
+			return new SentenceGenerator(new SplittableRandom().nextLong(), generator.tracer(), 
+					GenerationMetrics.DISABLED);
+		}
+		GenerationMetrics metrics = new GenerationMetrics();
+		try {
+			metrics.registerMBean(RESERVOIR_METRICS_NAME);
+		}catch(IllegalStateException e) {
+			//e.g. taken by another server in this JVM
+			System.out.println("StoryServer - could not register reservoir metrics: " + e.getCause());
+		}
+		return new SentenceGenerator(new SplittableRandom().nextLong(), generator.tracer(), metrics);
+	}
+
+	/**
+	 * Virtual thread per request if available, looked up reflectively so this
+	 * still builds and runs on JDK 17. Otherwise one platform thread per core,
+	 * since generation is CPU bound, and more threads would only contend.
+	 * @return
+	 */
+	private static ExecutorService createRequestExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}catch(ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	public void start() {
+		reservoir.start();
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, and waits up to delaySeconds for current ones to finish.
+	 * @param delaySeconds
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+		reservoir.close();
+	}
+
+	public InetSocketAddress address() {
+		return server.getAddress();
+	}
+
+	private GeneratedSentence generateFromPos(Map<String, String> params) {
+		String posTypeStr = params.get("pos");
+		if(null == posTypeStr) {
+			throw new IllegalArgumentException("pos is required, e.g. pos=VERB.");
+		}
+		PosType posType = PosTypeName.getTypeFromName(posTypeStr.toUpperCase()).getPosType();
+		if(!Story.canOriginateSentence(posType)) {
+			throw new IllegalArgumentException("Invalid pos: " + posTypeStr);
+		}
+		String strategyStr = params.get("strategy");
+		SearchStrategy strategy;
+		if(null == strategyStr || "sampling".equals(strategyStr)) {
+			strategy = SearchStrategy.SAMPLING;
+		}else if("beam".equals(strategyStr)) {
+			strategy = SearchStrategy.BEAM;
+		}else {
+			throw new IllegalArgumentException("strategy must be sampling or beam.");
+		}
+		Long seed = parseSeed(params);
+		int[] wordCountRange = parseWordCountRange(params);
+		if(null != wordCountRange) {
+			//not served from the reservoir or cache, which hold sentences of any length
+			return null == seed 
+					? generator.generate(posType, null, strategy, wordCountRange[0], wordCountRange[1])
+					: generator.generate(posType, null, strategy, wordCountRange[0], wordCountRange[1], seed);
+		}
+		if(null != seed) {
+			return generator.generate(posType, null, strategy, seed);
+		}
+		if(strategy == SearchStrategy.SAMPLING) {
+			GeneratedSentence sentence = reservoir.poll(posType);
+			if(null != sentence) {
+				return sentence;
+			}
+		}
+		return cache.generate(posType, null, strategy);
+	}
+
+	private GeneratedSentence generateFromWord(Map<String, String> params) {
+		String word = params.get("word");
+		if(null == word) {
+			throw new IllegalArgumentException("word is required, e.g. word=orange.");
+		}
+		Long seed = parseSeed(params);
+		return null == seed ? cache.tell(word) : generator.tell(word, seed);
+	}
+
+	private static Long parseSeed(Map<String, String> params) {
+		String seedStr = params.get("seed");
+		if(null == seedStr) {
+			return null;
+		}
+		if(!StoryUtils.INTEGER_PATT.matcher(seedStr).matches()) {
+			throw new IllegalArgumentException("seed must be an integer.");
+		}
+		return Long.parseLong(seedStr);
+	}
+
+	/**
+	 * Parses words parameter, e.g. "7" or "5-8".
+	 * @param params
+	 * @return min and max word count, null if no words parameter.
+	 */
+	private static int[] parseWordCountRange(Map<String, String> params) {
+		String wordsStr = params.get("words");
+		if(null == wordsStr) {
+			return null;
+		}
+		int dashIndex = wordsStr.indexOf('-');
+		String minStr = dashIndex < 0 ? wordsStr : wordsStr.substring(0, dashIndex);
+		String maxStr = dashIndex < 0 ? wordsStr : wordsStr.substring(dashIndex+1);
+		if(!StoryUtils.INTEGER_PATT.matcher(minStr).matches() || !StoryUtils.INTEGER_PATT.matcher(maxStr).matches()
+				|| minStr.length() > 4 || maxStr.length() > 4) {
+			throw new IllegalArgumentException("words must be a word count or range, e.g. 7 or 5-8.");
+		}
+		return new int[] {Integer.parseInt(minStr), Integer.parseInt(maxStr)};
+	}
+
+	private static void handle(HttpExchange exchange, SentenceSource source) throws IOException {
+		try {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, HTTP_BAD_METHOD, errorJson("Only GET is supported."));
+				return;
+			}
+			int status;
+			String body;
+			try {
+				GeneratedSentence sentence = source.generate(parseQuery(exchange.getRequestURI().getRawQuery()));
+				if(null == sentence) {
+					status = HTTP_NOT_FOUND;
+					body = errorJson("No sentence for this word, please try another.");
+				}else {
+					status = HTTP_OK;
+					body = toJson(sentence);
+				}
+			}catch(IllegalArgumentException e) {
+				status = HTTP_BAD_REQUEST;
+				body = errorJson(e.getMessage());
+			}catch(Throwable e) {
+				//also Error's, e.g. from a model holder failing to initialize, which
+				//would otherwise drop the connection with no response and nothing logged
+				e.printStackTrace();
+				status = HTTP_SERVER_ERROR;
+				body = errorJson("Generation failed.");
+			}
+			send(exchange, status, body);
+		}finally {
+			exchange.close();
+		}
+	}
+
+	private void handleStats(HttpExchange exchange) throws IOException {
+		try {
+			String body = String.format("{\"keys\":%d,\"hits\":%d,\"misses\":%d,\"hitRate\":%s,\"evictions\":%d,"
+					+ "\"reservoirHits\":%d,\"reservoirMisses\":%d}",
+					cache.size(), cache.hitCount(), cache.missCount(), cache.hitRate(), cache.evictionCount(),
+					reservoir.hitCount(), reservoir.missCount());
+			send(exchange, HTTP_OK, body);
+		}finally {
+			exchange.close();
+		}
+	}
+	
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try {
+			send(exchange, HTTP_OK, toJson(generator.metrics().snapshot()));
+		}finally {
+			exchange.close();
+		}
+	}
+	
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Parses query string of a URI, e.g. "pos=VERB&seed=42".
+	 * @param rawQuery still percent-encoded, may be null.
+	 * @return map of decoded names to values, last value wins for repeated names.
+	 */
+	static Map<String, String> parseQuery(String rawQuery){
+		Map<String, String> params = new HashMap<String, String>();
+		if(null == rawQuery || rawQuery.isEmpty()) {
+			return params;
+		}
+		for(String param : rawQuery.split("&")) {
+			int equalsIndex = param.indexOf('=');
+			if(equalsIndex < 1) {
+				continue;
+			}
+			params.put(URLDecoder.decode(param.substring(0, equalsIndex), StandardCharsets.UTF_8),
+					URLDecoder.decode(param.substring(equalsIndex+1), StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	/**
+	 * E.g. {"sentence":"...","score":0.97,"posTypes":["VERB",...],"words":[...],"seed":42}
+	 * @param sentence
+	 * @return
+	 */
+	static String toJson(GeneratedSentence sentence) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"sentence\":");
+		appendJsonString(sb, sentence.sentence().trim());
+		sb.append(",\"score\":").append(sentence.score());
+		sb.append(",\"posTypes\":[");
+		List<PosType> posTypeList = sentence.posTypeList();
+		for(int i = 0; i < posTypeList.size(); i++) {
+			if(i > 0) {
+				sb.append(',');
+			}
+			appendJsonString(sb, posTypeList.get(i).toString());
+		}
+		sb.append("],\"words\":[");
+		List<String> wordsList = sentence.wordsList();
+		for(int i = 0; i < wordsList.size(); i++) {
+			if(i > 0) {
+				sb.append(',');
+			}
+			appendJsonString(sb, wordsList.get(i));
+		}
+		sb.append("],\"seed\":").append(sentence.seed()).append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * E.g. {"sentences":100,"fallbackSentences":0,"trees":1650,"rejections":{"PRUNED":1200,...},
+	 * "attemptsPerSentence":{"count":100,"mean":16.5,"max":40,"p50":16,"p90":24,"p99":48},...}
+	 * with latencies in nanoseconds.
+	 * @param snapshot
+	 * @return
+	 */
+	static String toJson(GenerationMetrics.Snapshot snapshot) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\"sentences\":").append(snapshot.sentences());
+		sb.append(",\"fallbackSentences\":").append(snapshot.fallbackSentences());
+		sb.append(",\"trees\":").append(snapshot.trees());
+		sb.append(",\"rejections\":{");
+		for(GenerationMetrics.Rejection rejection : GenerationMetrics.Rejection.values()) {
+			if(rejection.ordinal() > 0) {
+				sb.append(',');
+			}
+			appendJsonString(sb, rejection.name());
+			sb.append(':').append(snapshot.rejections(rejection));
+		}
+		sb.append("},\"rejectedFraction\":").append(snapshot.rejectedFraction());
+		sb.append(",\"deduplicatedSentences\":").append(snapshot.deduplicatedSentences());
+		sb.append(",\"duplicateSentences\":").append(snapshot.duplicateSentences());
+		sb.append(",\"duplicateRate\":").append(snapshot.duplicateRate());
+		appendJsonHistogram(sb, "attemptsPerSentence", snapshot.attemptsPerSentence());
+		appendJsonHistogram(sb, "score", snapshot.score());
+		appendJsonHistogram(sb, "treeSize", snapshot.treeSize());
+		appendJsonHistogram(sb, "sentenceNanos", snapshot.sentenceNanos());
+		appendJsonHistogram(sb, "growNanos", snapshot.growNanos());
+		appendJsonHistogram(sb, "arrangeNanos", snapshot.arrangeNanos());
+		appendJsonHistogram(sb, "scoreNanos", snapshot.scoreNanos());
+		return sb.append('}').toString();
+	}
+
+	private static void appendJsonHistogram(StringBuilder sb, String name, GenerationMetrics.HistogramSnapshot histogram) {
+		sb.append(',');
+		appendJsonString(sb, name);
+		sb.append(":{");
+		boolean first = true;
+		for(Map.Entry<String, Double> entry : histogram.summary().entrySet()) {
+			if(!first) {
+				sb.append(',');
+			}
+			first = false;
+			appendJsonString(sb, entry.getKey());
+			sb.append(':').append(entry.getValue());
+		}
+		sb.append('}');
+	}
+
+	private static String errorJson(String message) {
+		StringBuilder sb = new StringBuilder(64);
+		sb.append("{\"error\":");
+		appendJsonString(sb, message);
+		return sb.append('}').toString();
+	}
+
+	private static void appendJsonString(StringBuilder sb, String str) {
+		sb.append('"');
+		int strLen = str.length();
+		for(int i = 0; i < strLen; i++) {
+			char c = str.charAt(i);
+			if(c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			}else if(c < 0x20) {
+				sb.append(String.format("\\u%04x", (int)c));
+			}else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * @param args optional port, DEFAULT_PORT if absent.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		//load model before accepting requests, rather than on the first one
+		Story.loadModel();
+
+		StoryServer storyServer = new StoryServer(new InetSocketAddress(port),
+				new SentenceGenerator(GenerationTracer.fromSystemProperty()));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> storyServer.stop(1)));
+		storyServer.start();
+		System.out.println("Story server listening on port " + storyServer.address().getPort());
+	}
+}
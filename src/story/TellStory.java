@@ -1,10 +1,13 @@
 package story;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.TreeMap;
 
+import story.GenerationMetrics.Rejection;
+import story.GenerationMetrics.SentenceMetrics;
 import story.Pos.PosType;
 import utils.StoryUtils;
 
@@ -22,6 +25,7 @@ public class TellStory {
 		
 		System.out.println("Please enter an English word: ");
 		
+		SentenceGenerator generator = new SentenceGenerator(GenerationTracer.fromSystemProperty());
 		Scanner sc = new Scanner(System.in);
 		while(sc.hasNextLine()) {
 			String line = sc.nextLine();
@@ -34,105 +38,146 @@ public class TellStory {
 				break;
 			}
 			
-			PosType targetPosType = Story.wordPosTypeMap().get(inputWord);
-			
 			//PosType posType = PosTypeName.getTypeFromName(word.toUpperCase()).getPosType();
-			if(null == targetPosType) {
+			if(Story.posAnchors(inputWord).isEmpty()) {
 				System.out.println("Sorry, don't know that word. Please enter another word.");
 				continue;
 			}
+			//e.g. "orange 42" to replay seed 42
+			GeneratedSentence sentence = lineAr.length > 1 && StoryUtils.INTEGER_PATT.matcher(lineAr[1]).matches()
+					? generator.tell(inputWord, Long.parseLong(lineAr[1])) : generator.tell(inputWord);
 			
-			//treemap to keep track of scores of various pos.
-			TreeMap<Double, Pos> scorePosTMap = new TreeMap<Double, Pos>();
-			//List<String> posStringList = new ArrayList<String>();
-			double topScore = 0.;
-			boolean inputPosEncountered = false;
-			
-			int maxIter = 15;
-			
-			while((!inputPosEncountered || --maxIter > 0) || scorePosTMap.isEmpty() || topScore < 0.97) {	
-				//PosType posType = PosType.VERB;
+			if(null == sentence) {
+				System.out.println("Sorry, please enter another word.");
+				continue;
+			}
+			System.out.println("top sentence: " + sentence.sentence());
+			System.out.println("posTypeList: " + sentence.posTypeList());
+			System.out.println("score: " + sentence.score());
+			System.out.println("seed: " + sentence.seed());
+			System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ ");
+			System.out.println("Please enter an English word: ");
+		}
+		sc.close();
+	}
+	
+	/**
+	 * Create sentence containing inputWord, by growing trees from its PosType 
+	 * and substituting inputWord for the first Pos of that PosType. If inputWord
+	 * has several pos, e.g. "play", a sentence is created for each in parallel, 
+	 * see Story.posAnchors, and the best one kept.
+	 * @param inputWord
+	 * @param context
+	 * @return null if inputWord is not in the vocabulary, or no sentence
+	 * can be grown from its PosType's, e.g. punctuation.
+	 */
+	public static GeneratedSentence generateSentence(String inputWord, GenerationContext context) {
+		
+		List<PosType> anchors = Story.posAnchors(inputWord);
+		if(anchors.isEmpty()) {
+			return null;
+		}else if(anchors.size() == 1) {
+			return generateSentence(inputWord, anchors.get(0), context);
+		}
+		return Story.generateFromAnchors(anchors, context, 
+				(anchor, anchorContext) -> generateSentence(inputWord, anchor, anchorContext));
+	}
+	
+	/**
+	 * Create sentence containing inputWord as targetPosType.
+	 * @param inputWord
+	 * @param targetPosType
+	 * @param context
+	 * @return null if no sentence contains targetPosType.
+	 */
+	private static GeneratedSentence generateSentence(String inputWord, PosType targetPosType, 
+			GenerationContext context) {
+		
+		//treemap to keep track of scores of various pos.
+		TreeMap<Double, PosTree> scoreTreeTMap = new TreeMap<Double, PosTree>();
+		double topScore = 0.;
+		boolean inputPosEncountered = false;
+		SentenceMetrics sentenceMetrics = context.metrics().startSentence();
+		
+		int maxIter = 15;
+		
+		//the bound is only for this loop's trees, restored for later uses of context
+		double callerMinScore = context.minScore();
+		try {
+			while((!inputPosEncountered || --maxIter > 0) || scoreTreeTMap.isEmpty() || topScore < 0.97) {	
+				//trees that can't beat the top score are abandoned while growing
+				context.setMinScore(topScore);
 				//origin of tree, the supplied entry point, *not* root
-				Pos originPos = Pos.createSentenceTree(targetPosType);
+				long mark = sentenceMetrics.mark();
+				PosTree tree = Pos.createPosTree(targetPosType, context);
+				sentenceMetrics.grown(mark);
 				double initialScore = ScoreTree.MAX_TREE_SCORE;
 				
-				if(!Pos.treeContainsVerb(originPos)) {
-					System.out.println("~~~~~~~ ++++ NO VERB ++++ ");
+				if(tree.isPruned()) {
+					sentenceMetrics.rejected(Rejection.PRUNED);
+					continue;
+				}
+				if(!tree.containsVerb()) {
+					if(context.tracing()) context.trace("~~~~~~~ ++++ NO VERB ++++ ");
+					sentenceMetrics.rejected(Rejection.NO_VERB);
 					continue;
-					//initialScore = .6;					
-					//System.out.println("*** Trying again to find a verb!");					
 				}
+				//the origin is of targetPosType, so every tree has the input pos
+				inputPosEncountered = true;
 				
 				//arrange tree into a sentence based on 		
-				String sentence = Pos.arrangePosStr(originPos);
+				mark = sentenceMetrics.mark();
+				String sentence = tree.arrange(context.rand());
+				sentenceMetrics.arranged(mark);
 				//take sentence length into account
-				if(originPos.subTreeWordsList().size() < 5) {
+				if(tree.size() < 5) {
 					initialScore = 0.95;
 				}
-				double score = ScoreTree.computeTreeScore(originPos, initialScore);
+				mark = sentenceMetrics.mark();
+				double score = ScoreTree.computeTreeScore(tree, initialScore);
+				sentenceMetrics.scored(mark);
 				topScore = score > topScore ? score : topScore;
-				List<PosType> posTypeList = originPos.subTreePosList();
 				
-				boolean inputPosEncounteredLocal = false;
-				int posTypeListSz = posTypeList.size();
-				
-				for(int i = 0; i < posTypeListSz; i++) {
-					PosType posType = posTypeList.get(i);
-					//better to traverse the tree and substitute in place
-					if(targetPosType == posType) {
-						inputPosEncountered = true;
-						inputPosEncounteredLocal = true;
-					}
-				}
-				if(!inputPosEncounteredLocal) {
-					System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ input pos not encountered");
-					continue;
-				}
-				System.out.println("current sentence: " + sentence);
-				System.out.println("posTypeList: " + originPos.subTreePosList());
-				System.out.println("score: " + score);
-				
-				System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ ");
-				scorePosTMap.put(score, originPos);
-			}
-			
-			if(scorePosTMap.isEmpty()) {
-				System.out.println("Sorry, please enter another word.");
-				continue;
-			}
-			Map.Entry<Double, Pos> mapEntry = scorePosTMap.floorEntry(ScoreTree.MAX_TREE_SCORE);
-			Pos winningRootPos = mapEntry.getValue();
-			//String sentence = winningRootPos.subTreePhrase();
-			StringBuilder sentenceSb = new StringBuilder(100);
-			
-			List<PosType> posTypeList = winningRootPos.subTreePosList();	
-			List<String> wordsList = winningRootPos.subTreeWordsList();
-			
-			int posTypeListSz = posTypeList.size();
-			boolean wordReplaced = false;
-			
-			for(int i = 0; i < posTypeListSz; i++) {
-				PosType posType = posTypeList.get(i);
-				//better to traverse the tree and substitute in place
-				if(targetPosType == posType && !wordReplaced) {
-					sentenceSb.append(inputWord).append(" ");
-					wordReplaced = true;
-				}else {
-					sentenceSb.append(wordsList.get(i)).append(" ");
+				if(context.tracing()) {
+					context.trace("current sentence: " + sentence);
+					context.trace("posTypeList: " + tree.posTypeList());
+					context.trace("score: " + score);
+					context.trace(" ~~~~~~~~~~~~~~~~~~~~~~ ");
 				}
+				scoreTreeTMap.put(score, tree);
 			}
-			
-			//e.g. "is verboten divine "
-			if(posTypeList.get(0) == PosType.AUX) {
-				sentenceSb.append("?");
+		}finally {
+			context.setMinScore(callerMinScore);
+		}
+		
+		Map.Entry<Double, PosTree> mapEntry = scoreTreeTMap.floorEntry(ScoreTree.MAX_TREE_SCORE);
+		if(null == mapEntry) {
+			return null;
+		}
+		PosTree winningTree = mapEntry.getValue();
+		sentenceMetrics.finished(winningTree, mapEntry.getKey(), false);
+		StringBuilder sentenceSb = new StringBuilder(100);
+		
+		List<PosType> posTypeList = winningTree.posTypeList();	
+		List<String> wordsList = new ArrayList<String>(winningTree.wordsList());
+		
+		int posTypeListSz = posTypeList.size();
+		boolean wordReplaced = false;
+		
+		for(int i = 0; i < posTypeListSz; i++) {
+			//better to traverse the tree and substitute in place
+			if(targetPosType == posTypeList.get(i) && !wordReplaced) {
+				wordsList.set(i, inputWord);
+				wordReplaced = true;
 			}
-			
-			System.out.println("top sentence: " + sentenceSb.toString());
-			System.out.println("posTypeList: " + posTypeList);
-			System.out.println("score: " + mapEntry.getKey());
-			System.out.println(" ~~~~~~~~~~~~~~~~~~~~~~ ");
-			System.out.println("Please enter an English word: ");
+			sentenceSb.append(wordsList.get(i)).append(" ");
 		}
-		sc.close();
+		
+		//e.g. "is verboten divine "
+		if(posTypeList.get(0) == PosType.AUX) {
+			sentenceSb.append("?");
+		}
+		return new GeneratedSentence(sentenceSb.toString(), mapEntry.getKey(), posTypeList, wordsList, 
+				context.seed());
 	}
 }
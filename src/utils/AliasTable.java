@@ -0,0 +1,108 @@
+package utils;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Alias table (Vose's method) for drawing an index with probability
+ * proportional to its weight, in constant time and without allocation.
+ * Table is immutable once built, so can be shared across threads.
+ *
+ * @author yihed
+ *
+ */
+public class AliasTable {
+
+	//probability of keeping column i rather than taking its alias
+	private final double[] prob;
+	private final int[] alias;
+	//weight of each index over total weight
+	private final double[] probabilities;
+
+	/**
+	 * Builds table from non-negative weights, at least one of which is positive.
+	 * Zero weights are never drawn.
+	 * @param weights
+	 */
+	public AliasTable(int[] weights) {
+		int n = weights.length;
+		if(0 == n) {
+			throw new IllegalArgumentException("weights cannot be empty.");
+		}
+		long totalWeight = 0;
+		for(int weight : weights) {
+			if(weight < 0) {
+				throw new IllegalArgumentException("weights must be non-negative.");
+			}
+			totalWeight += weight;
+		}
+		if(0 == totalWeight) {
+			throw new IllegalArgumentException("weights must have positive sum.");
+		}
+		this.prob = new double[n];
+		this.alias = new int[n];
+		this.probabilities = new double[n];
+
+		//weights scaled so average column is 1
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for(int i = 0; i < n; i++) {
+			probabilities[i] = weights[i] / (double)totalWeight;
+			scaled[i] = probabilities[i] * n;
+			if(scaled[i] < 1) {
+				small[smallCount++] = i;
+			}else {
+				large[largeCount++] = i;
+			}
+		}
+		//fill each underfull column with the overflow of a full one
+		while(smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount];
+			int l = large[--largeCount];
+			prob[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if(scaled[l] < 1) {
+				small[smallCount++] = l;
+			}else {
+				large[largeCount++] = l;
+			}
+		}
+		//remaining columns are full, up to rounding
+		while(largeCount > 0) {
+			prob[large[--largeCount]] = 1;
+		}
+		while(smallCount > 0) {
+			prob[small[--smallCount]] = 1;
+		}
+	}
+
+	/**
+	 * Draws an index, with probability proportional to its weight.
+	 * @param rand
+	 * @return index between 0 (inclusive) and size() (exclusive).
+	 */
+	public int sample(RandomGenerator rand) {
+		int column = rand.nextInt(prob.length);
+		return rand.nextDouble() < prob[column] ? column : alias[column];
+	}
+
+	/**
+	 * Probability of sample() drawing index.
+	 * @param index
+	 * @return
+	 */
+	public double probability(int index) {
+		return probabilities[index];
+	}
+	
+	/**
+	 * Number of weights, including zero ones.
+	 * @return
+	 */
+	public int size() {
+		return prob.length;
+	}
+}
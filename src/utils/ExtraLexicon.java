@@ -1,55 +1,49 @@
 package utils;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
-
 import story.Pos.PosType.PosTypeName;
 
 /**
  * Additional lexicon words not already in data, 
- * e.g. "where".
+ * e.g. "where". Added to the common words of the Lexicon, and the
+ * frequency of each word as each pos added as weight of its pos tags.
  * 
  * @author yihed
  */
 
 public class ExtraLexicon {
 
-	private static final ListMultimap<PosTypeName, String> commonPosWordListMultimap;
-	private static final Map<String, PosTypeName> wordPosTypeNameMap;
+	private static final String WORD_FREQ_PATH = "data/wordFrequency.txt";
 	
-	static {
-		//map of postype and words of that type.
-		commonPosWordListMultimap = ArrayListMultimap.create();
-		wordPosTypeNameMap = new HashMap<String, PosTypeName>();
-		String wordFreqFileStr = "data/wordFrequency.txt";
-		getStockFreq(wordFreqFileStr, commonPosWordListMultimap, wordPosTypeNameMap);
-		
+	/**
+	 * Adds the common words of each pos, in order of frequency, and the most
+	 * likely pos of each, to lexiconBuilder.
+	 * @param lexiconBuilder
+	 */
+	public static void addCommonWords(Lexicon.Builder lexiconBuilder) {
+		getStockFreq(WORD_FREQ_PATH, lexiconBuilder);
 	}
 	
-	private static void getStockFreq(String wordFreqFileStr,
-			ListMultimap<PosTypeName, String> commonPosWordMultimap, 
-			Map<String, PosTypeName> wordPosTypeNameMap) {
-		
-		List<String> lines = StoryUtils.readLinesFromFile(wordFreqFileStr);
+	private static void getStockFreq(String wordFreqFileStr, Lexicon.Builder lexiconBuilder) {
 		
-		for(String line : lines) {
-			String[] lineAr = StoryUtils.WHITE_NON_EMPTY_SPACE_PATT.split(line);					
-			if(lineAr.length < 4) continue;		
+		try(MappedLineReader lines = StoryUtils.readLines(wordFreqFileStr)){
+			for(CharSequence line : lines) {
+				String[] lineAr = StoryUtils.WHITE_NON_EMPTY_SPACE_PATT.split(line);					
+				if(lineAr.length < 4) continue;		
 			
-			// 2nd is word, 4rd is freq
-			String word = lineAr[1].trim();					
-			PosTypeName wordPosTypeName = getPos(lineAr[2].trim());	
-			if(wordPosTypeName == PosTypeName.NONE) {
-				continue;
-			}
-			commonPosWordMultimap.put(wordPosTypeName, word);	
-			//only get the most likely one, which appears first.
-			if(!wordPosTypeNameMap.containsKey(word)) {
-				wordPosTypeNameMap.put(word, wordPosTypeName);
+				// 2nd is word, 4rd is freq
+				String word = lineAr[1].trim();					
+				PosTypeName wordPosTypeName = getPos(lineAr[2].trim());	
+				if(wordPosTypeName == PosTypeName.NONE) {
+					continue;
+				}
+				lexiconBuilder.addCommonPosWord(wordPosTypeName, word);	
+				//only get the most likely one, which appears first.
+				lexiconBuilder.putCommonPosTypeNameIfAbsent(word, wordPosTypeName);
+				//but tag word with every pos, weighted by frequency
+				String freqStr = lineAr[3].trim();
+				int freq = StoryUtils.INTEGER_PATT.matcher(freqStr).matches() 
+						? (int)Math.min(Integer.MAX_VALUE, Math.max(0, Long.parseLong(freqStr))) : 0;
+				lexiconBuilder.addPosTag(word, wordPosTypeName, freq);
 			}
 		}		
 	}
@@ -147,17 +141,5 @@ public class ExtraLexicon {
 		
 		return PosTypeName.getTypeFromName(pos.toUpperCase());
 	}
-	
-	public static ListMultimap<PosTypeName, String> commonPosWordListMultimap() {
-		return commonPosWordListMultimap;
-	}
-	
-	/**
-	 * Retrieve map of common words and their most likely PosTypeName.
-	 * @return
-	 */
-	public static Map<String, PosTypeName> wordPosTypeNameMap(){
-		return wordPosTypeNameMap;
-	}
-	
+
 }
@@ -0,0 +1,583 @@
+package utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import story.Pos.PosType.PosTypeName;
+
+/**
+ * Compact lexicon, each distinct word stored once in one char array and
+ * referred to by an int id. Holds the words of each PosTypeName from the
+ * lexicon data, the common words of each PosTypeName from the word frequency
+ * data, as arrays of ids, and the PosTypeName of each word in either. Also
+ * holds all PosTypeName's each word is tagged with, weighted, e.g. both VERB
+ * and NOUN for "play".
+ * Strings are only created when a word is looked up by id, e.g. for output.
+ * Immutable once built, so can be shared across threads. Can be written
+ * and read back in bulk, e.g. as part of a model snapshot.
+ *
+ * @author yihed
+ *
+ */
+public class Lexicon {
+
+	/**id of words not in lexicon*/
+	public static final int NO_ID = -1;
+	private static final int[] NO_IDS = new int[0];
+	private static final byte NO_POS = -1;
+	private static final PosTypeName[] POS_TYPE_NAMES = PosTypeName.values();
+
+	//word i is chars[offsets[i]] up to chars[offsets[i+1]]
+	private final char[] chars;
+	private final int[] offsets;
+	//open addressing hash table of ids, NO_ID if empty, hashed as String.hashCode
+	private final int[] idTable;
+	//word ids of each PosTypeName, indexed by its ordinal
+	private final int[][] posWordIds;
+	private final int[][] commonPosWordIds;
+	//PosTypeName ordinal of each word, NO_POS if none
+	private final byte[] posOrdinals;
+	private final byte[] commonPosOrdinals;
+	//tags of word i are posTagOrdinals[posTagStarts[i]] up to posTagOrdinals[posTagStarts[i+1]], heaviest first
+	private final int[] posTagStarts;
+	private final byte[] posTagOrdinals;
+	private final int[] posTagWeights;
+
+	private Lexicon(char[] chars_, int[] offsets_, byte[] posOrdinals_, byte[] commonPosOrdinals_,
+			int[][] posWordIds_, int[][] commonPosWordIds_, int[] posTagStarts_, byte[] posTagOrdinals_, 
+			int[] posTagWeights_) {
+		int wordCount = offsets_.length - 1;
+		this.chars = chars_;
+		this.offsets = offsets_;
+		this.posOrdinals = posOrdinals_;
+		this.commonPosOrdinals = commonPosOrdinals_;
+		this.posWordIds = posWordIds_;
+		this.commonPosWordIds = commonPosWordIds_;
+		this.posTagStarts = posTagStarts_;
+		this.posTagOrdinals = posTagOrdinals_;
+		this.posTagWeights = posTagWeights_;
+
+		//at most half full, so probe sequences stay short
+		int tableSize = Integer.highestOneBit(Math.max(2, wordCount) * 2 - 1) << 1;
+		this.idTable = new int[tableSize];
+		Arrays.fill(idTable, NO_ID);
+		for(int id = 0; id < wordCount; id++) {
+			int slot = slot(hash(id));
+			while(NO_ID != idTable[slot]) {
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			idTable[slot] = id;
+		}
+	}
+
+	private static int[][] toArrays(IdList[] idLists) {
+		int[][] idArrays = new int[idLists.length][];
+		for(int i = 0; i < idLists.length; i++) {
+			idArrays[i] = null == idLists[i] ? NO_IDS : Arrays.copyOf(idLists[i].ids, idLists[i].size);
+		}
+		return idArrays;
+	}
+
+	private int slot(int hash) {
+		//spread high bits, as table index takes the low ones
+		return (hash ^ (hash >>> 16)) & (idTable.length - 1);
+	}
+
+	/**
+	 * Hash of word id, same as String.hashCode of the word.
+	 */
+	private int hash(int id) {
+		int hash = 0;
+		for(int i = offsets[id]; i < offsets[id+1]; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		return hash;
+	}
+
+	/**
+	 * Id of word.
+	 * @param word
+	 * @return NO_ID if word is not in lexicon.
+	 */
+	public int id(String word) {
+		int slot = slot(word.hashCode());
+		int id;
+		while(NO_ID != (id = idTable[slot])) {
+			if(matches(id, word)) {
+				return id;
+			}
+			slot = (slot + 1) & (idTable.length - 1);
+		}
+		return NO_ID;
+	}
+
+	private boolean matches(int id, String word) {
+		int offset = offsets[id];
+		if(offsets[id+1] - offset != word.length()) {
+			return false;
+		}
+		for(int i = 0; i < word.length(); i++) {
+			if(chars[offset + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Word with given id, as new String.
+	 * @param id
+	 * @return
+	 */
+	public String word(int id) {
+		return new String(chars, offsets[id], offsets[id+1] - offsets[id]);
+	}
+
+	/**
+	 * Appends word with given id to sb, without creating a String.
+	 * @param sb
+	 * @param id
+	 * @return sb
+	 */
+	public StringBuilder appendWord(StringBuilder sb, int id) {
+		return sb.append(chars, offsets[id], offsets[id+1] - offsets[id]);
+	}
+
+	int wordLength(int id) {
+		return offsets[id+1] - offsets[id];
+	}
+
+	char charAt(int id, int index) {
+		return chars[offsets[id] + index];
+	}
+
+	/**
+	 * Compares words with given ids as String.compareTo, without creating them.
+	 */
+	int compareWords(int id1, int id2) {
+		int offset1 = offsets[id1];
+		int offset2 = offsets[id2];
+		int len1 = offsets[id1+1] - offset1;
+		int len2 = offsets[id2+1] - offset2;
+		int minLen = Math.min(len1, len2);
+		for(int i = 0; i < minLen; i++) {
+			char c1 = chars[offset1 + i];
+			char c2 = chars[offset2 + i];
+			if(c1 != c2) {
+				return c1 - c2;
+			}
+		}
+		return len1 - len2;
+	}
+
+	/**
+	 * Builds trie for prefix queries over the words of posTypeName, from
+	 * both the lexicon data and the common words, each word once.
+	 * @param posTypeName
+	 * @return
+	 */
+	public WordTrie buildWordTrie(PosTypeName posTypeName) {
+		int[] ids = posWordIds[posTypeName.ordinal()];
+		int[] commonIds = commonPosWordIds[posTypeName.ordinal()];
+		int[] allIds = Arrays.copyOf(ids, ids.length + commonIds.length);
+		System.arraycopy(commonIds, 0, allIds, ids.length, commonIds.length);
+		return new WordTrie(this, allIds);
+	}
+
+	/**
+	 * Number of distinct words, ids are 0 up to size() exclusive.
+	 * @return
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Number of words of posTypeName in the lexicon data.
+	 * @param posTypeName
+	 * @return
+	 */
+	public int posWordCount(PosTypeName posTypeName) {
+		return posWordIds[posTypeName.ordinal()].length;
+	}
+
+	/**
+	 * Id of index-th word of posTypeName in the lexicon data.
+	 * @param posTypeName
+	 * @param index
+	 * @return
+	 */
+	public int posWordId(PosTypeName posTypeName, int index) {
+		return posWordIds[posTypeName.ordinal()][index];
+	}
+
+	/**
+	 * Number of common words of posTypeName, counting words listed more than once.
+	 * @param posTypeName
+	 * @return
+	 */
+	public int commonPosWordCount(PosTypeName posTypeName) {
+		return commonPosWordIds[posTypeName.ordinal()].length;
+	}
+
+	/**
+	 * Id of index-th common word of posTypeName.
+	 * @param posTypeName
+	 * @param index
+	 * @return
+	 */
+	public int commonPosWordId(PosTypeName posTypeName, int index) {
+		return commonPosWordIds[posTypeName.ordinal()][index];
+	}
+
+	/**
+	 * PosTypeName first seen for word in the lexicon data.
+	 * @param word
+	 * @return null if word is not in the lexicon data.
+	 */
+	public PosTypeName posTypeName(String word) {
+		return toPosTypeName(posOrdinals, id(word));
+	}
+
+	/**
+	 * PosTypeName first seen for word with given id in the lexicon data.
+	 * @param id
+	 * @return null if word is not in the lexicon data.
+	 */
+	public PosTypeName posTypeName(int id) {
+		return toPosTypeName(posOrdinals, id);
+	}
+
+	/**
+	 * Most likely PosTypeName of a common word, i.e. first seen in
+	 * the word frequency data.
+	 * @param word
+	 * @return null if word is not a common word.
+	 */
+	public PosTypeName commonPosTypeName(String word) {
+		return toPosTypeName(commonPosOrdinals, id(word));
+	}
+
+	/**
+	 * Number of PosTypeName's word with given id is tagged with, in the 
+	 * lexicon data or the word frequency data.
+	 * @param id
+	 * @return 0 if id is NO_ID.
+	 */
+	public int posTagCount(int id) {
+		return NO_ID == id ? 0 : posTagStarts[id+1] - posTagStarts[id];
+	}
+
+	/**
+	 * index-th PosTypeName of word with given id, heaviest first.
+	 * @param id
+	 * @param index
+	 * @return
+	 */
+	public PosTypeName posTag(int id, int index) {
+		return POS_TYPE_NAMES[posTagOrdinals[posTagStarts[id] + index]];
+	}
+
+	/**
+	 * Weight of index-th PosTypeName of word with given id: the word's frequency
+	 * as that PosTypeName in the word frequency data, plus 1 if listed as that
+	 * PosTypeName in the lexicon data.
+	 * @param id
+	 * @param index
+	 * @return
+	 */
+	public int posTagWeight(int id, int index) {
+		return posTagWeights[posTagStarts[id] + index];
+	}
+
+	private static PosTypeName toPosTypeName(byte[] ordinals, int id) {
+		if(NO_ID == id || NO_POS == ordinals[id]) {
+			return null;
+		}
+		return POS_TYPE_NAMES[ordinals[id]];
+	}
+
+	/**
+	 * Writes lexicon to out, to be read back with read(). The hash table
+	 * isn't written, but rebuilt when read.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		byte[] charBytes = new String(chars).getBytes(StandardCharsets.UTF_8);
+		out.writeInt(charBytes.length);
+		out.write(charBytes);
+		writeInts(out, offsets);
+		out.write(posOrdinals);
+		out.write(commonPosOrdinals);
+		out.writeInt(posWordIds.length);
+		for(int i = 0; i < posWordIds.length; i++) {
+			writeInts(out, posWordIds[i]);
+			writeInts(out, commonPosWordIds[i]);
+		}
+		writeInts(out, posTagStarts);
+		out.write(posTagOrdinals);
+		writeInts(out, posTagWeights);
+	}
+
+	/**
+	 * Reads lexicon written with write().
+	 * @param in
+	 * @return
+	 * @throws IOException if not written for the current PosTypeName's.
+	 */
+	public static Lexicon read(DataInputStream in) throws IOException {
+		byte[] charBytes = new byte[in.readInt()];
+		in.readFully(charBytes);
+		char[] chars = new String(charBytes, StandardCharsets.UTF_8).toCharArray();
+		int[] offsets = readInts(in);
+		int wordCount = offsets.length - 1;
+		if(wordCount < 0 || offsets[wordCount] != chars.length) {
+			throw new IOException("Lexicon offsets don't match its chars.");
+		}
+		byte[] posOrdinals = new byte[wordCount];
+		in.readFully(posOrdinals);
+		byte[] commonPosOrdinals = new byte[wordCount];
+		in.readFully(commonPosOrdinals);
+		if(in.readInt() != POS_TYPE_NAMES.length) {
+			throw new IOException("Lexicon written for different PosTypeName's.");
+		}
+		int[][] posWordIds = new int[POS_TYPE_NAMES.length][];
+		int[][] commonPosWordIds = new int[POS_TYPE_NAMES.length][];
+		for(int i = 0; i < POS_TYPE_NAMES.length; i++) {
+			posWordIds[i] = readInts(in);
+			commonPosWordIds[i] = readInts(in);
+		}
+		int[] posTagStarts = readInts(in);
+		if(posTagStarts.length != wordCount + 1) {
+			throw new IOException("Lexicon tags don't match its words.");
+		}
+		byte[] posTagOrdinals = new byte[posTagStarts[wordCount]];
+		in.readFully(posTagOrdinals);
+		int[] posTagWeights = readInts(in);
+		return new Lexicon(chars, offsets, posOrdinals, commonPosOrdinals, posWordIds, commonPosWordIds,
+				posTagStarts, posTagOrdinals, posTagWeights);
+	}
+
+	//ints written as one block of bytes, rather than one writeInt each
+	private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(ints.length << 2);
+		buffer.asIntBuffer().put(ints);
+		out.writeInt(ints.length);
+		out.write(buffer.array());
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int len = in.readInt();
+		if(len < 0) {
+			throw new IOException("Negative array length: " + len);
+		}
+		byte[] bytes = new byte[len << 2];
+		in.readFully(bytes);
+		int[] ints = new int[len];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+		return ints;
+	}
+
+	/**
+	 * Growable list of ids.
+	 */
+	private static class IdList{
+		int[] ids = new int[16];
+		int size;
+
+		void add(int id) {
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size << 1);
+			}
+			ids[size++] = id;
+		}
+	}
+
+	/**
+	 * Growable list of PosTypeName tags of words.
+	 */
+	private static class PosTagList{
+		int[] ids = new int[1 << 12];
+		byte[] ordinals = new byte[1 << 12];
+		int[] weights = new int[1 << 12];
+		int size;
+
+		void add(int id, byte ordinal, int weight) {
+			if(size == ids.length) {
+				ids = Arrays.copyOf(ids, size << 1);
+				ordinals = Arrays.copyOf(ordinals, size << 1);
+				weights = Arrays.copyOf(weights, size << 1);
+			}
+			ids[size] = id;
+			ordinals[size] = ordinal;
+			weights[size] = weight;
+			size++;
+		}
+	}
+
+	/**
+	 * Collects the words, to build the lexicon from. Not thread-safe.
+	 */
+	public static class Builder{
+
+		private final StringBuilder chars = new StringBuilder(1 << 18);
+		private int[] offsets = new int[1 << 12];
+		private byte[] posOrdinals = new byte[1 << 12];
+		private byte[] commonPosOrdinals = new byte[1 << 12];
+		private int wordCount;
+		//only used while building
+		private final Map<String, Integer> idMap = new HashMap<String, Integer>();
+		private final IdList[] posWordIds = new IdList[POS_TYPE_NAMES.length];
+		private final IdList[] commonPosWordIds = new IdList[POS_TYPE_NAMES.length];
+		private final PosTagList posTags = new PosTagList();
+
+		/**
+		 * Adds word if not already added.
+		 * @param word
+		 * @return id of word.
+		 */
+		public int add(String word) {
+			Integer id = idMap.get(word);
+			if(null != id) {
+				return id;
+			}
+			if(wordCount + 1 == offsets.length) {
+				int capacity = offsets.length << 1;
+				offsets = Arrays.copyOf(offsets, capacity);
+				posOrdinals = Arrays.copyOf(posOrdinals, capacity);
+				commonPosOrdinals = Arrays.copyOf(commonPosOrdinals, capacity);
+			}
+			int newId = wordCount++;
+			chars.append(word);
+			offsets[wordCount] = chars.length();
+			posOrdinals[newId] = NO_POS;
+			commonPosOrdinals[newId] = NO_POS;
+			idMap.put(word, newId);
+			return newId;
+		}
+
+		/**
+		 * Appends word to the lexicon words of posTypeName.
+		 * @param posTypeName
+		 * @param word
+		 */
+		public void addPosWord(PosTypeName posTypeName, String word) {
+			add(posWordIds, posTypeName, word);
+		}
+
+		/**
+		 * Appends word to the common words of posTypeName. Words can be
+		 * appended more than once, to be drawn more often.
+		 * @param posTypeName
+		 * @param word
+		 */
+		public void addCommonPosWord(PosTypeName posTypeName, String word) {
+			add(commonPosWordIds, posTypeName, word);
+		}
+
+		private void add(IdList[] idLists, PosTypeName posTypeName, String word) {
+			int ordinal = posTypeName.ordinal();
+			if(null == idLists[ordinal]) {
+				idLists[ordinal] = new IdList();
+			}
+			idLists[ordinal].add(add(word));
+		}
+
+		/**
+		 * Sets PosTypeName of word in lexicon data, unless already set.
+		 * @param word
+		 * @param posTypeName
+		 */
+		public void putPosTypeNameIfAbsent(String word, PosTypeName posTypeName) {
+			int id = add(word);
+			if(NO_POS == posOrdinals[id]) {
+				posOrdinals[id] = (byte)posTypeName.ordinal();
+			}
+		}
+
+		/**
+		 * Sets PosTypeName of common word, unless already set.
+		 * @param word
+		 * @param posTypeName
+		 */
+		public void putCommonPosTypeNameIfAbsent(String word, PosTypeName posTypeName) {
+			int id = add(word);
+			if(NO_POS == commonPosOrdinals[id]) {
+				commonPosOrdinals[id] = (byte)posTypeName.ordinal();
+			}
+		}
+
+		/**
+		 * Tags word with posTypeName. Weights of repeated tags add up.
+		 * @param word
+		 * @param posTypeName
+		 * @param weight non-negative.
+		 */
+		public void addPosTag(String word, PosTypeName posTypeName, int weight) {
+			if(weight < 0) {
+				throw new IllegalArgumentException("weight cannot be negative.");
+			}
+			posTags.add(add(word), (byte)posTypeName.ordinal(), weight);
+		}
+
+		public Lexicon build() {
+			//tags grouped by word, as in a counting sort
+			int[] posTagStarts = new int[wordCount + 1];
+			for(int i = 0; i < posTags.size; i++) {
+				posTagStarts[posTags.ids[i] + 1]++;
+			}
+			for(int id = 0; id < wordCount; id++) {
+				posTagStarts[id + 1] += posTagStarts[id];
+			}
+			byte[] tagOrdinals = new byte[posTags.size];
+			int[] tagWeights = new int[posTags.size];
+			int[] tagEnds = Arrays.copyOf(posTagStarts, wordCount);
+			for(int i = 0; i < posTags.size; i++) {
+				int id = posTags.ids[i];
+				byte ordinal = posTags.ordinals[i];
+				int j = posTagStarts[id];
+				while(j < tagEnds[id] && tagOrdinals[j] != ordinal) {
+					j++;
+				}
+				if(j == tagEnds[id]) {
+					tagOrdinals[j] = ordinal;
+					tagEnds[id]++;
+				}
+				tagWeights[j] = (int)Math.min(Integer.MAX_VALUE, (long)tagWeights[j] + posTags.weights[i]);
+			}
+			//repeated tags merged, so shift each word's tags down to close the gaps
+			int tagCount = 0;
+			for(int id = 0; id < wordCount; id++) {
+				int start = posTagStarts[id];
+				int end = tagEnds[id];
+				posTagStarts[id] = tagCount;
+				for(int j = start; j < end; j++) {
+					//insertion sort, heaviest first, ties in order added
+					byte ordinal = tagOrdinals[j];
+					int weight = tagWeights[j];
+					int k = tagCount;
+					while(k > posTagStarts[id] && tagWeights[k-1] < weight) {
+						tagOrdinals[k] = tagOrdinals[k-1];
+						tagWeights[k] = tagWeights[k-1];
+						k--;
+					}
+					tagOrdinals[k] = ordinal;
+					tagWeights[k] = weight;
+					tagCount++;
+				}
+			}
+			posTagStarts[wordCount] = tagCount;
+			return new Lexicon(chars.toString().toCharArray(), Arrays.copyOf(offsets, wordCount + 1),
+					Arrays.copyOf(posOrdinals, wordCount), Arrays.copyOf(commonPosOrdinals, wordCount),
+					toArrays(posWordIds), toArrays(commonPosWordIds), posTagStarts, 
+					Arrays.copyOf(tagOrdinals, tagCount), Arrays.copyOf(tagWeights, tagCount));
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the lines of a file, memory-mapped a chunk at a time,
+ * rather than reading the whole file into a List of Strings. Each line is
+ * decoded into one buffer reused across lines, and handed out as a
+ * CharSequence view of that buffer, so memory used doesn't grow with the
+ * file. A line is only valid until the iterator advances: call toString()
+ * on it, or on the parts of it, to keep them.
+ * Lines end at "\n" or "\r\n", as in BufferedReader.readLine, and must be
+ * shorter than the chunk size. Iterated once, then closed, e.g.
+ * try(MappedLineReader lines = StoryUtils.readLines(fileStr)){ for(CharSequence line : lines) ... }
+ *
+ * @author yihed
+ *
+ */
+public class MappedLineReader implements Iterable<CharSequence>, AutoCloseable {
+
+	/**bytes mapped at a time*/
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 26;
+	private static final int INITIAL_LINE_CAPACITY = 256;
+	private static final byte NEWLINE = '\n';
+	private static final byte CARRIAGE_RETURN = '\r';
+
+	private final String fileStr;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int chunkSize;
+	private final CharsetDecoder decoder;
+	//whether bytes below 0x80 are chars of the same value, so ASCII lines can be copied
+	private final boolean asciiCompatible;
+	private MappedByteBuffer chunk;
+	//position in file of chunk's first byte
+	private long chunkStart;
+	//position in file of next line
+	private long position;
+	private CharBuffer lineBuffer = CharBuffer.allocate(INITIAL_LINE_CAPACITY);
+	private boolean iterated;
+
+	/**
+	 * @param fileStr
+	 * @param charset
+	 * @throws IllegalStateException if file cannot be opened.
+	 */
+	public MappedLineReader(String fileStr, Charset charset) {
+		this(fileStr, charset, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param fileStr_
+	 * @param charset
+	 * @param chunkSize_ number of bytes mapped at a time, lines must be shorter.
+	 * @throws IllegalStateException if file cannot be opened.
+	 */
+	public MappedLineReader(String fileStr_, Charset charset, int chunkSize_) {
+		if(chunkSize_ < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive.");
+		}
+		this.fileStr = fileStr_;
+		this.chunkSize = chunkSize_;
+		//malformed input replaced, as by InputStreamReader
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+				|| charset.equals(StandardCharsets.US_ASCII);
+		try {
+			this.channel = FileChannel.open(Paths.get(fileStr_), StandardOpenOption.READ);
+			this.fileSize = channel.size();
+		}catch(IOException e) {
+			throw new IllegalStateException("Cannot read " + fileStr_, e);
+		}
+	}
+
+	/**
+	 * Iterator over the lines, each only valid until the next call to
+	 * hasNext() or next(). Can only be called once.
+	 */
+	@Override
+	public Iterator<CharSequence> iterator() {
+		if(iterated) {
+			throw new IllegalStateException("Lines can only be iterated once.");
+		}
+		iterated = true;
+		return new Iterator<CharSequence>() {
+			CharSequence nextLine;
+
+			@Override
+			public boolean hasNext() {
+				if(null == nextLine) {
+					nextLine = readLine();
+				}
+				return null != nextLine;
+			}
+
+			@Override
+			public CharSequence next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				CharSequence line = nextLine;
+				nextLine = null;
+				return line;
+			}
+		};
+	}
+
+	/**
+	 * Decodes next line into lineBuffer.
+	 * @return lineBuffer, or null at end of file.
+	 */
+	private CharSequence readLine() {
+		if(position >= fileSize) {
+			return null;
+		}
+		if(null == chunk || position >= chunkStart + chunk.limit()) {
+			map(position);
+		}
+		int start = (int)(position - chunkStart);
+		int end;
+		int byteUnion;
+		while(true) {
+			//OR of the line's bytes, high bit set if any isn't ASCII
+			byteUnion = 0;
+			int limit = chunk.limit();
+			end = start;
+			while(end < limit) {
+				byte b = chunk.get(end);
+				if(NEWLINE == b) {
+					break;
+				}
+				byteUnion |= b;
+				end++;
+			}
+			if(end < limit || chunkStart + limit == fileSize) {
+				break;
+			}
+			//line runs past chunk, map again from its start
+			if(0 == start) {
+				throw new IllegalStateException("Line in " + fileStr + " at byte " + position
+						+ " is longer than chunk size " + chunkSize);
+			}
+			map(position);
+			start = 0;
+		}
+		position = chunkStart + end + 1;
+		if(end > start && CARRIAGE_RETURN == chunk.get(end-1)) {
+			end--;
+		}
+		if(asciiCompatible && byteUnion >= 0) {
+			copyAscii(start, end);
+		}else {
+			decode(start, end);
+		}
+		return lineBuffer;
+	}
+
+	private void map(long mapStart) {
+		try {
+			chunk = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, Math.min(chunkSize, fileSize - mapStart));
+		}catch(IOException e) {
+			throw new IllegalStateException("Cannot read " + fileStr, e);
+		}
+		chunkStart = mapStart;
+	}
+
+	private void copyAscii(int start, int end) {
+		int len = end - start;
+		if(len > lineBuffer.capacity()) {
+			lineBuffer = CharBuffer.allocate(Math.max(len, lineBuffer.capacity() << 1));
+		}
+		char[] chars = lineBuffer.array();
+		for(int i = 0; i < len; i++) {
+			chars[i] = (char)chunk.get(start + i);
+		}
+		lineBuffer.clear();
+		lineBuffer.limit(len);
+	}
+
+	private void decode(int start, int end) {
+		ByteBuffer bytes = chunk.duplicate();
+		bytes.limit(end).position(start);
+		decoder.reset();
+		lineBuffer.clear();
+		CoderResult result;
+		while((result = decoder.decode(bytes, lineBuffer, true)).isOverflow()
+				|| (result = decoder.flush(lineBuffer)).isOverflow()) {
+			CharBuffer largerBuffer = CharBuffer.allocate(lineBuffer.capacity() << 1);
+			lineBuffer.flip();
+			largerBuffer.put(lineBuffer);
+			lineBuffer = largerBuffer;
+		}
+		lineBuffer.flip();
+	}
+
+	/**
+	 * Closes the file. Mapped chunks are released once garbage collected.
+	 */
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		}catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -1,12 +1,7 @@
 package utils;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +20,7 @@ public class StoryUtils {
 	public static final Pattern WHITE_EMPTY_SPACE_PATT = Pattern.compile("\\s*");
 	public static final Pattern WHITE_NON_EMPTY_SPACE_PATT = Pattern.compile("\\s+");
 	public static final Pattern SURROUNDING_SPACE_PATT = Pattern.compile("^\\s*(.+?)\\s*$");
+	public static final Pattern INTEGER_PATT = Pattern.compile("-?\\d{1,18}");
 	
 	/**
 	 * Wrapper around list where each successive element 
@@ -105,40 +101,30 @@ public class StoryUtils {
 		}		
 	}
 	
+	/**
+	 * Lines of file, memory-mapped and decoded one at a time, see MappedLineReader.
+	 * To be closed after iterating.
+	 * @param fileStr
+	 * @param charsetAr default is UTF-8 if none specified.
+	 * @return
+	 */
+	public static MappedLineReader readLines(String fileStr, Charset... charsetAr){
+		Charset charset = 0 == charsetAr.length ? StandardCharsets.UTF_8 : charsetAr[0];
+		return new MappedLineReader(fileStr, charset);
+	}
+	
+	/**
+	 * All lines of file, as Strings. Prefer readLines() for large files.
+	 * @param fileStr
+	 * @param charsetAr default is UTF-8 if none specified.
+	 * @return
+	 */
 	public static List<String> readLinesFromFile(String fileStr , Charset... charsetAr){
-		Charset charset;
-		if(0 == charsetAr.length){
-			charset = Charset.forName("UTF-8");
-		}else{
-			charset = charsetAr[0];
-		}
 		List<String> lines = new ArrayList<String>();
-		try{
-			//FileReader fReader = null;
-			BufferedReader bReader = null;
-			InputStream fileInputStream = null;
-			InputStreamReader isReader = null;
-			try{
-				//fReader = new FileReader(fileStr);
-				fileInputStream = new FileInputStream(fileStr);
-				isReader = new InputStreamReader(fileInputStream, charset);
-				bReader = new BufferedReader(isReader);
-				
-				String line;
-				while((line=bReader.readLine()) != null){
-					lines.add(line);
-				}
-			}finally{
-				bReader.close();
-				isReader.close();
-				fileInputStream.close();
+		try(MappedLineReader lineReader = readLines(fileStr, charsetAr)){
+			for(CharSequence line : lineReader){
+				lines.add(line.toString());
 			}
-		
-		}catch(FileNotFoundException e){
-			e.printStackTrace();
-			throw new IllegalStateException(e);
-		}catch(IOException e){
-			throw new IllegalStateException(e);
 		}
 		return lines;
 	}
@@ -0,0 +1,189 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Trie over a set of Lexicon words, e.g. those of one PosTypeName, for
+ * prefix queries: the number of words starting with a prefix, the i-th of
+ * them, or a uniformly random one, each found in time linear in the prefix
+ * length, rather than by scanning words or rejecting random ones.
+ * Words are kept sorted, so the words under each node are a contiguous
+ * range of them. Nodes are laid out breadth first in flat arrays, the
+ * children of each node being contiguous and sorted by char.
+ * Immutable once built, so can be shared across threads.
+ *
+ * @author yihed
+ *
+ */
+public class WordTrie {
+
+	private static final int ROOT = 0;
+	private static final int NO_NODE = -1;
+
+	private final Lexicon lexicon;
+	//distinct word ids, sorted by word
+	private final int[] sortedIds;
+	//children of node n are nodes firstChild[n] up to firstChild[n+1]
+	private final int[] firstChild;
+	//char on the edge into each node, unused for root
+	private final char[] labels;
+	//words starting with node n's prefix are sortedIds[rangeStart[n]] up to sortedIds[rangeEnd[n]]
+	private final int[] rangeStart;
+	private final int[] rangeEnd;
+
+	/**
+	 * @param lexicon_ lexicon the ids refer to.
+	 * @param wordIds may contain repeated ids, each word is indexed once.
+	 */
+	public WordTrie(Lexicon lexicon_, int[] wordIds) {
+		this.lexicon = lexicon_;
+		this.sortedIds = Arrays.stream(wordIds).distinct().boxed()
+				.sorted(lexicon_::compareWords).mapToInt(Integer::intValue).toArray();
+
+		//each node past root adds a char of some word
+		int maxNodeCount = 1;
+		for(int id : sortedIds) {
+			maxNodeCount += lexicon_.wordLength(id);
+		}
+		int[] firstChildAr = new int[maxNodeCount + 1];
+		char[] labelAr = new char[maxNodeCount];
+		int[] rangeStartAr = new int[maxNodeCount];
+		int[] rangeEndAr = new int[maxNodeCount];
+		//length of each node's prefix, only needed while building
+		int[] depths = new int[maxNodeCount];
+		rangeEndAr[ROOT] = sortedIds.length;
+		int nodeCount = 1;
+		//children are appended as their parent is visited, so they end up breadth first
+		for(int node = 0; node < nodeCount; node++) {
+			firstChildAr[node] = nodeCount;
+			int depth = depths[node];
+			int end = rangeEndAr[node];
+			int i = rangeStartAr[node];
+			//word equal to the prefix sorts first
+			if(i < end && lexicon_.wordLength(sortedIds[i]) == depth) {
+				i++;
+			}
+			while(i < end) {
+				char c = lexicon_.charAt(sortedIds[i], depth);
+				int childStart = i;
+				while(i < end && lexicon_.charAt(sortedIds[i], depth) == c) {
+					i++;
+				}
+				labelAr[nodeCount] = c;
+				rangeStartAr[nodeCount] = childStart;
+				rangeEndAr[nodeCount] = i;
+				depths[nodeCount] = depth + 1;
+				nodeCount++;
+			}
+		}
+		firstChildAr[nodeCount] = nodeCount;
+		this.firstChild = Arrays.copyOf(firstChildAr, nodeCount + 1);
+		this.labels = Arrays.copyOf(labelAr, nodeCount);
+		this.rangeStart = Arrays.copyOf(rangeStartAr, nodeCount);
+		this.rangeEnd = Arrays.copyOf(rangeEndAr, nodeCount);
+	}
+
+	/**
+	 * Node whose prefix is given prefix.
+	 * @param prefix
+	 * @return NO_NODE if no word starts with prefix.
+	 */
+	private int node(CharSequence prefix) {
+		int node = ROOT;
+		int prefixLen = prefix.length();
+		for(int i = 0; i < prefixLen && NO_NODE != node; i++) {
+			node = child(node, prefix.charAt(i));
+		}
+		return node;
+	}
+
+	private int child(int node, char c) {
+		int low = firstChild[node];
+		int high = firstChild[node + 1] - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			char label = labels[mid];
+			if(label < c) {
+				low = mid + 1;
+			}else if(label > c) {
+				high = mid - 1;
+			}else {
+				return mid;
+			}
+		}
+		return NO_NODE;
+	}
+
+	/**
+	 * Number of distinct words indexed.
+	 * @return
+	 */
+	public int size() {
+		return sortedIds.length;
+	}
+
+	/**
+	 * Number of words starting with prefix.
+	 * @param prefix empty for all words.
+	 * @return
+	 */
+	public int count(CharSequence prefix) {
+		int node = node(prefix);
+		return NO_NODE == node ? 0 : rangeEnd[node] - rangeStart[node];
+	}
+
+	/**
+	 * Whether word itself is indexed.
+	 * @param word
+	 * @return
+	 */
+	public boolean contains(CharSequence word) {
+		int node = node(word);
+		return NO_NODE != node && rangeStart[node] < rangeEnd[node]
+				&& lexicon.wordLength(sortedIds[rangeStart[node]]) == word.length();
+	}
+
+	/**
+	 * Id of index-th word starting with prefix, in sorted order.
+	 * @param prefix
+	 * @param index
+	 * @return
+	 * @throws IndexOutOfBoundsException if index is not below count(prefix).
+	 */
+	public int wordId(CharSequence prefix, int index) {
+		int node = node(prefix);
+		int count = NO_NODE == node ? 0 : rangeEnd[node] - rangeStart[node];
+		if(index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("index " + index + " for " + count + " words starting with " + prefix);
+		}
+		return sortedIds[rangeStart[node] + index];
+	}
+
+	/**
+	 * Ids of all words starting with prefix, in sorted order.
+	 * @param prefix
+	 * @return empty if there are none.
+	 */
+	public int[] wordIds(CharSequence prefix) {
+		int node = node(prefix);
+		if(NO_NODE == node) {
+			return new int[0];
+		}
+		return Arrays.copyOfRange(sortedIds, rangeStart[node], rangeEnd[node]);
+	}
+
+	/**
+	 * Id of a word starting with prefix, each equally likely.
+	 * @param prefix
+	 * @param rand
+	 * @return Lexicon.NO_ID if no word starts with prefix.
+	 */
+	public int randomWordId(CharSequence prefix, RandomGenerator rand) {
+		int node = node(prefix);
+		if(NO_NODE == node || rangeStart[node] == rangeEnd[node]) {
+			return Lexicon.NO_ID;
+		}
+		return sortedIds[rangeStart[node] + rand.nextInt(rangeEnd[node] - rangeStart[node])];
+	}
+}